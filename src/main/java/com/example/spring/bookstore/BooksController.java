@@ -1,29 +1,61 @@
 package com.example.spring.bookstore;
 
 import com.example.spring.bookstore.data.entity.Book;
+import com.example.spring.bookstore.data.view.BookSalesView;
 import com.example.spring.bookstore.errors.FieldErrorsView;
+import com.example.spring.bookstore.request.objects.BookFilter;
+import com.example.spring.bookstore.request.objects.BookPageCursor;
 import com.example.spring.bookstore.request.objects.BookRequest;
+import com.example.spring.bookstore.request.objects.BookSort;
+import com.example.spring.bookstore.service.Bestsellers;
 import com.example.spring.bookstore.service.BookService;
+import com.example.spring.bookstore.service.ResourceVersions;
+import com.example.spring.bookstore.util.JsonArrayStream;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.Errors;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
 import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @RestController
 @RequestMapping("/api/books")
 public class BooksController {
 
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int DEFAULT_BESTSELLERS = 10;
+    private static final Pattern WINDOW = Pattern.compile("(\\d{1,9})([smhd])");
+
     private final Logger log = LoggerFactory.getLogger(BooksController.class);
     private final BookService bookService;
+    private final Bestsellers bestsellers;
+    private final ResourceVersions resourceVersions;
+    private final ObjectMapper objectMapper;
+    private final int pageMaxSize;
 
-    public BooksController(BookService bookService) {
+    public BooksController(BookService bookService,
+                           Bestsellers bestsellers,
+                           ResourceVersions resourceVersions,
+                           ObjectMapper objectMapper,
+                           @Value("${bookstore.books.page-max-size:1000}") int pageMaxSize) {
         // Getting booksRepository
         this.bookService = bookService;
+        this.bestsellers = bestsellers;
+        this.resourceVersions = resourceVersions;
+        this.objectMapper = objectMapper;
+        this.pageMaxSize = pageMaxSize;
     }
 
     /**
@@ -58,23 +90,158 @@ public class BooksController {
     }
 
     /**
-     * Getting all books
+     * Getting all books, or a page of books if any paging or filter param is given.
+     * Pages are read with keyset queries, so deep pages are as cheap as the first one.
+     * Filtered pages are sorted by price and found in the in-memory price and stock index,
+     * the filters are passed again with the cursor.
+     * A request with the current catalog ETag in If-None-Match gets 304 without reading books
      * <p>example: GET /api/books</p>
+     * <p>example: GET /api/books?sort=price&amp;direction=desc&amp;size=20</p>
+     * <p>example: GET /api/books?cursor=bmFtZXxmYWxzZXwxMnxCb29rIDEy</p>
+     * <p>example: GET /api/books?minPrice=10&amp;maxPrice=50&amp;inStock=true</p>
+     *
+     * @param sort        id, name or price, id by default, filtered pages are sorted by price
+     * @param direction   asc or desc, asc by default
+     * @param size        page size
+     * @param cursor      next page cursor from the previous page, its sort and direction are used
+     * @param minPrice    lowest price, inclusive
+     * @param maxPrice    highest price, inclusive
+     * @param inStock     true for books in stock only
+     * @param ifNoneMatch optional ETags the client has
      */
     @GetMapping(value = {"", "/"})
-    public ResponseEntity<Object> getAllBooks() {
-        return ResponseEntity.ok(bookService.getAll());
+    public ResponseEntity<Object> getAllBooks(@RequestParam(required = false) String sort,
+                                              @RequestParam(required = false) String direction,
+                                              @RequestParam(required = false) Integer size,
+                                              @RequestParam(required = false) String cursor,
+                                              @RequestParam(required = false) Double minPrice,
+                                              @RequestParam(required = false) Double maxPrice,
+                                              @RequestParam(defaultValue = "false") boolean inStock,
+                                              @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)
+                                                      String ifNoneMatch) {
+        // The stamp is read before books, so the response is never older than the ETag
+        String etag = resourceVersions.books().collectionTag();
+        BookFilter filter = new BookFilter(minPrice, maxPrice, inStock);
+        if (sort == null && direction == null && size == null && cursor == null && filter.isEmpty()) {
+            if (ResourceVersions.matches(ifNoneMatch, etag)) return notModified(etag);
+            return ResponseEntity.ok().eTag(etag).body(bookService.getAll());
+        }
+
+        int pageSize = size == null ? DEFAULT_PAGE_SIZE : size;
+        if (pageSize < 1 || pageSize > pageMaxSize) {
+            FieldErrorsView fieldErrorsView = new FieldErrorsView(
+                    "size",
+                    "Page size must be between 1 and " + pageMaxSize,
+                    size
+            );
+            return new ResponseEntity<>(fieldErrorsView, HttpStatus.BAD_REQUEST);
+        }
+
+        BookPageCursor pageCursor = null;
+        BookSort bookSort = BookSort.ID;
+        boolean descending = false;
+        if (cursor != null) {
+            try {
+                pageCursor = BookPageCursor.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                return new ResponseEntity<>(new FieldErrorsView("cursor", e.getMessage(), cursor), HttpStatus.BAD_REQUEST);
+            }
+            bookSort = pageCursor.getSort();
+            descending = pageCursor.isDescending();
+        } else {
+            if (sort != null) {
+                try {
+                    bookSort = BookSort.fromProperty(sort);
+                } catch (IllegalArgumentException e) {
+                    return new ResponseEntity<>(new FieldErrorsView("sort", e.getMessage(), sort), HttpStatus.BAD_REQUEST);
+                }
+            }
+            if (direction != null && !"asc".equals(direction) && !"desc".equals(direction)) {
+                FieldErrorsView fieldErrorsView = new FieldErrorsView(
+                        "direction",
+                        "Direction must be asc or desc",
+                        direction
+                );
+                return new ResponseEntity<>(fieldErrorsView, HttpStatus.BAD_REQUEST);
+            }
+            descending = "desc".equals(direction);
+        }
+
+        if (!filter.isEmpty()) {
+            ResponseEntity<Object> filterErrors = checkFilter(filter, sort, pageCursor);
+            if (filterErrors != null) return filterErrors;
+            if (ResourceVersions.matches(ifNoneMatch, etag)) return notModified(etag);
+            return ResponseEntity.ok().eTag(etag)
+                    .body(bookService.getFilteredPage(filter, descending, pageCursor, pageSize));
+        }
+        if (ResourceVersions.matches(ifNoneMatch, etag)) return notModified(etag);
+        return ResponseEntity.ok().eTag(etag).body(bookService.getPage(bookSort, descending, pageCursor, pageSize));
+    }
+
+    /**
+     * Searching books by name, best matches first: exact names, names starting with the query,
+     * names with a word starting with it, then other names containing it.
+     * Queries shorter than three characters match word starts only
+     * <p>example: GET /api/books/search?q=lord</p>
+     * <p>example: GET /api/books/search?q=ri&amp;page=1&amp;size=20</p>
+     *
+     * @param q    searched text
+     * @param page page number from 0
+     * @param size page size
+     */
+    @GetMapping(value = "/search")
+    public ResponseEntity<Object> searchBooks(@RequestParam(required = false) String q,
+                                              @RequestParam(required = false) Integer page,
+                                              @RequestParam(required = false) Integer size) {
+        if (q == null || q.trim().isEmpty()) {
+            return new ResponseEntity<>(new FieldErrorsView("q", "Search query can't be blank", q), HttpStatus.BAD_REQUEST);
+        }
+        int pageSize = size == null ? DEFAULT_PAGE_SIZE : size;
+        if (pageSize < 1 || pageSize > pageMaxSize) {
+            FieldErrorsView fieldErrorsView = new FieldErrorsView(
+                    "size",
+                    "Page size must be between 1 and " + pageMaxSize,
+                    size
+            );
+            return new ResponseEntity<>(fieldErrorsView, HttpStatus.BAD_REQUEST);
+        }
+        int pageNumber = page == null ? 0 : page;
+        if (pageNumber < 0 || (long) (pageNumber + 1) * pageSize > BookService.MAX_SEARCH_RESULTS) {
+            FieldErrorsView fieldErrorsView = new FieldErrorsView(
+                    "page",
+                    "Page must be from 0 and search pages end at " + BookService.MAX_SEARCH_RESULTS + " books",
+                    page
+            );
+            return new ResponseEntity<>(fieldErrorsView, HttpStatus.BAD_REQUEST);
+        }
+        return ResponseEntity.ok(bookService.search(q, pageNumber, pageSize));
     }
 
     /**
-     * Getting book by id
+     * Streaming all books, books are written as they are read from the database
+     * <p>example: GET /api/books/stream</p>
+     */
+    @GetMapping(value = "/stream")
+    public ResponseEntity<StreamingResponseBody> streamAllBooks() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .body(JsonArrayStream.of(objectMapper, bookService::streamAll));
+    }
+
+    /**
+     * Getting book by id, a request with the current ETag of the book gets 304 without reading the book
      * <p>example: GET /api/books/5</p>
      *
-     * @param id book id
+     * @param id          book id
+     * @param ifNoneMatch optional ETags the client has
      */
     @GetMapping(value = "/{id}")
-    public ResponseEntity<Object> getBookById(@PathVariable Long id) {
+    public ResponseEntity<Object> getBookById(@PathVariable Long id,
+                                              @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)
+                                                      String ifNoneMatch) {
         log.info("Getting book by id: {}", id);
+        String etag = resourceVersions.books().tag(id);
+        if (ResourceVersions.matches(ifNoneMatch, etag)) return notModified(etag);
 
         // Getting a book from service
         Optional<Book> book = bookService.getById(id);
@@ -82,7 +249,7 @@ public class BooksController {
         // If the book exists
         if (book.isPresent()) {
             // return the book
-            return ResponseEntity.ok(book);
+            return ResponseEntity.ok().eTag(etag).body(book);
         } else {
             // if the book doesn't exist
             log.info("The book with id:{} is not found", id);
@@ -90,6 +257,90 @@ public class BooksController {
         }
     }
 
+    /**
+     * Getting sales of a book: units sold, revenue and number of orders
+     * <p>example: GET /api/books/5/stats</p>
+     *
+     * @param id book id
+     */
+    @GetMapping(value = "/{id}/stats")
+    public ResponseEntity<Object> getBookStats(@PathVariable Long id) {
+        Optional<BookSalesView> sales = bookService.getSales(id);
+        if (sales.isPresent()) {
+            return ResponseEntity.ok(sales.get());
+        } else {
+            log.info("The book with id:{} is not found", id);
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    /**
+     * Getting sales of all books
+     * <p>example: GET /api/books/stats</p>
+     */
+    @GetMapping(value = "/stats")
+    public ResponseEntity<Object> getBooksStats() {
+        return ResponseEntity.ok(bookService.getSalesTotals());
+    }
+
+    /**
+     * Getting the books with the most units sold in a recent window, most units first.
+     * Units are counted in fixed-size sketches, so they can be above the true units by at most maxError,
+     * and the window is rounded up to whole minutes, or whole hours for windows over an hour
+     * <p>example: GET /api/books/bestsellers?window=1h&amp;n=50</p>
+     *
+     * @param window window ending now: a number with s, m, h or d, up to 1d, 1h by default
+     * @param n      max number of books
+     */
+    @GetMapping(value = "/bestsellers")
+    public ResponseEntity<Object> getBestsellers(@RequestParam(defaultValue = "1h") String window,
+                                                 @RequestParam(required = false) Integer n) {
+        Duration duration = parseWindow(window);
+        if (duration == null || duration.isZero() || duration.compareTo(Bestsellers.MAX_WINDOW) > 0) {
+            FieldErrorsView fieldErrorsView = new FieldErrorsView(
+                    "window",
+                    "Window must be a number with s, m, h or d, from 1s to 1d",
+                    window
+            );
+            return new ResponseEntity<>(fieldErrorsView, HttpStatus.BAD_REQUEST);
+        }
+        int limit = n == null ? DEFAULT_BESTSELLERS : n;
+        if (limit < 1 || limit > bestsellers.getCapacity()) {
+            FieldErrorsView fieldErrorsView = new FieldErrorsView(
+                    "n",
+                    "Number of books must be between 1 and " + bestsellers.getCapacity(),
+                    n
+            );
+            return new ResponseEntity<>(fieldErrorsView, HttpStatus.BAD_REQUEST);
+        }
+        return ResponseEntity.ok(bookService.getBestsellers(duration, limit));
+    }
+
+    /**
+     * Splitting stock of a hot book across slot rows
+     * <p>example: POST /api/books/5/hot?slots=8</p>
+     *
+     * @param id    book id
+     * @param slots number of stock slots, 0 turns hot mode off
+     */
+    @PostMapping(value = "/{id}/hot")
+    public ResponseEntity<Object> setBookStockSlots(@PathVariable Long id, @RequestParam int slots) {
+        log.info("Setting book {} stock slots: {}", id, slots);
+        if (slots < 0 || slots > BookService.MAX_STOCK_SLOTS) {
+            FieldErrorsView fieldErrorsView = new FieldErrorsView(
+                    "slots",
+                    "Stock slots must be between 0 and " + BookService.MAX_STOCK_SLOTS,
+                    slots
+            );
+            return new ResponseEntity<>(fieldErrorsView, HttpStatus.BAD_REQUEST);
+        }
+        try {
+            return ResponseEntity.ok(bookService.setStockSlots(id, slots));
+        } catch (BookService.BookNotExistException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
     /**
      * Deleting a book by id
      * <p>example: DELETE /api/books/5</p>
@@ -106,4 +357,66 @@ public class BooksController {
             return ResponseEntity.notFound().build();
         }
     }
+
+    /**
+     * Checking a filter of a page
+     *
+     * @return bad request response, or null if the filter is valid
+     */
+    private static ResponseEntity<Object> checkFilter(BookFilter filter, String sort, BookPageCursor cursor) {
+        if (!isValidPrice(filter.getMinPrice())) {
+            return new ResponseEntity<>(new FieldErrorsView("minPrice", "Price can't be less than 0", filter.getMinPrice()),
+                    HttpStatus.BAD_REQUEST);
+        }
+        if (!isValidPrice(filter.getMaxPrice())) {
+            return new ResponseEntity<>(new FieldErrorsView("maxPrice", "Price can't be less than 0", filter.getMaxPrice()),
+                    HttpStatus.BAD_REQUEST);
+        }
+        if (filter.getMinPrice() != null && filter.getMaxPrice() != null && filter.getMinPrice() > filter.getMaxPrice()) {
+            FieldErrorsView fieldErrorsView = new FieldErrorsView(
+                    "maxPrice",
+                    "Max price can't be less than min price",
+                    filter.getMaxPrice()
+            );
+            return new ResponseEntity<>(fieldErrorsView, HttpStatus.BAD_REQUEST);
+        }
+        if (cursor != null && cursor.getSort() != BookSort.PRICE) {
+            return new ResponseEntity<>(new FieldErrorsView("cursor", "Filtered books are sorted by price", null),
+                    HttpStatus.BAD_REQUEST);
+        }
+        if (cursor == null && sort != null && BookSort.fromProperty(sort) != BookSort.PRICE) {
+            return new ResponseEntity<>(new FieldErrorsView("sort", "Filtered books are sorted by price", sort),
+                    HttpStatus.BAD_REQUEST);
+        }
+        return null;
+    }
+
+    /**
+     * Parsing a window like 30m or 1h
+     *
+     * @return window, or null if it can't be parsed
+     */
+    private static Duration parseWindow(String window) {
+        Matcher matcher = WINDOW.matcher(window);
+        if (!matcher.matches()) return null;
+        long amount = Long.parseLong(matcher.group(1));
+        switch (matcher.group(2)) {
+            case "s":
+                return Duration.of(amount, ChronoUnit.SECONDS);
+            case "m":
+                return Duration.of(amount, ChronoUnit.MINUTES);
+            case "h":
+                return Duration.of(amount, ChronoUnit.HOURS);
+            default:
+                return Duration.of(amount, ChronoUnit.DAYS);
+        }
+    }
+
+    private static boolean isValidPrice(Double price) {
+        return price == null || (price >= 0 && !price.isInfinite());
+    }
+
+    private static ResponseEntity<Object> notModified(String etag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+    }
 }
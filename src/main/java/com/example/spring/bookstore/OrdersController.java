@@ -1,43 +1,86 @@
 package com.example.spring.bookstore;
 
 import com.example.spring.bookstore.data.entity.Order;
+import com.example.spring.bookstore.data.view.OrderTicketView;
 import com.example.spring.bookstore.data.view.OrderView;
 import com.example.spring.bookstore.errors.FieldErrorsView;
+import com.example.spring.bookstore.request.objects.BookItem;
+import com.example.spring.bookstore.request.objects.OrderFilter;
 import com.example.spring.bookstore.request.objects.OrderRequest;
+import com.example.spring.bookstore.request.objects.OrderSearch;
+import com.example.spring.bookstore.request.objects.OrderSearchCursor;
+import com.example.spring.bookstore.service.IdempotencyService;
+import com.example.spring.bookstore.service.OrderIntakeQueue;
 import com.example.spring.bookstore.service.OrderService;
 import com.example.spring.bookstore.service.OrderService.OrderNotExistException;
 import com.example.spring.bookstore.service.OrderService.OrderServiceFieldException;
+import com.example.spring.bookstore.service.ResourceVersions;
+import com.example.spring.bookstore.util.JsonArrayStream;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.Errors;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import javax.validation.Valid;
+import java.net.URI;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Optional;
 
 @RestController
 @RequestMapping("/api/orders")
 public class OrdersController {
 
+    private static final int DEFAULT_PAGE_SIZE = 50;
+
     private final Logger log = LoggerFactory.getLogger(OrdersController.class);
 
     private final OrderService orderService;
+    private final OrderIntakeQueue orderIntakeQueue;
+    private final IdempotencyService idempotencyService;
+    private final ResourceVersions resourceVersions;
+    private final ObjectMapper objectMapper;
+    private final int pageMaxSize;
 
-    public OrdersController(OrderService orderService) {
+    public OrdersController(OrderService orderService,
+                            OrderIntakeQueue orderIntakeQueue,
+                            IdempotencyService idempotencyService,
+                            ResourceVersions resourceVersions,
+                            ObjectMapper objectMapper,
+                            @Value("${bookstore.orders.page-max-size:1000}") int pageMaxSize) {
         this.orderService = orderService;
+        this.orderIntakeQueue = orderIntakeQueue;
+        this.idempotencyService = idempotencyService;
+        this.resourceVersions = resourceVersions;
+        this.objectMapper = objectMapper;
+        this.pageMaxSize = pageMaxSize;
     }
 
     /**
-     * Creating a new order
+     * Creating a new order.
+     * Requests with the same Idempotency-Key header create the order once
+     * and get the response of the first request
      * <p>example: POST /api/orders</p>
      *
-     * @param orderRequest request with items
-     * @param errors       validation errors
+     * @param orderRequest   request with items
+     * @param errors         validation errors
+     * @param idempotencyKey optional idempotency key
      */
     @PostMapping(value = "", produces = "application/json")
-    public ResponseEntity<Object> createNewOrder(@Valid @RequestBody OrderRequest orderRequest, Errors errors) {
+    public ResponseEntity<Object> createNewOrder(@Valid @RequestBody OrderRequest orderRequest,
+                                                 Errors errors,
+                                                 @RequestHeader(value = IdempotencyService.IDEMPOTENCY_KEY_HEADER,
+                                                         required = false) String idempotencyKey) {
 
         if (errors.hasErrors()) {
             FieldErrorsView fieldErrorsView = new FieldErrorsView();
@@ -46,6 +89,25 @@ public class OrdersController {
             return new ResponseEntity<>(fieldErrorsView, HttpStatus.BAD_REQUEST);
         }
 
+        if (idempotencyKey == null) {
+            return createOrder(orderRequest);
+        }
+        if (idempotencyKey.isEmpty() || idempotencyKey.length() > IdempotencyService.MAX_KEY_LENGTH) {
+            FieldErrorsView fieldErrorsView = new FieldErrorsView(
+                    IdempotencyService.IDEMPOTENCY_KEY_HEADER,
+                    "Idempotency key must be 1 to " + IdempotencyService.MAX_KEY_LENGTH + " characters long",
+                    idempotencyKey
+            );
+            return new ResponseEntity<>(fieldErrorsView, HttpStatus.BAD_REQUEST);
+        }
+        return idempotencyService.execute(
+                idempotencyKey,
+                fingerprint(orderRequest),
+                () -> createOrder(orderRequest)
+        );
+    }
+
+    private ResponseEntity<Object> createOrder(OrderRequest orderRequest) {
         try {
             Order order = orderService.createOrder(orderRequest);
             return new ResponseEntity<>(OrderView.fromOrder(order), HttpStatus.CREATED);
@@ -54,6 +116,84 @@ public class OrdersController {
         }
     }
 
+    /**
+     * Canonical form of an order request, it doesn't depend on the order of books
+     */
+    private static String fingerprint(OrderRequest orderRequest) {
+        List<BookItem> bookItems = new ArrayList<>(orderRequest.getBooks());
+        bookItems.sort(Comparator.comparing(BookItem::getBookId).thenComparing(BookItem::getQuantity));
+        StringBuilder fingerprint = new StringBuilder().append(orderRequest.getUserId());
+        for (BookItem bookItem : bookItems) {
+            fingerprint.append(':').append(bookItem.getBookId()).append('x').append(bookItem.getQuantity());
+        }
+        return fingerprint.toString();
+    }
+
+    /**
+     * Creating new orders from a batch of requests in one transaction,
+     * a rejected order doesn't fail the others
+     * <p>example: POST /api/orders/batch</p>
+     *
+     * @param orderRequests requests with items
+     */
+    @PostMapping(value = "/batch", produces = "application/json")
+    public ResponseEntity<Object> createNewOrders(@RequestBody List<OrderRequest> orderRequests) {
+        log.info("POST /api/orders/batch orders count: {}", orderRequests.size());
+        try {
+            return ResponseEntity.ok(orderService.createOrders(orderRequests));
+        } catch (OrderServiceFieldException e) {
+            return new ResponseEntity<>(e.getErrorsView(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Accepting a new order to be created asynchronously
+     * <p>example: POST /api/orders/async</p>
+     *
+     * @param orderRequest request with items
+     * @param errors       validation errors
+     * @return order ticket with its location
+     */
+    @PostMapping(value = "/async", produces = "application/json")
+    public ResponseEntity<Object> acceptNewOrder(@Valid @RequestBody OrderRequest orderRequest, Errors errors) {
+
+        if (errors.hasErrors()) {
+            FieldErrorsView fieldErrorsView = new FieldErrorsView();
+            fieldErrorsView.addErrors(errors);
+            log.info("POST /api/orders/async errors count: {}", errors.getErrorCount());
+            return new ResponseEntity<>(fieldErrorsView, HttpStatus.BAD_REQUEST);
+        }
+
+        Optional<OrderTicketView> ticket = orderIntakeQueue.submit(orderRequest);
+        if (ticket.isPresent()) {
+            URI location = ServletUriComponentsBuilder.fromCurrentContextPath()
+                    .path("/api/orders/tickets/{ticketId}")
+                    .buildAndExpand(ticket.get().getTicketId())
+                    .toUri();
+            return ResponseEntity.accepted().location(location).body(ticket.get());
+        } else {
+            return new ResponseEntity<>("Order queue is full", HttpStatus.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    /**
+     * Getting a ticket of an asynchronously created order
+     * <p>example: GET /api/orders/tickets/0f8fad5b-d9cb-469f-a165-70867728950e</p>
+     *
+     * @param ticketId ticket id
+     */
+    @GetMapping(value = "/tickets/{ticketId}")
+    public ResponseEntity<Object> getOrderTicket(@PathVariable String ticketId) {
+        Optional<OrderTicketView> ticket = orderIntakeQueue.getTicket(ticketId);
+
+        if (ticket.isPresent()) {
+            return ResponseEntity.ok(ticket.get());
+        } else {
+            log.info("Order ticket with id:{} not found", ticketId);
+            return ResponseEntity.notFound().build();
+        }
+    }
+
     /**
      * Setting existing order status to PAID
      * <p>example: POST /api/orders/12/pay</p>
@@ -72,28 +212,107 @@ public class OrdersController {
     }
 
     /**
-     * Getting all orders
+     * Setting status of PENDING orders to PAID
+     * <p>example: POST /api/orders/pay</p>
+     *
+     * @param orderIds order ids
+     * @return ids of paid, already paid and not existing orders
+     */
+    @PostMapping(value = "/pay", produces = "application/json")
+    public ResponseEntity<Object> payOrders(@RequestBody List<Long> orderIds) {
+        log.info("POST /api/orders/pay orders count: {}", orderIds.size());
+        try {
+            return ResponseEntity.ok(orderService.payOrders(orderIds));
+        } catch (OrderServiceFieldException e) {
+            return new ResponseEntity<>(e.getErrorsView(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Getting all orders, a request with the current ETag of orders gets 304 without reading orders
      * <p>example: GET /api/orders</p>
+     *
+     * @param ifNoneMatch optional ETags the client has
      */
     @GetMapping(value = {"", "/"})
-    public ResponseEntity<Object> getAllOrders() {
-        return ResponseEntity.ok(OrderView.fromOrders(orderService.getAllOrders()));
+    public ResponseEntity<Object> getAllOrders(@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)
+                                                       String ifNoneMatch) {
+        String etag = resourceVersions.orders().collectionTag();
+        if (ResourceVersions.matches(ifNoneMatch, etag)) return notModified(etag);
+        return ResponseEntity.ok().eTag(etag).body(orderService.getAllOrders());
     }
 
     /**
-     * Getting an order by Id
+     * Streaming all orders, orders are written as they are read from the database
+     * <p>example: GET /api/orders/stream</p>
+     */
+    @GetMapping(value = "/stream")
+    public ResponseEntity<StreamingResponseBody> streamAllOrders() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .body(JsonArrayStream.of(objectMapper, orderService::streamAllOrders));
+    }
+
+    /**
+     * Searching orders, from the newest one.
+     * Pages are read with keyset queries, the same filters are passed with the cursor of the next page
+     * <p>example: GET /api/orders/search?status=PENDING&amp;userId=12&amp;createdFrom=2018-08-01T00:00:00Z&amp;size=20</p>
+     *
+     * @param status      optional order status
+     * @param userId      optional user id
+     * @param createdFrom optional creation time, inclusive
+     * @param createdTo   optional creation time, exclusive
+     * @param size        page size
+     * @param cursor      next page cursor from the previous page
+     */
+    @GetMapping(value = "/search")
+    public ResponseEntity<Object> searchOrders(@RequestParam(required = false) Order.Status status,
+                                               @RequestParam(required = false) Long userId,
+                                               @RequestParam(required = false) Instant createdFrom,
+                                               @RequestParam(required = false) Instant createdTo,
+                                               @RequestParam(required = false) Integer size,
+                                               @RequestParam(required = false) String cursor) {
+        int pageSize = size == null ? DEFAULT_PAGE_SIZE : size;
+        if (pageSize < 1 || pageSize > pageMaxSize) {
+            FieldErrorsView fieldErrorsView = new FieldErrorsView(
+                    "size",
+                    "Page size must be between 1 and " + pageMaxSize,
+                    size
+            );
+            return new ResponseEntity<>(fieldErrorsView, HttpStatus.BAD_REQUEST);
+        }
+        OrderSearchCursor searchCursor = null;
+        if (cursor != null) {
+            try {
+                searchCursor = OrderSearchCursor.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                return new ResponseEntity<>(new FieldErrorsView("cursor", e.getMessage(), cursor), HttpStatus.BAD_REQUEST);
+            }
+        }
+        log.info("Searching orders, status: {} userId: {} created: {}..{}", status, userId, createdFrom, createdTo);
+        OrderSearch search = new OrderSearch(status, userId, createdFrom, createdTo);
+        return ResponseEntity.ok(orderService.searchOrders(search, searchCursor, pageSize));
+    }
+
+    /**
+     * Getting an order by Id, a request with the current ETag of the order gets 304 without reading the order
      * <p>example: GET /api/orders/12</p>
      *
-     * @param id order id
+     * @param id          order id
+     * @param ifNoneMatch optional ETags the client has
      */
     @GetMapping(value = "/{id}")
-    public ResponseEntity<Object> getOrderById(@PathVariable Long id) {
+    public ResponseEntity<Object> getOrderById(@PathVariable Long id,
+                                               @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)
+                                                       String ifNoneMatch) {
         log.info("Getting order by id: {}", id);
+        String etag = resourceVersions.orders().tag(id);
+        if (ResourceVersions.matches(ifNoneMatch, etag)) return notModified(etag);
 
-        Optional<Order> order = orderService.getById(id);
+        Optional<OrderView> order = orderService.getById(id);
 
         if (order.isPresent()) {
-            return ResponseEntity.ok(OrderView.fromOrder(order.get()));
+            return ResponseEntity.ok().eTag(etag).body(order.get());
         } else {
             log.info("Order with id:{} not found", id);
             return ResponseEntity.notFound().build();
@@ -111,14 +330,43 @@ public class OrdersController {
         log.info("Getting orders by userId: {}", userId);
 
         try {
-            Iterable<Order> orders = orderService.getOrdersByUserId(userId);
-            return ResponseEntity.ok(OrderView.fromOrders(orders));
+            return ResponseEntity.ok(orderService.getOrdersByUserId(userId));
         } catch (OrderServiceFieldException e) {
             return new ResponseEntity<>(e.getErrorsView(), HttpStatus.NOT_FOUND);
         }
 
     }
 
+    /**
+     * Cancelling all orders matching the filter and returning their books to the stock.
+     * Cancelling all orders without a filter needs all=true
+     * <p>example: DELETE /api/orders?status=PENDING&amp;userId=12&amp;fromId=100&amp;toId=200</p>
+     *
+     * @param status optional order status
+     * @param userId optional user id
+     * @param fromId optional smallest order id
+     * @param toId   optional largest order id
+     * @param all    true to cancel all orders
+     */
+    @DeleteMapping(value = "")
+    public ResponseEntity<Object> cancelOrders(@RequestParam(required = false) Order.Status status,
+                                               @RequestParam(required = false) Long userId,
+                                               @RequestParam(required = false) Long fromId,
+                                               @RequestParam(required = false) Long toId,
+                                               @RequestParam(defaultValue = "false") boolean all) {
+        OrderFilter filter = new OrderFilter(status, userId, fromId, toId);
+        if (filter.isEmpty() && !all) {
+            FieldErrorsView fieldErrorsView = new FieldErrorsView(
+                    "all",
+                    "Filter is empty, all=true is needed to cancel all orders",
+                    false
+            );
+            return new ResponseEntity<>(fieldErrorsView, HttpStatus.BAD_REQUEST);
+        }
+        log.info("Cancelling orders, status: {} userId: {} ids: {}..{}", status, userId, fromId, toId);
+        return ResponseEntity.ok(orderService.cancelOrders(filter));
+    }
+
     /**
      * Deleting order by id
      * <p>example: DELETE /api/orders/12</p>
@@ -137,4 +385,8 @@ public class OrdersController {
             return new ResponseEntity<>("Book from order doesn't exists", HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
+
+    private static ResponseEntity<Object> notModified(String etag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+    }
 }
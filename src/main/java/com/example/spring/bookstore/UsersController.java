@@ -1,15 +1,20 @@
 package com.example.spring.bookstore;
 
-import com.example.spring.bookstore.data.entity.Order;
 import com.example.spring.bookstore.data.entity.User;
-import com.example.spring.bookstore.data.view.OrderView;
+import com.example.spring.bookstore.data.view.UserOrderSummaryView;
 import com.example.spring.bookstore.service.OrderService;
+import com.example.spring.bookstore.service.ResourceVersions;
 import com.example.spring.bookstore.service.UserService;
+import com.example.spring.bookstore.util.JsonArrayStream;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.Optional;
 
@@ -20,11 +25,18 @@ public class UsersController {
     private final Logger log = LoggerFactory.getLogger(UsersController.class);
     private final UserService userService;
     private final OrderService orderService;
+    private final ResourceVersions resourceVersions;
+    private final ObjectMapper objectMapper;
 
 
-    public UsersController(UserService userService, OrderService orderService) {
+    public UsersController(UserService userService,
+                           OrderService orderService,
+                           ResourceVersions resourceVersions,
+                           ObjectMapper objectMapper) {
         this.userService = userService;
         this.orderService = orderService;
+        this.resourceVersions = resourceVersions;
+        this.objectMapper = objectMapper;
     }
 
 
@@ -40,27 +52,48 @@ public class UsersController {
     }
 
     /**
-     * Getting all users
+     * Getting all users, a request with the current ETag of users gets 304 without reading users
      * <p>example: GET /api/users</p>
+     *
+     * @param ifNoneMatch optional ETags the client has
      */
     @GetMapping(value = {"/", ""})
-    public ResponseEntity<Object> getAllUsers() {
-        return ResponseEntity.ok(userService.getAll());
+    public ResponseEntity<Object> getAllUsers(@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)
+                                                      String ifNoneMatch) {
+        String etag = resourceVersions.users().collectionTag();
+        if (ResourceVersions.matches(ifNoneMatch, etag)) return notModified(etag);
+        return ResponseEntity.ok().eTag(etag).body(userService.getAll());
+    }
+
+    /**
+     * Streaming all users, users are written as they are read from the database
+     * <p>example: GET /api/users/stream</p>
+     */
+    @GetMapping(value = "/stream")
+    public ResponseEntity<StreamingResponseBody> streamAllUsers() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .body(JsonArrayStream.of(objectMapper, userService::streamAll));
     }
 
     /**
-     * Getting user by id
+     * Getting user by id, a request with the current ETag of the user gets 304 without reading the user
      * <p>example: GET /api/users/1</p></>
      *
-     * @param id user id
+     * @param id          user id
+     * @param ifNoneMatch optional ETags the client has
      */
     @GetMapping("/{id}")
-    public ResponseEntity<Object> getUserById(@PathVariable Long id) {
+    public ResponseEntity<Object> getUserById(@PathVariable Long id,
+                                              @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)
+                                                      String ifNoneMatch) {
+        String etag = resourceVersions.users().tag(id);
+        if (ResourceVersions.matches(ifNoneMatch, etag)) return notModified(etag);
 
         Optional<User> user = userService.getById(id);
         if (user.isPresent()) {
             log.info("Get user: {}", user.get().getName());
-            return ResponseEntity.ok(user);
+            return ResponseEntity.ok().eTag(etag).body(user);
         } else {
             log.info("User with id:{} not found", id);
             return ResponseEntity.notFound().build();
@@ -77,11 +110,30 @@ public class UsersController {
     public ResponseEntity<Object> getOrdersByUserId(@PathVariable Long id) {
         log.debug("getOrdersByUserId {}", id);
         try {
-            Iterable<Order> orders = orderService.getOrdersByUserId(id);
-            return ResponseEntity.ok(OrderView.fromOrders(orders));
+            return ResponseEntity.ok(orderService.getOrdersByUserId(id));
         } catch (OrderService.OrderServiceFieldException e) {
             return new ResponseEntity<>(e.getErrorsView(), HttpStatus.NOT_FOUND);
         }
     }
 
+    /**
+     * Getting the number of user orders, the number of PENDING ones and the PAID total without reading orders
+     * <p>example: GET /api/users/11/summary</p>
+     *
+     * @param id user id
+     */
+    @GetMapping("/{id}/summary")
+    public ResponseEntity<Object> getUserSummary(@PathVariable Long id) {
+        Optional<UserOrderSummaryView> summary = userService.getOrderSummary(id);
+        if (summary.isPresent()) {
+            return ResponseEntity.ok(summary.get());
+        } else {
+            log.info("User with id:{} not found", id);
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    private static ResponseEntity<Object> notModified(String etag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+    }
 }
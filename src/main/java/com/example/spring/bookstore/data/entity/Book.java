@@ -1,5 +1,7 @@
 package com.example.spring.bookstore.data.entity;
 
+import org.hibernate.annotations.Formula;
+
 import javax.persistence.*;
 import javax.validation.ValidationException;
 import javax.validation.constraints.Min;
@@ -30,7 +32,19 @@ public class Book {
     @Min(value = 0, message = "Price can't be less than 0")
     private double price;
 
-    @OneToMany(fetch = FetchType.EAGER, mappedBy = "book", cascade = CascadeType.PERSIST)
+    /**
+     * Number of slot rows the stock of a hot book is split across, 0 if the whole stock is in the book row
+     */
+    @Column(name = "stock_slots")
+    private int stockSlots;
+
+    // Slot rows are summed only for hot books, other books are loaded without the subquery
+    @Formula("(case when stock_slots > 0 then (select coalesce(sum(s.quantity), 0) " +
+            "from book_stock_slot s where s.book_id = id) else 0 end)")
+    private int slotsQuantity;
+
+    // Order history is never loaded with catalog and checkout reads
+    @OneToMany(fetch = FetchType.LAZY, mappedBy = "book", cascade = CascadeType.PERSIST)
     private Set<OrderItem> orderItems;
 
     private Book() {
@@ -56,11 +70,20 @@ public class Book {
         return name;
     }
 
+    /**
+     * Getting the whole stock of the book, including items in slot rows
+     */
     public int getQuantity() {
-        return quantity;
+        return quantity + slotsQuantity;
     }
 
+    /**
+     * Setting the whole stock of a book which keeps it in the book row,
+     * stock of a hot book is changed in its slot rows
+     */
     public void setQuantity(int quantity) {
+        if (stockSlots > 0)
+            throw new IllegalStateException("Stock of book " + id + " is split across slots");
         validateQuantity(quantity);
         this.quantity = quantity;
     }
@@ -69,6 +92,10 @@ public class Book {
         return price;
     }
 
+    public int getStockSlots() {
+        return stockSlots;
+    }
+
     private void validateName(String name) {
         if (!isNameValid(name))
             throw new ValidationException("Book name is not valid");
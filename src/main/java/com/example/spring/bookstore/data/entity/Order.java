@@ -4,6 +4,7 @@ import org.hibernate.annotations.OnDelete;
 import org.hibernate.annotations.OnDeleteAction;
 
 import javax.persistence.*;
+import java.time.Instant;
 import java.util.Set;
 
 @Entity
@@ -11,9 +12,10 @@ import java.util.Set;
 public class Order {
 
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "orders_seq")
+    @SequenceGenerator(name = "orders_seq", sequenceName = "orders_seq", allocationSize = 50)
     private Long orderId;
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id")
     private User user;
     private double totalPayment;
@@ -22,13 +24,16 @@ public class Order {
             mappedBy = "order",
             cascade = CascadeType.ALL,
             orphanRemoval = true,
-            fetch = FetchType.EAGER
+            fetch = FetchType.LAZY
     )
     @OnDelete(action = OnDeleteAction.CASCADE)
     private Set<OrderItem> orderItems;
 
     private Status status;
 
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private Instant createdAt;
+
     public Order() {
     }
 
@@ -75,6 +80,15 @@ public class Order {
         this.status = status;
     }
 
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    @PrePersist
+    private void prePersist() {
+        if (createdAt == null) createdAt = Instant.now();
+    }
+
     public enum Status {
         PENDING,
         PAID
@@ -0,0 +1,32 @@
+package com.example.spring.bookstore.data.repository;
+
+import com.example.spring.bookstore.data.entity.Book;
+import com.example.spring.bookstore.request.objects.BookFilter;
+import com.example.spring.bookstore.request.objects.BookPageCursor;
+import com.example.spring.bookstore.request.objects.BookSort;
+
+import java.util.List;
+
+public interface BookPageRepository {
+
+    /**
+     * Getting a page of books with a keyset query,
+     * the cost of a page doesn't depend on how far it is from the first one
+     *
+     * @param sort       sort property, books with equal values are sorted by id
+     * @param descending true for descending sort
+     * @param after      cursor of the previous page, null for the first page
+     * @param limit      max number of books
+     */
+    List<Book> findPage(BookSort sort, boolean descending, BookPageCursor after, int limit);
+
+    /**
+     * Getting a page of books in a price range, sorted by price, with a keyset query
+     *
+     * @param filter     price range and stock filter
+     * @param descending true for the most expensive books first
+     * @param after      cursor of the previous page, null for the first page
+     * @param limit      max number of books
+     */
+    List<Book> findFilteredPage(BookFilter filter, boolean descending, BookPageCursor after, int limit);
+}
@@ -0,0 +1,75 @@
+package com.example.spring.bookstore.data.repository;
+
+import com.example.spring.bookstore.data.entity.Book;
+import com.example.spring.bookstore.request.objects.BookFilter;
+import com.example.spring.bookstore.request.objects.BookPageCursor;
+import com.example.spring.bookstore.request.objects.BookSort;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BookPageRepositoryImpl implements BookPageRepository {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<Book> findPage(BookSort sort, boolean descending, BookPageCursor after, int limit) {
+        String property = "b." + sort.getProperty();
+        String direction = descending ? " desc" : " asc";
+        String comparison = descending ? " < " : " > ";
+
+        StringBuilder jpql = new StringBuilder("select b from Book b");
+        if (after != null) {
+            if (sort == BookSort.ID) {
+                jpql.append(" where b.id").append(comparison).append(":lastId");
+            } else {
+                // The first condition alone can use the (property, id) index
+                jpql.append(" where ").append(property).append(descending ? " <= " : " >= ").append(":lastValue")
+                        .append(" and (").append(property).append(comparison).append(":lastValue")
+                        .append(" or b.id").append(comparison).append(":lastId)");
+            }
+        }
+        jpql.append(" order by ");
+        if (sort != BookSort.ID) jpql.append(property).append(direction).append(", ");
+        jpql.append("b.id").append(direction);
+
+        TypedQuery<Book> query = entityManager.createQuery(jpql.toString(), Book.class).setMaxResults(limit);
+        if (after != null) {
+            query.setParameter("lastId", after.getLastId());
+            if (sort != BookSort.ID) query.setParameter("lastValue", after.getLastValue());
+        }
+        return query.getResultList();
+    }
+
+    @Override
+    public List<Book> findFilteredPage(BookFilter filter, boolean descending, BookPageCursor after, int limit) {
+        String direction = descending ? " desc" : " asc";
+        String comparison = descending ? " < " : " > ";
+
+        List<String> conditions = new ArrayList<>();
+        if (filter.getMinPrice() != null) conditions.add("b.price >= :minPrice");
+        if (filter.getMaxPrice() != null) conditions.add("b.price <= :maxPrice");
+        if (filter.isInStock()) conditions.add("(b.quantity > 0 or b.slotsQuantity > 0)");
+        if (after != null) {
+            conditions.add("b.price" + (descending ? " <= " : " >= ") + ":lastValue");
+            conditions.add("(b.price" + comparison + ":lastValue or b.id" + comparison + ":lastId)");
+        }
+
+        StringBuilder jpql = new StringBuilder("select b from Book b");
+        if (!conditions.isEmpty()) jpql.append(" where ").append(String.join(" and ", conditions));
+        jpql.append(" order by b.price").append(direction).append(", b.id").append(direction);
+
+        TypedQuery<Book> query = entityManager.createQuery(jpql.toString(), Book.class).setMaxResults(limit);
+        if (filter.getMinPrice() != null) query.setParameter("minPrice", filter.getMinPrice());
+        if (filter.getMaxPrice() != null) query.setParameter("maxPrice", filter.getMaxPrice());
+        if (after != null) {
+            query.setParameter("lastId", after.getLastId());
+            query.setParameter("lastValue", after.getLastValue());
+        }
+        return query.getResultList();
+    }
+}
@@ -1,9 +1,68 @@
 package com.example.spring.bookstore.data.repository;
 
 import com.example.spring.bookstore.data.entity.Book;
+import com.example.spring.bookstore.data.view.BookNameRow;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHint;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.LockModeType;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
 @Repository
-public interface BookRepository extends CrudRepository<Book, Long> {
+public interface BookRepository extends CrudRepository<Book, Long>, BookStockRepository, BookPageRepository,
+        BookSalesRepository {
+
+    /**
+     * Loading and locking books which keep their stock in the book row.
+     * Rows are always locked in ascending id order, so concurrent orders can't deadlock
+     *
+     * @param ids book ids
+     * @return locked books
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select b from Book b where b.id in :ids and b.stockSlots = 0 order by b.id")
+    List<Book> findRegularByIdForUpdate(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Loading hot books without locking their rows, their stock is locked slot by slot
+     *
+     * @param ids book ids
+     * @return hot books
+     */
+    @Query("select b from Book b where b.id in :ids and b.stockSlots > 0 order by b.id")
+    List<Book> findHotById(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Reading all books with a database cursor, rows are fetched in chunks.
+     * Must be called in a transaction and the stream must be closed
+     */
+    @QueryHints({
+            @QueryHint(name = "org.hibernate.fetchSize", value = "1000"),
+            @QueryHint(name = "org.hibernate.readOnly", value = "true")
+    })
+    @Query("select b from Book b order by b.id")
+    Stream<Book> streamAll();
+
+    /**
+     * Reading ids of all books with a database cursor.
+     * Must be called in a transaction and the stream must be closed
+     */
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "1000"))
+    @Query("select b.id from Book b")
+    Stream<Long> streamAllIds();
+
+    /**
+     * Reading ids and names of all books with a database cursor.
+     * Must be called in a transaction and the stream must be closed
+     */
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "1000"))
+    @Query("select new com.example.spring.bookstore.data.view.BookNameRow(b.id, b.name) from Book b order by b.id")
+    Stream<BookNameRow> streamAllNames();
 }
@@ -0,0 +1,46 @@
+package com.example.spring.bookstore.data.repository;
+
+import com.example.spring.bookstore.data.view.BookSalesRow;
+import com.example.spring.bookstore.data.view.BookSalesTotalsView;
+import com.example.spring.bookstore.data.view.BookSalesView;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+public interface BookSalesRepository {
+
+    /**
+     * Adding sales deltas to the book_sales rows of their books, a missing row is created.
+     * A book with stock slots gets its delta in a random one of as many rows, so concurrent orders
+     * of a hot book don't queue on one row. Rows are changed in ascending book id order, like book rows are locked
+     *
+     * @param deltas     sales deltas, negative for cancelled orders
+     * @param stockSlots number of stock slots by book id, 0 or missing for books with stock in the book row
+     * @return changed rows
+     */
+    List<BookSalesRow> addSales(Collection<BookSalesView> deltas, Map<Long, Integer> stockSlots);
+
+    /**
+     * Getting sales of a book summed over its book_sales rows
+     *
+     * @param bookId book id
+     * @return sales, or empty if the book was never ordered
+     */
+    Optional<BookSalesView> findSales(Long bookId);
+
+    /**
+     * Getting sales of all books summed over book_sales rows, a few rows per book whatever the order history is
+     */
+    BookSalesTotalsView findSalesTotals();
+
+    /**
+     * Reading all book_sales rows one by one with a database cursor.
+     * Must be called in a transaction
+     *
+     * @param consumer gets every row
+     */
+    void readSales(Consumer<BookSalesRow> consumer);
+}
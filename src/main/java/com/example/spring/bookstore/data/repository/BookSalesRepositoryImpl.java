@@ -0,0 +1,106 @@
+package com.example.spring.bookstore.data.repository;
+
+import com.example.spring.bookstore.data.view.BookSalesRow;
+import com.example.spring.bookstore.data.view.BookSalesTotalsView;
+import com.example.spring.bookstore.data.view.BookSalesView;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+public class BookSalesRepositoryImpl implements BookSalesRepository {
+
+    private static final String ADD_SALES_SQL =
+            "INSERT INTO book_sales (book_id, slot, units_sold, revenue, orders_count, version) " +
+                    "VALUES (?, ?, ?, ?, ?, 1) " +
+                    "ON CONFLICT (book_id, slot) DO UPDATE SET " +
+                    "units_sold = book_sales.units_sold + EXCLUDED.units_sold, " +
+                    "revenue = book_sales.revenue + EXCLUDED.revenue, " +
+                    "orders_count = book_sales.orders_count + EXCLUDED.orders_count, " +
+                    "version = book_sales.version + 1 " +
+                    "RETURNING book_id, slot, units_sold, revenue, orders_count, version";
+    private static final String FIND_SALES_SQL =
+            "SELECT book_id, SUM(units_sold) AS units_sold, SUM(revenue) AS revenue, " +
+                    "SUM(orders_count) AS orders_count FROM book_sales WHERE book_id = ? GROUP BY book_id";
+    private static final String SALES_TOTALS_SQL =
+            "SELECT COUNT(*) FILTER (WHERE units_sold > 0) AS books_sold, " +
+                    "COALESCE(SUM(units_sold), 0) AS units_sold, COALESCE(SUM(revenue), 0) AS revenue, " +
+                    "COALESCE(SUM(orders_count), 0) AS order_items " +
+                    "FROM (SELECT SUM(units_sold) AS units_sold, SUM(revenue) AS revenue, " +
+                    "SUM(orders_count) AS orders_count FROM book_sales GROUP BY book_id) s";
+    private static final String ALL_SALES_SQL =
+            "SELECT book_id, slot, units_sold, revenue, orders_count, version FROM book_sales";
+    private static final int ALL_SALES_FETCH_SIZE = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public BookSalesRepositoryImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public List<BookSalesRow> addSales(Collection<BookSalesView> deltas, Map<Long, Integer> stockSlots) {
+        List<BookSalesView> sorted = new ArrayList<>(deltas);
+        sorted.sort(Comparator.comparing(BookSalesView::getBookId));
+        // A batch can't return rows, an order has few books, so every row is one statement
+        List<BookSalesRow> rows = new ArrayList<>(sorted.size());
+        for (BookSalesView delta : sorted) {
+            int slots = stockSlots.getOrDefault(delta.getBookId(), 0);
+            int slot = slots > 1 ? ThreadLocalRandom.current().nextInt(slots) : 0;
+            rows.add(jdbcTemplate.queryForObject(ADD_SALES_SQL, (resultSet, rowNum) -> salesRow(resultSet),
+                    delta.getBookId(), slot, delta.getUnitsSold(), delta.getRevenue(), delta.getOrdersCount()));
+        }
+        return rows;
+    }
+
+    @Override
+    public Optional<BookSalesView> findSales(Long bookId) {
+        List<BookSalesView> sales =
+                jdbcTemplate.query(FIND_SALES_SQL, (resultSet, rowNum) -> salesView(resultSet), bookId);
+        return sales.isEmpty() ? Optional.empty() : Optional.of(sales.get(0));
+    }
+
+    @Override
+    public BookSalesTotalsView findSalesTotals() {
+        return jdbcTemplate.queryForObject(SALES_TOTALS_SQL, (resultSet, rowNum) -> new BookSalesTotalsView(
+                resultSet.getLong("books_sold"),
+                resultSet.getLong("units_sold"),
+                resultSet.getDouble("revenue"),
+                resultSet.getLong("order_items")
+        ));
+    }
+
+    @Override
+    public void readSales(Consumer<BookSalesRow> consumer) {
+        // The driver reads rows in chunks only with a fetch size inside a transaction
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(ALL_SALES_SQL);
+            statement.setFetchSize(ALL_SALES_FETCH_SIZE);
+            return statement;
+        }, resultSet -> {
+            consumer.accept(salesRow(resultSet));
+        });
+    }
+
+    static BookSalesRow salesRow(ResultSet resultSet) throws SQLException {
+        return new BookSalesRow(salesView(resultSet), resultSet.getInt("slot"), resultSet.getLong("version"));
+    }
+
+    private static BookSalesView salesView(ResultSet resultSet) throws SQLException {
+        return new BookSalesView(
+                resultSet.getLong("book_id"),
+                resultSet.getLong("units_sold"),
+                resultSet.getDouble("revenue"),
+                resultSet.getLong("orders_count")
+        );
+    }
+}
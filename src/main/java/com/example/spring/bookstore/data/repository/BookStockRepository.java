@@ -0,0 +1,80 @@
+package com.example.spring.bookstore.data.repository;
+
+import com.example.spring.bookstore.data.view.BookStockRow;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+public interface BookStockRepository {
+
+    /**
+     * Decrementing stock of several books in one batched round trip.
+     * A book is decremented only if it has enough items in stock
+     *
+     * @param quantities needed quantity by book id
+     * @return ids of books which don't have enough items in stock
+     */
+    List<Long> decrementQuantities(Map<Long, Integer> quantities);
+
+    /**
+     * Decrementing stock of a hot book, which stock is split across slot rows.
+     * A random slot with enough items is decremented first,
+     * the book is drained across all its slots only if no single slot has enough items
+     *
+     * @param bookId   book id
+     * @param slots    number of book stock slots
+     * @param quantity needed quantity
+     * @return true if the book had enough items in stock
+     */
+    boolean decrementSlotQuantity(Long bookId, int slots, int quantity);
+
+    /**
+     * Locking all slot rows of hot books in ascending book id order,
+     * so later changes of the slots in any order don't wait for other transactions
+     *
+     * @param bookIds ids of hot books
+     */
+    void lockSlots(Collection<Long> bookIds);
+
+    /**
+     * Returning items of several books to the stock
+     *
+     * @param quantities returned quantity by book id
+     * @return ids of books which don't exist
+     */
+    List<Long> restoreQuantities(Map<Long, Integer> quantities);
+
+    /**
+     * Splitting stock of a book across slot rows, or collapsing it back into the book row
+     *
+     * @param bookId book id
+     * @param slots  number of slots, 0 to keep the whole stock in the book row
+     * @return false if the book doesn't exist
+     */
+    boolean setStockSlots(Long bookId, int slots);
+
+    /**
+     * Getting stock of all books without loading book entities
+     *
+     * @return quantity in stock by book id
+     */
+    Map<Long, Integer> findStockLevels();
+
+    /**
+     * Getting stock of some books without loading book entities or locking their rows
+     *
+     * @param bookIds book ids
+     * @return quantity in stock by id of existing books
+     */
+    Map<Long, Integer> findStockLevels(Collection<Long> bookIds);
+
+    /**
+     * Reading price and stock of all books row by row with a database cursor.
+     * Must be called in a transaction
+     *
+     * @param consumer gets every book row
+     */
+    void readPricesAndStock(Consumer<BookStockRow> consumer);
+}
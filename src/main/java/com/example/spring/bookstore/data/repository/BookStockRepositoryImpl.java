@@ -0,0 +1,210 @@
+package com.example.spring.bookstore.data.repository;
+
+import com.example.spring.bookstore.data.view.BookStockRow;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+public class BookStockRepositoryImpl implements BookStockRepository {
+
+    private static final String DECREMENT_QUANTITY_SQL =
+            "UPDATE books SET quantity = quantity - ? " +
+                    "WHERE id = ? AND quantity >= ?";
+    private static final String DECREMENT_SLOT_QUANTITY_SQL =
+            "UPDATE book_stock_slot SET quantity = quantity - ? " +
+                    "WHERE book_id = ? AND slot = ? AND quantity >= ?";
+    private static final String LOCK_SLOTS_SQL =
+            "SELECT quantity FROM book_stock_slot WHERE book_id = ? ORDER BY slot FOR UPDATE";
+    private static final String LOCK_BOOKS_SLOTS_SQL =
+            "SELECT quantity FROM book_stock_slot WHERE book_id IN (:bookIds) ORDER BY book_id, slot FOR UPDATE";
+    private static final String SET_SLOT_QUANTITY_SQL =
+            "UPDATE book_stock_slot SET quantity = ? WHERE book_id = ? AND slot = ?";
+    private static final String RESTORE_QUANTITY_SQL =
+            "UPDATE books SET quantity = quantity + ? " +
+                    "WHERE id = ? AND stock_slots = 0";
+    private static final String RESTORE_SLOT_QUANTITY_SQL =
+            "UPDATE book_stock_slot SET quantity = quantity + ? WHERE book_id = ? AND slot = 0";
+    private static final String LOCK_BOOK_SQL = "SELECT quantity FROM books WHERE id = ? FOR UPDATE";
+    private static final String DELETE_SLOTS_SQL = "DELETE FROM book_stock_slot WHERE book_id = ?";
+    private static final String INSERT_SLOT_SQL =
+            "INSERT INTO book_stock_slot (book_id, slot, quantity) VALUES (?, ?, ?)";
+    private static final String SET_STOCK_SLOTS_SQL =
+            "UPDATE books SET quantity = ?, stock_slots = ? WHERE id = ?";
+    private static final String STOCK_LEVELS_SQL =
+            "SELECT b.id, b.quantity + COALESCE(SUM(s.quantity), 0) AS quantity " +
+                    "FROM books b LEFT JOIN book_stock_slot s ON s.book_id = b.id GROUP BY b.id";
+    private static final String STOCK_LEVELS_BY_IDS_SQL =
+            "SELECT b.id, b.quantity + COALESCE(SUM(s.quantity), 0) AS quantity " +
+                    "FROM books b LEFT JOIN book_stock_slot s ON s.book_id = b.id " +
+                    "WHERE b.id IN (:bookIds) GROUP BY b.id";
+    private static final String PRICES_AND_STOCK_SQL =
+            "SELECT b.id, b.price, b.quantity + COALESCE(SUM(s.quantity), 0) AS quantity " +
+                    "FROM books b LEFT JOIN book_stock_slot s ON s.book_id = b.id GROUP BY b.id";
+    private static final int PRICES_AND_STOCK_FETCH_SIZE = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    public BookStockRepositoryImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+    }
+
+    @Override
+    public List<Long> decrementQuantities(Map<Long, Integer> quantities) {
+        // Rows are updated in ascending id order, like they are locked
+        List<Long> bookIds = new ArrayList<>(new TreeSet<>(quantities.keySet()));
+        List<Object[]> batchArgs = new ArrayList<>(bookIds.size());
+        for (Long bookId : bookIds) {
+            int quantity = quantities.get(bookId);
+            batchArgs.add(new Object[]{quantity, bookId, quantity});
+        }
+
+        // Each statement updates zero rows if the book doesn't have enough items
+        int[] updatedRows = jdbcTemplate.batchUpdate(DECREMENT_QUANTITY_SQL, batchArgs);
+
+        List<Long> shortBookIds = new ArrayList<>();
+        for (int i = 0; i < updatedRows.length; i++) {
+            if (updatedRows[i] == 0) shortBookIds.add(bookIds.get(i));
+        }
+        return shortBookIds;
+    }
+
+    @Override
+    public boolean decrementSlotQuantity(Long bookId, int slots, int quantity) {
+        // Starting from a random slot spreads concurrent orders across slot rows
+        int firstSlot = ThreadLocalRandom.current().nextInt(slots);
+        for (int i = 0; i < slots; i++) {
+            int slot = (firstSlot + i) % slots;
+            if (jdbcTemplate.update(DECREMENT_SLOT_QUANTITY_SQL, quantity, bookId, slot, quantity) > 0) {
+                return true;
+            }
+        }
+
+        // No single slot has enough items, draining all slots of the book
+        List<Integer> slotQuantities = jdbcTemplate.queryForList(LOCK_SLOTS_SQL, Integer.class, bookId);
+        if (slotQuantities.isEmpty()) {
+            throw new OptimisticLockingFailureException("Stock of book " + bookId + " is not split anymore");
+        }
+        int total = 0;
+        for (Integer slotQuantity : slotQuantities) total += slotQuantity;
+        if (total < quantity) return false;
+
+        List<Object[]> batchArgs = new ArrayList<>();
+        int needed = quantity;
+        for (int slot = 0; slot < slotQuantities.size() && needed > 0; slot++) {
+            int taken = Math.min(needed, slotQuantities.get(slot));
+            needed -= taken;
+            batchArgs.add(new Object[]{slotQuantities.get(slot) - taken, bookId, slot});
+        }
+        jdbcTemplate.batchUpdate(SET_SLOT_QUANTITY_SQL, batchArgs);
+        return true;
+    }
+
+    @Override
+    public void lockSlots(Collection<Long> bookIds) {
+        if (bookIds.isEmpty()) return;
+        namedJdbcTemplate.queryForList(LOCK_BOOKS_SLOTS_SQL,
+                new MapSqlParameterSource("bookIds", bookIds), Integer.class);
+    }
+
+    @Override
+    public List<Long> restoreQuantities(Map<Long, Integer> quantities) {
+        List<Long> bookIds = new ArrayList<>(new TreeSet<>(quantities.keySet()));
+        List<Object[]> batchArgs = new ArrayList<>(bookIds.size());
+        for (Long bookId : bookIds) {
+            batchArgs.add(new Object[]{quantities.get(bookId), bookId});
+        }
+
+        // Books with split stock get their items back in the first slot
+        int[] updatedRows = jdbcTemplate.batchUpdate(RESTORE_QUANTITY_SQL, batchArgs);
+        List<Object[]> slotBatchArgs = new ArrayList<>();
+        List<Long> slotBookIds = new ArrayList<>();
+        for (int i = 0; i < updatedRows.length; i++) {
+            if (updatedRows[i] == 0) {
+                slotBatchArgs.add(batchArgs.get(i));
+                slotBookIds.add(bookIds.get(i));
+            }
+        }
+
+        List<Long> missingBookIds = new ArrayList<>();
+        if (!slotBatchArgs.isEmpty()) {
+            int[] updatedSlots = jdbcTemplate.batchUpdate(RESTORE_SLOT_QUANTITY_SQL, slotBatchArgs);
+            for (int i = 0; i < updatedSlots.length; i++) {
+                if (updatedSlots[i] == 0) missingBookIds.add(slotBookIds.get(i));
+            }
+        }
+        return missingBookIds;
+    }
+
+    @Override
+    public boolean setStockSlots(Long bookId, int slots) {
+        List<Integer> bookQuantity = jdbcTemplate.queryForList(LOCK_BOOK_SQL, Integer.class, bookId);
+        if (bookQuantity.isEmpty()) return false;
+
+        int total = bookQuantity.get(0);
+        for (Integer slotQuantity : jdbcTemplate.queryForList(LOCK_SLOTS_SQL, Integer.class, bookId)) {
+            total += slotQuantity;
+        }
+        jdbcTemplate.update(DELETE_SLOTS_SQL, bookId);
+
+        if (slots > 0) {
+            List<Object[]> batchArgs = new ArrayList<>(slots);
+            for (int slot = 0; slot < slots; slot++) {
+                int slotQuantity = total / slots + (slot < total % slots ? 1 : 0);
+                batchArgs.add(new Object[]{bookId, slot, slotQuantity});
+            }
+            jdbcTemplate.batchUpdate(INSERT_SLOT_SQL, batchArgs);
+            jdbcTemplate.update(SET_STOCK_SLOTS_SQL, 0, slots, bookId);
+        } else {
+            jdbcTemplate.update(SET_STOCK_SLOTS_SQL, total, 0, bookId);
+        }
+        return true;
+    }
+
+    @Override
+    public Map<Long, Integer> findStockLevels() {
+        Map<Long, Integer> stockLevels = new HashMap<>();
+        jdbcTemplate.query(STOCK_LEVELS_SQL, resultSet -> {
+            stockLevels.put(resultSet.getLong("id"), resultSet.getInt("quantity"));
+        });
+        return stockLevels;
+    }
+
+    @Override
+    public Map<Long, Integer> findStockLevels(Collection<Long> bookIds) {
+        Map<Long, Integer> stockLevels = new HashMap<>();
+        if (bookIds.isEmpty()) return stockLevels;
+        namedJdbcTemplate.query(STOCK_LEVELS_BY_IDS_SQL, new MapSqlParameterSource("bookIds", bookIds), resultSet -> {
+            stockLevels.put(resultSet.getLong("id"), resultSet.getInt("quantity"));
+        });
+        return stockLevels;
+    }
+
+    @Override
+    public void readPricesAndStock(Consumer<BookStockRow> consumer) {
+        // The driver reads rows in chunks only with a fetch size inside a transaction
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(PRICES_AND_STOCK_SQL);
+            statement.setFetchSize(PRICES_AND_STOCK_FETCH_SIZE);
+            return statement;
+        }, resultSet -> {
+            consumer.accept(new BookStockRow(
+                    resultSet.getLong("id"),
+                    resultSet.getDouble("price"),
+                    resultSet.getInt("quantity")
+            ));
+        });
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.spring.bookstore.data.repository;
+
+import com.example.spring.bookstore.data.view.IdempotentResponse;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Responses of idempotent requests, so idempotency keys survive restarts
+ */
+@Repository
+public class IdempotencyKeyRepository {
+
+    private static final String FIND_SQL =
+            "SELECT request_hash, status, response_body FROM idempotency_key " +
+                    "WHERE idempotency_key = ? AND created_at > ?";
+    private static final String INSERT_SQL =
+            "INSERT INTO idempotency_key (idempotency_key, request_hash, status, response_body, created_at) " +
+                    "VALUES (?, ?, ?, ?, ?) ON CONFLICT (idempotency_key) DO NOTHING";
+    private static final String DELETE_EXPIRED_SQL = "DELETE FROM idempotency_key WHERE created_at <= ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public IdempotencyKeyRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Getting the stored response of a key
+     *
+     * @param key          idempotency key
+     * @param createdAfter keys created before are expired
+     */
+    public Optional<IdempotentResponse> find(String key, Instant createdAfter) {
+        List<IdempotentResponse> responses = jdbcTemplate.query(
+                FIND_SQL,
+                (resultSet, rowNum) -> new IdempotentResponse(
+                        resultSet.getString("request_hash"),
+                        resultSet.getInt("status"),
+                        resultSet.getString("response_body")
+                ),
+                key,
+                Timestamp.from(createdAfter)
+        );
+        return responses.stream().findFirst();
+    }
+
+    /**
+     * Storing the response of a key, the first stored response wins
+     *
+     * @param key      idempotency key
+     * @param response response of the key
+     */
+    public void save(String key, IdempotentResponse response) {
+        jdbcTemplate.update(
+                INSERT_SQL,
+                key,
+                response.getRequestHash(),
+                response.getStatus(),
+                response.getBody(),
+                Timestamp.from(Instant.now())
+        );
+    }
+
+    /**
+     * Deleting expired keys
+     *
+     * @param createdBefore keys created before are expired
+     * @return number of deleted keys
+     */
+    public int deleteExpired(Instant createdBefore) {
+        return jdbcTemplate.update(DELETE_EXPIRED_SQL, Timestamp.from(createdBefore));
+    }
+}
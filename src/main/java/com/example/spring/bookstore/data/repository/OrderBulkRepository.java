@@ -0,0 +1,139 @@
+package com.example.spring.bookstore.data.repository;
+
+import com.example.spring.bookstore.data.entity.Order;
+import com.example.spring.bookstore.data.view.BookSalesRow;
+import com.example.spring.bookstore.data.view.OrderView;
+import com.example.spring.bookstore.data.view.UserOrderSummaryView;
+import com.example.spring.bookstore.request.objects.OrderFilter;
+import com.example.spring.bookstore.request.objects.OrderSearch;
+import com.example.spring.bookstore.request.objects.OrderSearchCursor;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+public interface OrderBulkRepository {
+
+    /**
+     * Getting the next chunk of order ids matching the filter, in ascending id order
+     *
+     * @param filter  order filter
+     * @param afterId only orders with greater ids are returned
+     * @param limit   chunk size
+     */
+    List<Long> findIdsByFilter(OrderFilter filter, long afterId, int limit);
+
+    /**
+     * Getting the next page of orders matching the search, from the newest order.
+     * Orders are read with a keyset query over (created_at, order_id) indexes
+     *
+     * @param search order search
+     * @param after  cursor of the previous page, null for the first page
+     * @param limit  page size
+     * @return creation time by order id, in page order
+     */
+    Map<Long, Instant> findCreatedAtBySearch(OrderSearch search, OrderSearchCursor after, int limit);
+
+    /**
+     * Reading all orders with their items with a database cursor, in ascending id order.
+     * Rows are fetched in chunks and every order is passed to the consumer as soon as its rows are read.
+     * Must run in a transaction, otherwise the whole result is fetched at once
+     *
+     * @param consumer order views consumer
+     */
+    void forEachOrderView(Consumer<OrderView> consumer);
+
+    /**
+     * Setting order status from PENDING to PAID with one conditional update
+     *
+     * @param orderId order id
+     * @return false if the order doesn't exist or is not PENDING
+     */
+    boolean markPaid(Long orderId);
+
+    /**
+     * Setting status of PENDING orders to PAID with conditional updates.
+     * Orders are locked in ascending id order first, chunk by chunk, so concurrent calls don't deadlock.
+     * Must run in a transaction
+     *
+     * @param orderIds order ids
+     * @return ids of orders which were PENDING
+     */
+    List<Long> markAllPaid(Collection<Long> orderIds);
+
+    /**
+     * Getting ids of existing orders
+     *
+     * @param orderIds order ids
+     */
+    List<Long> findExistingIds(Collection<Long> orderIds);
+
+    /**
+     * Summarizing orders by their users
+     *
+     * @param orderIds order ids
+     * @return number of orders, number of PENDING orders and PAID total of each user
+     */
+    List<UserOrderSummaryView> summarizeByUser(Collection<Long> orderIds);
+
+    /**
+     * Getting creation time of all orders with the status without loading order entities
+     *
+     * @param status order status
+     * @return creation time by order id
+     */
+    Map<Long, Instant> findCreatedAtByStatus(Order.Status status);
+
+    /**
+     * Deleting a chunk of orders, returning their books to the stock and taking back their sales
+     * with set-based statements.
+     * Orders are re-checked against the filter after they are locked. Rows of hot books are not locked,
+     * if the stock of one of them is collapsed meanwhile an optimistic locking failure is thrown.
+     * Must run in a transaction
+     *
+     * @param filter   order filter
+     * @param orderIds chunk of order ids
+     * @return cancelled orders count, returned quantity by book id, changed book_sales rows
+     * and summaries of the cancelled orders by user
+     */
+    CancelledOrders cancelByIds(OrderFilter filter, List<Long> orderIds);
+
+    class CancelledOrders {
+        private final int ordersCount;
+        private final Map<Long, Integer> returnedQuantities;
+        private final List<BookSalesRow> sales;
+        private final List<UserOrderSummaryView> userSummaries;
+
+        public CancelledOrders(int ordersCount, Map<Long, Integer> returnedQuantities, List<BookSalesRow> sales,
+                               List<UserOrderSummaryView> userSummaries) {
+            this.ordersCount = ordersCount;
+            this.returnedQuantities = returnedQuantities;
+            this.sales = sales;
+            this.userSummaries = userSummaries;
+        }
+
+        public int getOrdersCount() {
+            return ordersCount;
+        }
+
+        public Map<Long, Integer> getReturnedQuantities() {
+            return returnedQuantities;
+        }
+
+        /**
+         * book_sales rows of the returned books after the cancelled orders are taken back
+         */
+        public List<BookSalesRow> getSales() {
+            return sales;
+        }
+
+        /**
+         * Summaries of the cancelled orders by their users
+         */
+        public List<UserOrderSummaryView> getUserSummaries() {
+            return userSummaries;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.example.spring.bookstore.data.repository;
+
+import com.example.spring.bookstore.data.entity.Order;
+import com.example.spring.bookstore.data.view.BookSalesRow;
+import com.example.spring.bookstore.data.view.OrderItemRow;
+import com.example.spring.bookstore.data.view.OrderView;
+import com.example.spring.bookstore.data.view.UserOrderSummaryView;
+import com.example.spring.bookstore.request.objects.OrderFilter;
+import com.example.spring.bookstore.request.objects.OrderSearch;
+import com.example.spring.bookstore.request.objects.OrderSearchCursor;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+public class OrderBulkRepositoryImpl implements OrderBulkRepository {
+
+    private static final int STREAM_FETCH_SIZE = 1000;
+    // Long id lists are split, so statements stay far from the bind parameters limit
+    private static final int IN_LIST_SIZE = 1000;
+
+    private static final String MARK_PAID_SQL =
+            "UPDATE orders SET status = :paid WHERE order_id IN (:orderIds) AND status = :pending " +
+                    "RETURNING order_id";
+    // Orders paid together are locked in ascending id order, like cancellation locks them
+    private static final String LOCK_PENDING_ORDERS_SQL =
+            "SELECT order_id FROM orders WHERE order_id IN (:orderIds) AND status = :pending " +
+                    "ORDER BY order_id FOR UPDATE";
+    private static final String SUMMARIZE_BY_USER_SQL =
+            "SELECT user_id, COUNT(*) AS orders_count, COUNT(*) FILTER (WHERE status = :pending) AS pending_count, " +
+                    "COALESCE(SUM(total_payment) FILTER (WHERE status = :paid), 0) AS paid_total " +
+                    "FROM orders WHERE order_id IN (:orderIds) AND user_id IS NOT NULL GROUP BY user_id";
+    private static final String FIND_EXISTING_IDS_SQL = "SELECT order_id FROM orders WHERE order_id IN (:orderIds)";
+    private static final String FIND_IDS_SQL =
+            "SELECT order_id FROM orders WHERE order_id > :afterId%s ORDER BY order_id LIMIT :limit";
+    private static final String SEARCH_SQL =
+            "SELECT order_id, created_at FROM orders%s ORDER BY created_at DESC, order_id DESC LIMIT :limit";
+    private static final String STREAM_ORDERS_SQL =
+            "SELECT o.order_id, o.user_id, o.total_payment, o.status, i.book_id, i.quantity " +
+                    "FROM orders o LEFT JOIN order_item i ON i.order_id = o.order_id ORDER BY o.order_id, i.book_id";
+    private static final String FIND_CREATED_AT_SQL =
+            "SELECT order_id, created_at FROM orders WHERE status = :status";
+    // Books are locked before orders, in the same order as checkout and order deletion lock them
+    // Hot books are not locked, like in checkout, their items go back with the slot update
+    private static final String LOCK_BOOKS_SQL =
+            "SELECT id FROM books WHERE stock_slots = 0 AND id IN " +
+                    "(SELECT i.book_id FROM order_item i WHERE i.order_id IN (:orderIds)) " +
+                    "ORDER BY id FOR UPDATE";
+    private static final String HOT_BOOKS_SQL =
+            "SELECT id FROM books WHERE stock_slots > 0 AND id IN " +
+                    "(SELECT i.book_id FROM order_item i WHERE i.order_id IN (:orderIds))";
+    private static final String LOCK_ORDERS_SQL =
+            "SELECT order_id FROM orders WHERE order_id IN (:orderIds)%s ORDER BY order_id FOR UPDATE";
+    private static final String RESTORE_QUANTITIES_SQL =
+            "UPDATE books b SET quantity = b.quantity + t.quantity " +
+                    "FROM (SELECT i.book_id, SUM(i.quantity) AS quantity FROM order_item i " +
+                    "WHERE i.order_id IN (:orderIds) GROUP BY i.book_id) t " +
+                    "WHERE b.id = t.book_id AND b.stock_slots = 0 " +
+                    "RETURNING b.id AS book_id, t.quantity";
+    // Hot books get their items back in the first slot
+    private static final String RESTORE_SLOT_QUANTITIES_SQL =
+            "UPDATE book_stock_slot s SET quantity = s.quantity + t.quantity " +
+                    "FROM (SELECT i.book_id, SUM(i.quantity) AS quantity FROM order_item i " +
+                    "WHERE i.order_id IN (:orderIds) GROUP BY i.book_id) t " +
+                    "WHERE s.book_id = t.book_id AND s.slot = 0 " +
+                    "RETURNING s.book_id, t.quantity";
+    // Sales rows are locked in ascending book id order, like checkout changes them
+    private static final String LOCK_SALES_SQL =
+            "SELECT s.book_id FROM book_sales s WHERE (s.book_id, s.slot) IN " +
+                    "(SELECT m.book_id, MIN(m.slot) FROM book_sales m WHERE m.book_id IN " +
+                    "(SELECT i.book_id FROM order_item i WHERE i.order_id IN (:orderIds)) GROUP BY m.book_id) " +
+                    "ORDER BY s.book_id FOR UPDATE";
+    // Sales are taken back at the current book price, like the order total was counted,
+    // from the first existing book_sales row of a book, the sum over its rows is what counts
+    private static final String SUBTRACT_SALES_SQL =
+            "UPDATE book_sales s SET units_sold = s.units_sold - t.units_sold, revenue = s.revenue - t.revenue, " +
+                    "orders_count = s.orders_count - t.orders_count, version = s.version + 1 " +
+                    "FROM (SELECT i.book_id, SUM(i.quantity) AS units_sold, SUM(i.quantity * b.price) AS revenue, " +
+                    "COUNT(*) AS orders_count FROM order_item i JOIN books b ON b.id = i.book_id " +
+                    "WHERE i.order_id IN (:orderIds) GROUP BY i.book_id) t " +
+                    "WHERE s.book_id = t.book_id " +
+                    "AND s.slot = (SELECT MIN(m.slot) FROM book_sales m WHERE m.book_id = t.book_id) " +
+                    "RETURNING s.book_id, s.slot, s.units_sold, s.revenue, s.orders_count, s.version";
+    private static final String DELETE_ITEMS_SQL = "DELETE FROM order_item WHERE order_id IN (:orderIds)";
+    private static final String DELETE_ORDERS_SQL = "DELETE FROM orders WHERE order_id IN (:orderIds)";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final JdbcTemplate streamingJdbcTemplate;
+
+    public OrderBulkRepositoryImpl(NamedParameterJdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.streamingJdbcTemplate = new JdbcTemplate(jdbcTemplate.getJdbcTemplate().getDataSource());
+        this.streamingJdbcTemplate.setFetchSize(STREAM_FETCH_SIZE);
+    }
+
+    @Override
+    public List<Long> findIdsByFilter(OrderFilter filter, long afterId, int limit) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("afterId", afterId)
+                .addValue("limit", limit);
+        String sql = String.format(FIND_IDS_SQL, filterSql(filter, params));
+        return jdbcTemplate.queryForList(sql, params, Long.class);
+    }
+
+    @Override
+    public Map<Long, Instant> findCreatedAtBySearch(OrderSearch search, OrderSearchCursor after, int limit) {
+        MapSqlParameterSource params = new MapSqlParameterSource("limit", limit);
+        Map<Long, Instant> createdAt = new LinkedHashMap<>();
+        jdbcTemplate.query(searchSql(search, after, params), params, resultSet -> {
+            createdAt.put(resultSet.getLong("order_id"), resultSet.getTimestamp("created_at").toInstant());
+        });
+        return createdAt;
+    }
+
+    @Override
+    public void forEachOrderView(Consumer<OrderView> consumer) {
+        OrderView.RowGrouper grouper = new OrderView.RowGrouper(consumer);
+        streamingJdbcTemplate.query(STREAM_ORDERS_SQL, resultSet -> {
+            int status = resultSet.getInt("status");
+            Order.Status orderStatus = resultSet.wasNull() ? null : Order.Status.values()[status];
+            long bookId = resultSet.getLong("book_id");
+            // An order without items has a single row with null book and quantity
+            boolean hasItem = !resultSet.wasNull();
+            grouper.accept(new OrderItemRow(
+                    resultSet.getLong("order_id"),
+                    resultSet.getLong("user_id"),
+                    resultSet.getDouble("total_payment"),
+                    orderStatus,
+                    hasItem ? bookId : null,
+                    hasItem ? resultSet.getInt("quantity") : null
+            ));
+        });
+        grouper.flush();
+    }
+
+    @Override
+    public boolean markPaid(Long orderId) {
+        // A single row needs no lock order
+        MapSqlParameterSource params = new MapSqlParameterSource("orderIds", Collections.singletonList(orderId))
+                .addValue("paid", Order.Status.PAID.ordinal())
+                .addValue("pending", Order.Status.PENDING.ordinal());
+        return !jdbcTemplate.queryForList(MARK_PAID_SQL, params, Long.class).isEmpty();
+    }
+
+    @Override
+    public List<Long> markAllPaid(Collection<Long> orderIds) {
+        // Ascending chunks of ascending ids keep one lock order over the whole call
+        List<Long> sortedIds = new ArrayList<>(orderIds);
+        Collections.sort(sortedIds);
+        List<Long> paidIds = new ArrayList<>();
+        for (List<Long> chunk : chunks(sortedIds)) {
+            MapSqlParameterSource params = new MapSqlParameterSource("orderIds", chunk)
+                    .addValue("paid", Order.Status.PAID.ordinal())
+                    .addValue("pending", Order.Status.PENDING.ordinal());
+            List<Long> lockedIds = jdbcTemplate.queryForList(LOCK_PENDING_ORDERS_SQL, params, Long.class);
+            if (lockedIds.isEmpty()) continue;
+            params.addValue("orderIds", lockedIds);
+            paidIds.addAll(jdbcTemplate.queryForList(MARK_PAID_SQL, params, Long.class));
+        }
+        return paidIds;
+    }
+
+    @Override
+    public List<Long> findExistingIds(Collection<Long> orderIds) {
+        List<Long> existingIds = new ArrayList<>();
+        for (List<Long> chunk : chunks(orderIds)) {
+            MapSqlParameterSource params = new MapSqlParameterSource("orderIds", chunk);
+            existingIds.addAll(jdbcTemplate.queryForList(FIND_EXISTING_IDS_SQL, params, Long.class));
+        }
+        return existingIds;
+    }
+
+    @Override
+    public List<UserOrderSummaryView> summarizeByUser(Collection<Long> orderIds) {
+        // Orders of a user may be in several chunks
+        Map<Long, UserOrderSummaryView> summaries = new HashMap<>();
+        for (List<Long> chunk : chunks(orderIds)) {
+            MapSqlParameterSource params = new MapSqlParameterSource("orderIds", chunk)
+                    .addValue("paid", Order.Status.PAID.ordinal())
+                    .addValue("pending", Order.Status.PENDING.ordinal());
+            jdbcTemplate.query(SUMMARIZE_BY_USER_SQL, params, resultSet -> {
+                UserOrderSummaryView summary = new UserOrderSummaryView(
+                        resultSet.getLong("user_id"),
+                        resultSet.getInt("orders_count"),
+                        resultSet.getInt("pending_count"),
+                        resultSet.getDouble("paid_total")
+                );
+                summaries.merge(summary.getUserId(), summary, (first, second) -> new UserOrderSummaryView(
+                        first.getUserId(),
+                        first.getOrdersCount() + second.getOrdersCount(),
+                        first.getPendingCount() + second.getPendingCount(),
+                        first.getPaidTotal() + second.getPaidTotal()
+                ));
+            });
+        }
+        return new ArrayList<>(summaries.values());
+    }
+
+    @Override
+    public Map<Long, Instant> findCreatedAtByStatus(Order.Status status) {
+        Map<Long, Instant> createdAt = new HashMap<>();
+        jdbcTemplate.query(FIND_CREATED_AT_SQL, new MapSqlParameterSource("status", status.ordinal()), resultSet -> {
+            createdAt.put(resultSet.getLong("order_id"), resultSet.getTimestamp("created_at").toInstant());
+        });
+        return createdAt;
+    }
+
+    @Override
+    public CancelledOrders cancelByIds(OrderFilter filter, List<Long> orderIds) {
+        if (orderIds.isEmpty()) {
+            return new CancelledOrders(0, Collections.emptyMap(), Collections.emptyList(), Collections.emptyList());
+        }
+
+        MapSqlParameterSource params = new MapSqlParameterSource("orderIds", orderIds);
+        jdbcTemplate.queryForList(LOCK_BOOKS_SQL, params, Long.class);
+        String lockOrdersSql = String.format(LOCK_ORDERS_SQL, filterSql(filter, params));
+        List<Long> lockedIds = jdbcTemplate.queryForList(lockOrdersSql, params, Long.class);
+        if (lockedIds.isEmpty()) {
+            return new CancelledOrders(0, Collections.emptyMap(), Collections.emptyList(), Collections.emptyList());
+        }
+
+        MapSqlParameterSource lockedParams = new MapSqlParameterSource("orderIds", lockedIds);
+        List<Long> hotBookIds = jdbcTemplate.queryForList(HOT_BOOKS_SQL, lockedParams, Long.class);
+        Map<Long, Integer> returnedQuantities = new HashMap<>();
+        for (String sql : new String[]{RESTORE_QUANTITIES_SQL, RESTORE_SLOT_QUANTITIES_SQL}) {
+            jdbcTemplate.query(sql, lockedParams, resultSet -> {
+                returnedQuantities.put(resultSet.getLong("book_id"), resultSet.getInt("quantity"));
+            });
+        }
+        // Slots of an unlocked hot book collapsed meanwhile got nothing back, the chunk is retried
+        for (Long bookId : hotBookIds) {
+            if (!returnedQuantities.containsKey(bookId)) {
+                throw new OptimisticLockingFailureException("Stock of book " + bookId + " is not split anymore");
+            }
+        }
+        jdbcTemplate.queryForList(LOCK_SALES_SQL, lockedParams, Long.class);
+        List<BookSalesRow> sales = jdbcTemplate.query(SUBTRACT_SALES_SQL, lockedParams,
+                (resultSet, rowNum) -> BookSalesRepositoryImpl.salesRow(resultSet));
+        List<UserOrderSummaryView> userSummaries = summarizeByUser(lockedIds);
+        jdbcTemplate.update(DELETE_ITEMS_SQL, lockedParams);
+        int ordersCount = jdbcTemplate.update(DELETE_ORDERS_SQL, lockedParams);
+        return new CancelledOrders(ordersCount, returnedQuantities, sales, userSummaries);
+    }
+
+    private static List<List<Long>> chunks(Collection<Long> ids) {
+        List<Long> idList = new ArrayList<>(ids);
+        List<List<Long>> chunks = new ArrayList<>();
+        for (int from = 0; from < idList.size(); from += IN_LIST_SIZE) {
+            chunks.add(idList.subList(from, Math.min(from + IN_LIST_SIZE, idList.size())));
+        }
+        return chunks;
+    }
+
+    static String searchSql(OrderSearch search, OrderSearchCursor after, MapSqlParameterSource params) {
+        List<String> conditions = new ArrayList<>();
+        if (search.getStatus() != null) {
+            conditions.add("status = :status");
+            params.addValue("status", search.getStatus().ordinal());
+        }
+        if (search.getUserId() != null) {
+            conditions.add("user_id = :userId");
+            params.addValue("userId", search.getUserId());
+        }
+        if (search.getCreatedFrom() != null) {
+            conditions.add("created_at >= :createdFrom");
+            params.addValue("createdFrom", Timestamp.from(search.getCreatedFrom()));
+        }
+        if (search.getCreatedTo() != null) {
+            conditions.add("created_at < :createdTo");
+            params.addValue("createdTo", Timestamp.from(search.getCreatedTo()));
+        }
+        if (after != null) {
+            // Row comparison keeps the keyset condition a single index range
+            conditions.add("(created_at, order_id) < (:afterCreatedAt, :afterId)");
+            params.addValue("afterCreatedAt", Timestamp.from(after.getCreatedAt()));
+            params.addValue("afterId", after.getOrderId());
+        }
+        return String.format(SEARCH_SQL, conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions));
+    }
+
+    private static String filterSql(OrderFilter filter, MapSqlParameterSource params) {
+        StringBuilder sql = new StringBuilder();
+        if (filter.getStatus() != null) {
+            // Status is stored as its ordinal
+            sql.append(" AND status = :status");
+            params.addValue("status", filter.getStatus().ordinal());
+        }
+        if (filter.getUserId() != null) {
+            sql.append(" AND user_id = :userId");
+            params.addValue("userId", filter.getUserId());
+        }
+        if (filter.getFromId() != null) {
+            sql.append(" AND order_id >= :fromId");
+            params.addValue("fromId", filter.getFromId());
+        }
+        if (filter.getToId() != null) {
+            sql.append(" AND order_id <= :toId");
+            params.addValue("toId", filter.getToId());
+        }
+        return sql.toString();
+    }
+}
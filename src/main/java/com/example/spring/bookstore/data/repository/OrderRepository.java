@@ -1,10 +1,70 @@
 package com.example.spring.bookstore.data.repository;
 
 import com.example.spring.bookstore.data.entity.Order;
+import com.example.spring.bookstore.data.view.OrderItemRow;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHint;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
 @Repository
-public interface OrderRepository extends CrudRepository<Order, Long> {
-    Iterable<Order> getOrdersByUserId(Long userId);
+public interface OrderRepository extends CrudRepository<Order, Long>, OrderBulkRepository {
+
+    String ORDER_ITEM_ROWS_QUERY = "select new com.example.spring.bookstore.data.view.OrderItemRow(" +
+            "o.orderId, o.user.id, o.totalPayment, o.status, i.book.id, i.quantity) " +
+            "from Order o left join o.orderItems i";
+
+    /**
+     * Reading ids of all orders with a database cursor.
+     * Must be called in a transaction and the stream must be closed
+     */
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "1000"))
+    @Query("select o.orderId from Order o")
+    Stream<Long> streamAllIds();
+
+    /**
+     * Reading item rows of all orders without loading entities, rows of one order are consecutive
+     */
+    @Query(ORDER_ITEM_ROWS_QUERY + " order by o.orderId, i.book.id")
+    List<OrderItemRow> findAllItemRows();
+
+    /**
+     * Reading item rows of an order without loading entities
+     *
+     * @param id order id
+     */
+    @Query(ORDER_ITEM_ROWS_QUERY + " where o.orderId = :id order by i.book.id")
+    List<OrderItemRow> findItemRowsById(@Param("id") Long id);
+
+    /**
+     * Reading item rows of user orders without loading entities, rows of one order are consecutive
+     *
+     * @param userId user id
+     */
+    @Query(ORDER_ITEM_ROWS_QUERY + " where o.user.id = :userId order by o.orderId, i.book.id")
+    List<OrderItemRow> findItemRowsByUserId(@Param("userId") Long userId);
+
+    /**
+     * Reading item rows of orders without loading entities, rows of one order are consecutive
+     *
+     * @param ids order ids
+     */
+    @Query(ORDER_ITEM_ROWS_QUERY + " where o.orderId in :ids order by o.orderId, i.book.id")
+    List<OrderItemRow> findItemRowsByIds(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Loading an order with its user, items and item books in one query
+     *
+     * @param id order id
+     */
+    @Query("select distinct o from Order o join fetch o.user " +
+            "left join fetch o.orderItems i left join fetch i.book where o.orderId = :id")
+    Optional<Order> findByIdWithItems(@Param("id") Long id);
 }
@@ -1,9 +1,33 @@
 package com.example.spring.bookstore.data.repository;
 
 import com.example.spring.bookstore.data.entity.User;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHint;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.stream.Stream;
+
 @Repository
-public interface UserRepository extends CrudRepository<User, Long> {
+public interface UserRepository extends CrudRepository<User, Long>, UserSummaryRepository {
+
+    /**
+     * Reading all users with a database cursor, rows are fetched in chunks.
+     * Must be called in a transaction and the stream must be closed
+     */
+    @QueryHints({
+            @QueryHint(name = "org.hibernate.fetchSize", value = "1000"),
+            @QueryHint(name = "org.hibernate.readOnly", value = "true")
+    })
+    @Query("select u from User u order by u.id")
+    Stream<User> streamAll();
+
+    /**
+     * Reading ids of all users with a database cursor.
+     * Must be called in a transaction and the stream must be closed
+     */
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "1000"))
+    @Query("select u.id from User u")
+    Stream<Long> streamAllIds();
 }
@@ -0,0 +1,28 @@
+package com.example.spring.bookstore.data.repository;
+
+import com.example.spring.bookstore.data.view.UserOrderSummaryRow;
+import com.example.spring.bookstore.data.view.UserOrderSummaryView;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface UserSummaryRepository {
+
+    /**
+     * Adding summary deltas to the user_order_summary rows of their users, a missing row is created.
+     * Rows are changed in ascending user id order, so concurrent batches can't deadlock
+     *
+     * @param deltas summary deltas
+     * @return changed rows
+     */
+    List<UserOrderSummaryRow> addOrderSummaries(Collection<UserOrderSummaryView> deltas);
+
+    /**
+     * Getting the order summary of a user from its user_order_summary row
+     *
+     * @param userId user id
+     * @return summary, or empty if the user never ordered
+     */
+    Optional<UserOrderSummaryRow> findOrderSummary(Long userId);
+}
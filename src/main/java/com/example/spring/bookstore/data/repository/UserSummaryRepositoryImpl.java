@@ -0,0 +1,65 @@
+package com.example.spring.bookstore.data.repository;
+
+import com.example.spring.bookstore.data.view.UserOrderSummaryRow;
+import com.example.spring.bookstore.data.view.UserOrderSummaryView;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+public class UserSummaryRepositoryImpl implements UserSummaryRepository {
+
+    private static final String ADD_SUMMARY_SQL =
+            "INSERT INTO user_order_summary (user_id, orders_count, pending_count, paid_total, version) " +
+                    "VALUES (?, ?, ?, ?, 1) " +
+                    "ON CONFLICT (user_id) DO UPDATE SET " +
+                    "orders_count = user_order_summary.orders_count + EXCLUDED.orders_count, " +
+                    "pending_count = user_order_summary.pending_count + EXCLUDED.pending_count, " +
+                    "paid_total = user_order_summary.paid_total + EXCLUDED.paid_total, " +
+                    "version = user_order_summary.version + 1 " +
+                    "RETURNING user_id, orders_count, pending_count, paid_total, version";
+    private static final String FIND_SUMMARY_SQL =
+            "SELECT user_id, orders_count, pending_count, paid_total, version " +
+                    "FROM user_order_summary WHERE user_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public UserSummaryRepositoryImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public List<UserOrderSummaryRow> addOrderSummaries(Collection<UserOrderSummaryView> deltas) {
+        List<UserOrderSummaryView> sorted = new ArrayList<>(deltas);
+        sorted.sort(Comparator.comparing(UserOrderSummaryView::getUserId));
+        // A batch can't return rows, so every row is one statement
+        List<UserOrderSummaryRow> rows = new ArrayList<>(sorted.size());
+        for (UserOrderSummaryView delta : sorted) {
+            rows.add(jdbcTemplate.queryForObject(ADD_SUMMARY_SQL, (resultSet, rowNum) -> summaryRow(resultSet),
+                    delta.getUserId(), delta.getOrdersCount(), delta.getPendingCount(), delta.getPaidTotal()));
+        }
+        return rows;
+    }
+
+    @Override
+    public Optional<UserOrderSummaryRow> findOrderSummary(Long userId) {
+        List<UserOrderSummaryRow> rows =
+                jdbcTemplate.query(FIND_SUMMARY_SQL, (resultSet, rowNum) -> summaryRow(resultSet), userId);
+        return rows.isEmpty() ? Optional.empty() : Optional.of(rows.get(0));
+    }
+
+    private static UserOrderSummaryRow summaryRow(ResultSet resultSet) throws SQLException {
+        UserOrderSummaryView summary = new UserOrderSummaryView(
+                resultSet.getLong("user_id"),
+                resultSet.getInt("orders_count"),
+                resultSet.getInt("pending_count"),
+                resultSet.getDouble("paid_total")
+        );
+        return new UserOrderSummaryRow(summary, resultSet.getLong("version"));
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.spring.bookstore.data.view;
+
+// used in bestsellers responses, unitsSold is never below the true units and never above them by more than maxError
+public class BestsellerView {
+    private final Long bookId;
+    private final long unitsSold;
+    private final long maxError;
+
+    public BestsellerView(Long bookId, long unitsSold, long maxError) {
+        this.bookId = bookId;
+        this.unitsSold = unitsSold;
+        this.maxError = maxError;
+    }
+
+    public Long getBookId() {
+        return bookId;
+    }
+
+    public long getUnitsSold() {
+        return unitsSold;
+    }
+
+    public long getMaxError() {
+        return maxError;
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.spring.bookstore.data.view;
+
+// used to load the book search index, one row per book
+public class BookNameRow {
+    private final Long id;
+    private final String name;
+
+    public BookNameRow(Long id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.spring.bookstore.data.view;
+
+import com.example.spring.bookstore.data.entity.Book;
+
+import java.util.List;
+
+// used in paginated book responses
+public class BookPageView {
+    private List<Book> books;
+    private String nextCursor;
+
+    public BookPageView(List<Book> books, String nextCursor) {
+        this.books = books;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Book> getBooks() {
+        return books;
+    }
+
+    /**
+     * Cursor of the next page, null on the last page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
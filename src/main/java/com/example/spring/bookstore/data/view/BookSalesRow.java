@@ -0,0 +1,31 @@
+package com.example.spring.bookstore.data.view;
+
+// book_sales row, the version grows with every change of the row, so a stale row never replaces a newer one.
+// Sales of a book are the sum of its rows, a hot book has a row for every slot its orders were counted in
+public class BookSalesRow {
+    private final BookSalesView sales;
+    private final int slot;
+    private final long version;
+
+    public BookSalesRow(BookSalesView sales, int slot, long version) {
+        this.sales = sales;
+        this.slot = slot;
+        this.version = version;
+    }
+
+    public Long getBookId() {
+        return sales.getBookId();
+    }
+
+    public BookSalesView getSales() {
+        return sales;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.spring.bookstore.data.view;
+
+// used in stats responses of all books
+public class BookSalesTotalsView {
+    private final long booksSold;
+    private final long unitsSold;
+    private final double revenue;
+    private final long orderItems;
+
+    public BookSalesTotalsView(long booksSold, long unitsSold, double revenue, long orderItems) {
+        this.booksSold = booksSold;
+        this.unitsSold = unitsSold;
+        this.revenue = revenue;
+        this.orderItems = orderItems;
+    }
+
+    /**
+     * Number of books with sold units
+     */
+    public long getBooksSold() {
+        return booksSold;
+    }
+
+    public long getUnitsSold() {
+        return unitsSold;
+    }
+
+    public double getRevenue() {
+        return revenue;
+    }
+
+    /**
+     * Number of order lines, an order of several books has a line per book
+     */
+    public long getOrderItems() {
+        return orderItems;
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.spring.bookstore.data.view;
+
+// used in book stats responses and as sales deltas of orders
+public class BookSalesView {
+    private final Long bookId;
+    private final long unitsSold;
+    private final double revenue;
+    private final long ordersCount;
+
+    public BookSalesView(Long bookId, long unitsSold, double revenue, long ordersCount) {
+        this.bookId = bookId;
+        this.unitsSold = unitsSold;
+        this.revenue = revenue;
+        this.ordersCount = ordersCount;
+    }
+
+    public static BookSalesView empty(Long bookId) {
+        return new BookSalesView(bookId, 0, 0, 0);
+    }
+
+    public Long getBookId() {
+        return bookId;
+    }
+
+    public long getUnitsSold() {
+        return unitsSold;
+    }
+
+    public double getRevenue() {
+        return revenue;
+    }
+
+    public long getOrdersCount() {
+        return ordersCount;
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.spring.bookstore.data.view;
+
+import com.example.spring.bookstore.data.entity.Book;
+
+import java.util.List;
+
+// used in book search responses
+public class BookSearchView {
+    private List<Book> books;
+    private int total;
+    private Integer nextPage;
+
+    public BookSearchView(List<Book> books, int total, Integer nextPage) {
+        this.books = books;
+        this.total = total;
+        this.nextPage = nextPage;
+    }
+
+    /**
+     * Books of the page, best matches first
+     */
+    public List<Book> getBooks() {
+        return books;
+    }
+
+    /**
+     * Number of all matching books
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Number of the next page, null on the last page
+     */
+    public Integer getNextPage() {
+        return nextPage;
+    }
+}
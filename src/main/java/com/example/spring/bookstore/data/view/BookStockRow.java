@@ -0,0 +1,26 @@
+package com.example.spring.bookstore.data.view;
+
+// used to load the book price and stock index, one row per book with the whole stock of the book
+public class BookStockRow {
+    private final Long id;
+    private final double price;
+    private final int quantity;
+
+    public BookStockRow(Long id, double price, int quantity) {
+        this.id = id;
+        this.price = price;
+        this.quantity = quantity;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public double getPrice() {
+        return price;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.spring.bookstore.data.view;
+
+/**
+ * Stored response of a request with an idempotency key
+ */
+public class IdempotentResponse {
+    private final String requestHash;
+    private final int status;
+    private final String body;
+
+    public IdempotentResponse(String requestHash, int status, String body) {
+        this.requestHash = requestHash;
+        this.status = status;
+        this.body = body;
+    }
+
+    public String getRequestHash() {
+        return requestHash;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getBody() {
+        return body;
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.spring.bookstore.data.view;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// used in bulk cancel responses
+public class OrderCancelView {
+    private int cancelledOrders;
+    private Map<Long, Integer> returnedBooks = new HashMap<>();
+
+    public void addChunk(int cancelledOrders, Map<Long, Integer> returnedBooks) {
+        this.cancelledOrders += cancelledOrders;
+        for (Map.Entry<Long, Integer> entry : returnedBooks.entrySet()) {
+            this.returnedBooks.merge(entry.getKey(), entry.getValue(), Integer::sum);
+        }
+    }
+
+    public int getCancelledOrders() {
+        return cancelledOrders;
+    }
+
+    public Map<Long, Integer> getReturnedBooks() {
+        return returnedBooks;
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.spring.bookstore.data.view;
+
+import com.example.spring.bookstore.data.entity.Order;
+
+// used in order reads, one row per order item, book and quantity are null for an order without items
+public class OrderItemRow {
+    private final Long orderId;
+    private final Long userId;
+    private final Double totalPayment;
+    private final Order.Status status;
+    private final Long bookId;
+    private final Integer quantity;
+
+    public OrderItemRow(Long orderId, Long userId, Double totalPayment,
+                        Order.Status status, Long bookId, Integer quantity) {
+        this.orderId = orderId;
+        this.userId = userId;
+        this.totalPayment = totalPayment;
+        this.status = status;
+        this.bookId = bookId;
+        this.quantity = quantity;
+    }
+
+    public Long getOrderId() {
+        return orderId;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public Double getTotalPayment() {
+        return totalPayment;
+    }
+
+    public Order.Status getStatus() {
+        return status;
+    }
+
+    public Long getBookId() {
+        return bookId;
+    }
+
+    public Integer getQuantity() {
+        return quantity;
+    }
+}
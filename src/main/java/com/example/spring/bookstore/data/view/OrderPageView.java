@@ -0,0 +1,25 @@
+package com.example.spring.bookstore.data.view;
+
+import java.util.List;
+
+// used in order search responses
+public class OrderPageView {
+    private List<OrderView> orders;
+    private String nextCursor;
+
+    public OrderPageView(List<OrderView> orders, String nextCursor) {
+        this.orders = orders;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<OrderView> getOrders() {
+        return orders;
+    }
+
+    /**
+     * Cursor of the next page, null on the last page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
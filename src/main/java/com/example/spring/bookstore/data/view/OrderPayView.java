@@ -0,0 +1,28 @@
+package com.example.spring.bookstore.data.view;
+
+import java.util.List;
+
+// used in bulk pay responses
+public class OrderPayView {
+    private List<Long> paid;
+    private List<Long> alreadyPaid;
+    private List<Long> notFound;
+
+    public OrderPayView(List<Long> paid, List<Long> alreadyPaid, List<Long> notFound) {
+        this.paid = paid;
+        this.alreadyPaid = alreadyPaid;
+        this.notFound = notFound;
+    }
+
+    public List<Long> getPaid() {
+        return paid;
+    }
+
+    public List<Long> getAlreadyPaid() {
+        return alreadyPaid;
+    }
+
+    public List<Long> getNotFound() {
+        return notFound;
+    }
+}
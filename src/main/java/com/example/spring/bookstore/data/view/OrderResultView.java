@@ -0,0 +1,51 @@
+package com.example.spring.bookstore.data.view;
+
+import com.example.spring.bookstore.errors.FieldErrorsView;
+
+// used in batch order responses
+public class OrderResultView {
+    private int index;
+    private Status status;
+    private OrderView order;
+    private FieldErrorsView errors;
+
+    private OrderResultView() {
+    }
+
+    public static OrderResultView created(int index, OrderView order) {
+        OrderResultView resultView = new OrderResultView();
+        resultView.index = index;
+        resultView.status = Status.CREATED;
+        resultView.order = order;
+        return resultView;
+    }
+
+    public static OrderResultView rejected(int index, FieldErrorsView errors) {
+        OrderResultView resultView = new OrderResultView();
+        resultView.index = index;
+        resultView.status = Status.REJECTED;
+        resultView.errors = errors;
+        return resultView;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public OrderView getOrder() {
+        return order;
+    }
+
+    public FieldErrorsView getErrors() {
+        return errors;
+    }
+
+    public enum Status {
+        CREATED,
+        REJECTED
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.spring.bookstore.data.view;
+
+import com.example.spring.bookstore.errors.FieldErrorsView;
+
+// used in asynchronous order responses
+public class OrderTicketView {
+    private String ticketId;
+    private Status status;
+    private OrderView order;
+    private FieldErrorsView errors;
+
+    private OrderTicketView() {
+    }
+
+    public static OrderTicketView queued(String ticketId) {
+        OrderTicketView ticketView = new OrderTicketView();
+        ticketView.ticketId = ticketId;
+        ticketView.status = Status.QUEUED;
+        return ticketView;
+    }
+
+    public static OrderTicketView fromResult(String ticketId, OrderResultView resultView) {
+        OrderTicketView ticketView = new OrderTicketView();
+        ticketView.ticketId = ticketId;
+        if (resultView.getStatus() == OrderResultView.Status.CREATED) {
+            ticketView.status = Status.CREATED;
+            ticketView.order = resultView.getOrder();
+        } else {
+            ticketView.status = Status.REJECTED;
+            ticketView.errors = resultView.getErrors();
+        }
+        return ticketView;
+    }
+
+    public static OrderTicketView failed(String ticketId) {
+        OrderTicketView ticketView = new OrderTicketView();
+        ticketView.ticketId = ticketId;
+        ticketView.status = Status.FAILED;
+        return ticketView;
+    }
+
+    public String getTicketId() {
+        return ticketId;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public OrderView getOrder() {
+        return order;
+    }
+
+    public FieldErrorsView getErrors() {
+        return errors;
+    }
+
+    public enum Status {
+        QUEUED,
+        CREATED,
+        REJECTED,
+        FAILED
+    }
+}
@@ -4,14 +4,20 @@ import com.example.spring.bookstore.data.entity.Order;
 import com.example.spring.bookstore.data.entity.OrderItem;
 import com.example.spring.bookstore.request.objects.BookItem;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
 
 public class OrderView {
+
+    // Books are listed by book id, so responses are stable between calls
+    private static final Comparator<BookItem> BY_BOOK_ID = Comparator.comparing(BookItem::getBookId);
+
     private Long orderId;
     private Long userId;
     private double totalPayment;
-    private Set<BookItem> books;
+    private List<BookItem> books;
     private Order.Status status;
 
     private OrderView() {
@@ -22,20 +28,49 @@ public class OrderView {
         orderView.orderId = order.getOrderId();
         orderView.userId = order.getUser().getId();
         orderView.totalPayment = order.getTotalPayment();
-        Set<BookItem> bookItems = new HashSet<>();
+        List<BookItem> bookItems = new ArrayList<>(order.getOrderItems().size());
         for (OrderItem orderItem : order.getOrderItems())
             bookItems.add(new BookItem(orderItem.getBook().getId(),
                     orderItem.getQuantity()));
+        bookItems.sort(BY_BOOK_ID);
         orderView.books = bookItems;
         orderView.status = order.getStatus();
         return orderView;
     }
 
-    public static Iterable<OrderView> fromOrders(Iterable<Order> orders) {
-        HashSet<OrderView> orderViews = new HashSet<>();
-        for (Order order : orders) {
-            orderViews.add(fromOrder(order));
+    /**
+     * Creating a view from order columns
+     *
+     * @param books order books, sorted by book id
+     */
+    public static OrderView of(Long orderId, Long userId, double totalPayment,
+                               Order.Status status, List<BookItem> books) {
+        OrderView orderView = new OrderView();
+        orderView.orderId = orderId;
+        orderView.userId = userId;
+        orderView.totalPayment = totalPayment;
+        orderView.books = books;
+        orderView.status = status;
+        return orderView;
+    }
+
+    /**
+     * Assembling views from order item rows, rows of one order must be consecutive.
+     * Views and book lists are created with their exact sizes
+     *
+     * @param rows order item rows, sorted by order id and book id
+     * @return views in the order of rows
+     */
+    public static List<OrderView> fromRows(List<OrderItemRow> rows) {
+        int ordersCount = 0;
+        for (int i = 0; i < rows.size(); i++) {
+            if (i == 0 || !rows.get(i).getOrderId().equals(rows.get(i - 1).getOrderId())) ordersCount++;
         }
+
+        List<OrderView> orderViews = new ArrayList<>(ordersCount);
+        RowGrouper grouper = new RowGrouper(orderViews::add);
+        rows.forEach(grouper);
+        grouper.flush();
         return orderViews;
     }
 
@@ -51,11 +86,44 @@ public class OrderView {
         return totalPayment;
     }
 
-    public Set<BookItem> getBooks() {
+    public List<BookItem> getBooks() {
         return books;
     }
 
     public Order.Status getStatus() {
         return status;
     }
+
+    /**
+     * Assembling views from order item rows one row at a time, rows of one order must be consecutive.
+     * A view is passed on as soon as the next order starts, the last one on flush
+     */
+    public static class RowGrouper implements Consumer<OrderItemRow> {
+        private final Consumer<OrderView> consumer;
+        private final List<BookItem> bookItems = new ArrayList<>();
+        private OrderItemRow firstRow;
+
+        public RowGrouper(Consumer<OrderView> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void accept(OrderItemRow row) {
+            if (firstRow != null && !firstRow.getOrderId().equals(row.getOrderId())) flush();
+            if (firstRow == null) firstRow = row;
+            if (row.getBookId() != null) bookItems.add(new BookItem(row.getBookId(), row.getQuantity()));
+        }
+
+        /**
+         * Passing on the view of the current order, if there is one
+         */
+        public void flush() {
+            if (firstRow == null) return;
+            // Book lists are copied with their exact sizes
+            consumer.accept(of(firstRow.getOrderId(), firstRow.getUserId(), firstRow.getTotalPayment(),
+                    firstRow.getStatus(), new ArrayList<>(bookItems)));
+            firstRow = null;
+            bookItems.clear();
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,24 @@
+package com.example.spring.bookstore.data.view;
+
+// user_order_summary row, the version grows with every change of the row, so a stale row never replaces a newer one
+public class UserOrderSummaryRow {
+    private final UserOrderSummaryView summary;
+    private final long version;
+
+    public UserOrderSummaryRow(UserOrderSummaryView summary, long version) {
+        this.summary = summary;
+        this.version = version;
+    }
+
+    public Long getUserId() {
+        return summary.getUserId();
+    }
+
+    public UserOrderSummaryView getSummary() {
+        return summary;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
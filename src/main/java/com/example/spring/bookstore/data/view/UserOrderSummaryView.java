@@ -0,0 +1,43 @@
+package com.example.spring.bookstore.data.view;
+
+// used in user summary responses and as summary deltas of order changes
+public class UserOrderSummaryView {
+    private final Long userId;
+    private final int ordersCount;
+    private final int pendingCount;
+    private final double paidTotal;
+
+    public UserOrderSummaryView(Long userId, int ordersCount, int pendingCount, double paidTotal) {
+        this.userId = userId;
+        this.ordersCount = ordersCount;
+        this.pendingCount = pendingCount;
+        this.paidTotal = paidTotal;
+    }
+
+    public static UserOrderSummaryView empty(Long userId) {
+        return new UserOrderSummaryView(userId, 0, 0, 0);
+    }
+
+    /**
+     * Delta taking these orders back
+     */
+    public UserOrderSummaryView negate() {
+        return new UserOrderSummaryView(userId, -ordersCount, -pendingCount, -paidTotal);
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public int getOrdersCount() {
+        return ordersCount;
+    }
+
+    public int getPendingCount() {
+        return pendingCount;
+    }
+
+    public double getPaidTotal() {
+        return paidTotal;
+    }
+}
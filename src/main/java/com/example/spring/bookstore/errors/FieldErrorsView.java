@@ -2,8 +2,10 @@ package com.example.spring.bookstore.errors;
 
 import org.springframework.validation.Errors;
 
+import javax.validation.ConstraintViolation;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 public class FieldErrorsView {
 
@@ -35,4 +37,14 @@ public class FieldErrorsView {
             );
         }
     }
+
+    public <T> void addViolations(Set<ConstraintViolation<T>> violations) {
+        for (ConstraintViolation<T> violation : violations) {
+            addError(
+                    violation.getPropertyPath().toString(),
+                    violation.getMessage(),
+                    violation.getInvalidValue()
+            );
+        }
+    }
 }
@@ -0,0 +1,30 @@
+package com.example.spring.bookstore.request.objects;
+
+// used in filtered book pages, null prices don't filter
+public class BookFilter {
+    private Double minPrice;
+    private Double maxPrice;
+    private boolean inStock;
+
+    public BookFilter(Double minPrice, Double maxPrice, boolean inStock) {
+        this.minPrice = minPrice;
+        this.maxPrice = maxPrice;
+        this.inStock = inStock;
+    }
+
+    public boolean isEmpty() {
+        return minPrice == null && maxPrice == null && !inStock;
+    }
+
+    public Double getMinPrice() {
+        return minPrice;
+    }
+
+    public Double getMaxPrice() {
+        return maxPrice;
+    }
+
+    public boolean isInStock() {
+        return inStock;
+    }
+}
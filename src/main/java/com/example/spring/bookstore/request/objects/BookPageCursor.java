@@ -0,0 +1,77 @@
+package com.example.spring.bookstore.request.objects;
+
+import com.example.spring.bookstore.data.entity.Book;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position after the last book of a page.
+ * Clients get it as an opaque token which keeps the sort of the page
+ */
+public class BookPageCursor {
+
+    private static final String SEPARATOR = "|";
+
+    private final BookSort sort;
+    private final boolean descending;
+    private final Long lastId;
+    private final Object lastValue;
+
+    public BookPageCursor(BookSort sort, boolean descending, Long lastId, Object lastValue) {
+        this.sort = sort;
+        this.descending = descending;
+        this.lastId = lastId;
+        this.lastValue = lastValue;
+    }
+
+    public static BookPageCursor after(Book book, BookSort sort, boolean descending) {
+        return new BookPageCursor(sort, descending, book.getId(), sort.valueOf(book));
+    }
+
+    /**
+     * Decoding a cursor token
+     *
+     * @param token cursor token
+     * @throws IllegalArgumentException if the token is not valid
+     */
+    public static BookPageCursor decode(String token) {
+        String decoded;
+        try {
+            decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Cursor is not valid");
+        }
+        // The value goes last, so it may contain the separator
+        String[] parts = decoded.split("\\" + SEPARATOR, 4);
+        if (parts.length != 4) throw new IllegalArgumentException("Cursor is not valid");
+        try {
+            BookSort sort = BookSort.fromProperty(parts[0]);
+            boolean descending = Boolean.parseBoolean(parts[1]);
+            return new BookPageCursor(sort, descending, Long.valueOf(parts[2]), sort.parseValue(parts[3]));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Cursor is not valid");
+        }
+    }
+
+    public String encode() {
+        String cursor = sort.getProperty() + SEPARATOR + descending + SEPARATOR + lastId + SEPARATOR + lastValue;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public BookSort getSort() {
+        return sort;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public Long getLastId() {
+        return lastId;
+    }
+
+    public Object getLastValue() {
+        return lastValue;
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.spring.bookstore.request.objects;
+
+import com.example.spring.bookstore.data.entity.Book;
+
+import java.util.function.Function;
+
+// used in paginated book requests, books are always sorted by id after the sort property
+public enum BookSort {
+    ID("id", Book::getId, Long::valueOf),
+    NAME("name", Book::getName, value -> value),
+    PRICE("price", Book::getPrice, Double::valueOf);
+
+    private final String property;
+    private final Function<Book, Object> valueGetter;
+    private final Function<String, Object> valueParser;
+
+    BookSort(String property, Function<Book, Object> valueGetter, Function<String, Object> valueParser) {
+        this.property = property;
+        this.valueGetter = valueGetter;
+        this.valueParser = valueParser;
+    }
+
+    /**
+     * Getting the sort by its property name
+     *
+     * @param property id, name or price
+     * @throws IllegalArgumentException if the property is not sortable
+     */
+    public static BookSort fromProperty(String property) {
+        for (BookSort sort : values()) {
+            if (sort.property.equals(property)) return sort;
+        }
+        throw new IllegalArgumentException("Books can't be sorted by " + property);
+    }
+
+    public String getProperty() {
+        return property;
+    }
+
+    public Object valueOf(Book book) {
+        return valueGetter.apply(book);
+    }
+
+    public Object parseValue(String value) {
+        return valueParser.apply(value);
+    }
+}
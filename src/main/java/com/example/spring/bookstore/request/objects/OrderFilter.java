@@ -0,0 +1,45 @@
+package com.example.spring.bookstore.request.objects;
+
+import com.example.spring.bookstore.data.entity.Order;
+
+// used in bulk order operations, null fields don't filter
+public class OrderFilter {
+    private Order.Status status;
+    private Long userId;
+    private Long fromId;
+    private Long toId;
+
+    public OrderFilter() {
+    }
+
+    public OrderFilter(Order.Status status, Long userId, Long fromId, Long toId) {
+        this.status = status;
+        this.userId = userId;
+        this.fromId = fromId;
+        this.toId = toId;
+    }
+
+    public static OrderFilter all() {
+        return new OrderFilter();
+    }
+
+    public boolean isEmpty() {
+        return status == null && userId == null && fromId == null && toId == null;
+    }
+
+    public Order.Status getStatus() {
+        return status;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public Long getFromId() {
+        return fromId;
+    }
+
+    public Long getToId() {
+        return toId;
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.spring.bookstore.request.objects;
+
+import com.example.spring.bookstore.data.entity.Order;
+
+import java.time.Instant;
+
+// used in order search, null fields don't filter
+public class OrderSearch {
+    private Order.Status status;
+    private Long userId;
+    // inclusive
+    private Instant createdFrom;
+    // exclusive
+    private Instant createdTo;
+
+    public OrderSearch() {
+    }
+
+    public OrderSearch(Order.Status status, Long userId, Instant createdFrom, Instant createdTo) {
+        this.status = status;
+        this.userId = userId;
+        this.createdFrom = createdFrom;
+        this.createdTo = createdTo;
+    }
+
+    public Order.Status getStatus() {
+        return status;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public Instant getCreatedFrom() {
+        return createdFrom;
+    }
+
+    public Instant getCreatedTo() {
+        return createdTo;
+    }
+}
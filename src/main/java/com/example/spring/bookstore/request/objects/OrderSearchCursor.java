@@ -0,0 +1,53 @@
+package com.example.spring.bookstore.request.objects;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * Position after the last order of a search page, orders are sorted from the newest one.
+ * Clients get it as an opaque token
+ */
+public class OrderSearchCursor {
+
+    private static final String SEPARATOR = "|";
+
+    private final Instant createdAt;
+    private final Long orderId;
+
+    public OrderSearchCursor(Instant createdAt, Long orderId) {
+        this.createdAt = createdAt;
+        this.orderId = orderId;
+    }
+
+    /**
+     * Decoding a cursor token
+     *
+     * @param token cursor token
+     * @throws IllegalArgumentException if the token is not valid
+     */
+    public static OrderSearchCursor decode(String token) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = decoded.split("\\" + SEPARATOR);
+            if (parts.length != 2) throw new IllegalArgumentException("Cursor is not valid");
+            return new OrderSearchCursor(Instant.parse(parts[0]), Long.valueOf(parts[1]));
+        } catch (IllegalArgumentException | DateTimeException e) {
+            throw new IllegalArgumentException("Cursor is not valid");
+        }
+    }
+
+    public String encode() {
+        String cursor = createdAt + SEPARATOR + orderId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Long getOrderId() {
+        return orderId;
+    }
+}
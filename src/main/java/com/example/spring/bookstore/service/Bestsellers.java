@@ -0,0 +1,96 @@
+package com.example.spring.bookstore.service;
+
+import com.example.spring.bookstore.data.view.BestsellerView;
+import com.example.spring.bookstore.util.AfterTransaction;
+import com.example.spring.bookstore.util.WindowedTopK;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Books with the most units sold in a recent time window, counted from created orders in Space-Saving sketches.
+ * Windows up to an hour are made of minute buckets, longer windows up to a day of hour buckets,
+ * so a window is rounded up to whole buckets. The current bucket is only partly over, so a window takes
+ * one bucket more than it is long and never counts less than its length.
+ * Memory doesn't depend on the number of books.
+ * Units are counted after the order transaction commits, cancelled and deleted orders are not taken back
+ */
+@Component
+public class Bestsellers {
+
+    public static final Duration MAX_WINDOW = Duration.ofDays(1);
+
+    private static final Duration MINUTE_RING = Duration.ofHours(1);
+
+    private final WindowedTopK minutes;
+    private final WindowedTopK hours;
+    private final int capacity;
+
+    @Autowired
+    public Bestsellers(@Value("${bookstore.books.bestsellers.capacity:200}") int capacity) {
+        this(capacity, System::currentTimeMillis);
+    }
+
+    Bestsellers(int capacity, LongSupplier clock) {
+        this.capacity = capacity;
+        // One bucket more than the longest window for the partly over current bucket
+        this.minutes = new WindowedTopK(TimeUnit.MINUTES.toMillis(1), 60 + 1, capacity, clock);
+        this.hours = new WindowedTopK(TimeUnit.HOURS.toMillis(1), 24 + 1, capacity, clock);
+    }
+
+    /**
+     * Most books a top can have, books below it are not tracked exactly enough
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Counting units of a created order after the current transaction commits
+     *
+     * @param quantities units by book id
+     */
+    public void recordAfterCommit(Map<Long, Integer> quantities) {
+        if (quantities.isEmpty()) return;
+        Map<Long, Integer> copy = new HashMap<>(quantities);
+        AfterTransaction.onCommit(() -> {
+            for (Map.Entry<Long, Integer> quantity : copy.entrySet()) {
+                if (quantity.getValue() <= 0) continue;
+                minutes.offer(quantity.getKey(), quantity.getValue());
+                hours.offer(quantity.getKey(), quantity.getValue());
+            }
+        });
+    }
+
+    /**
+     * Getting the books with the most units sold in a window
+     *
+     * @param window window ending now, up to a day
+     * @param limit  max number of books
+     * @return books, most units first
+     */
+    public List<BestsellerView> top(Duration window, int limit) {
+        WindowedTopK ring = window.compareTo(MINUTE_RING) <= 0 ? minutes : hours;
+        long bucketCount = (window.toMillis() + ring.getBucketMillis() - 1) / ring.getBucketMillis();
+        // Whole buckets behind the current one cover the window, the current one adds what is sold so far
+        WindowedTopK.Top top = ring.top((int) Math.max(1, bucketCount) + 1, limit);
+        List<BestsellerView> bestsellers = new ArrayList<>(top.getKeys().length);
+        for (int i = 0; i < top.getKeys().length; i++) {
+            bestsellers.add(new BestsellerView(top.getKeys()[i], top.getCounts()[i], top.getErrors()[i]));
+        }
+        return bestsellers;
+    }
+
+    public void clear() {
+        minutes.clear();
+        hours.clear();
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.spring.bookstore.service;
+
+import com.example.spring.bookstore.data.entity.Book;
+import com.example.spring.bookstore.util.AfterTransaction;
+import com.example.spring.bookstore.util.TinyLfuCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Read-through cache of books by id.
+ * Books are dropped from the cache after a transaction changing them commits,
+ * and a book loaded while it was being changed is not cached.
+ * Book version stamps are bumped along with dropping books
+ */
+@Component
+public class BookCache {
+
+    private final TinyLfuCache<Long, Book> cache;
+    private final ResourceVersions resourceVersions;
+    // Bumped on every invalidation, guarded by this
+    private long invalidations;
+
+    public BookCache(ResourceVersions resourceVersions,
+                     MeterRegistry meterRegistry,
+                     @Value("${bookstore.books.cache.size:10000}") int size,
+                     @Value("${bookstore.books.cache.ttl-seconds:60}") long ttlSeconds) {
+        this.cache = new TinyLfuCache<>(size, TimeUnit.SECONDS.toMillis(ttlSeconds), System::currentTimeMillis);
+        this.resourceVersions = resourceVersions;
+
+        FunctionCounter.builder("bookstore.books.cache.hits", cache, TinyLfuCache::hitCount).register(meterRegistry);
+        FunctionCounter.builder("bookstore.books.cache.misses", cache, TinyLfuCache::missCount).register(meterRegistry);
+        FunctionCounter.builder("bookstore.books.cache.evictions", cache, TinyLfuCache::evictionCount)
+                .register(meterRegistry);
+        meterRegistry.gauge("bookstore.books.cache.size", cache, TinyLfuCache::size);
+    }
+
+    /**
+     * Getting a book from the cache, or loading and caching it
+     *
+     * @param id     book id
+     * @param loader loads the book on a cache miss
+     */
+    public Optional<Book> get(Long id, Function<Long, Optional<Book>> loader) {
+        Book cached = cache.get(id);
+        if (cached != null) return Optional.of(cached);
+
+        long invalidationsBefore = invalidations();
+        Optional<Book> book = loader.apply(id);
+        book.ifPresent(loaded -> putIfNotInvalidated(id, loaded, invalidationsBefore));
+        return book;
+    }
+
+    /**
+     * Dropping books from the cache after the current transaction commits
+     *
+     * @param ids changed book ids
+     */
+    public void invalidateAfterCommit(Collection<Long> ids) {
+        List<Long> bookIds = new ArrayList<>(ids);
+        AfterTransaction.onCommit(() -> invalidate(bookIds));
+    }
+
+    /**
+     * Dropping all books from the cache after the current transaction commits
+     */
+    public void clearAfterCommit() {
+        AfterTransaction.onCommit(this::clear);
+    }
+
+    private synchronized long invalidations() {
+        return invalidations;
+    }
+
+    private synchronized void putIfNotInvalidated(Long id, Book book, long invalidationsBefore) {
+        // Any book could have been changed after it was loaded
+        if (invalidations == invalidationsBefore) cache.put(id, book);
+    }
+
+    private synchronized void clear() {
+        invalidations++;
+        cache.clear();
+        resourceVersions.books().allChanged();
+    }
+
+    private synchronized void invalidate(List<Long> bookIds) {
+        invalidations++;
+        for (Long bookId : bookIds) cache.invalidate(bookId);
+        resourceVersions.books().changed(bookIds);
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.spring.bookstore.service;
+
+import com.example.spring.bookstore.data.entity.Book;
+import com.example.spring.bookstore.data.repository.BookRepository;
+import com.example.spring.bookstore.data.view.BookStockRow;
+import com.example.spring.bookstore.request.objects.BookFilter;
+import com.example.spring.bookstore.request.objects.BookPageCursor;
+import com.example.spring.bookstore.util.AfterTransaction;
+import com.example.spring.bookstore.util.LoadGuard;
+import com.example.spring.bookstore.util.PriceStockIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory price and stock index of books, price range and in-stock pages don't scan the books table.
+ * Stock changes are applied as deltas after the changing transaction commits.
+ * A delta committed while the index is loaded may be missed, so books read from the database for a page
+ * which are out of stock in the index but not in the database are put back in stock.
+ * Pages are read from the database until the index is loaded
+ */
+@Component
+public class BookFilterIndex {
+
+    private final Logger log = LoggerFactory.getLogger(BookFilterIndex.class);
+
+    private final BookRepository bookRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Guarded by lock
+    private final PriceStockIndex index = new PriceStockIndex();
+    private final LoadGuard loadGuard = new LoadGuard();
+
+    public BookFilterIndex(BookRepository bookRepository, PlatformTransactionManager transactionManager) {
+        this.bookRepository = bookRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * Loading price and stock of all books
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        transactionTemplate.execute(status -> {
+            bookRepository.readPricesAndStock(this::addLoaded);
+            return null;
+        });
+        lock.writeLock().lock();
+        try {
+            loadGuard.loaded();
+            log.info("Book prices and stock indexed: {}", index.size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isLoaded() {
+        return loadGuard.isLoaded();
+    }
+
+    /**
+     * Finding books in a price range, sorted by price, then by id
+     *
+     * @param filter     price range and stock filter
+     * @param descending true for the most expensive books first
+     * @param after      cursor of the previous page sorted by price, null for the first page
+     * @param limit      max number of books
+     * @return ids and prices of found books
+     */
+    public PriceStockIndex.Rows find(BookFilter filter, boolean descending, BookPageCursor after, int limit) {
+        double minPrice = filter.getMinPrice() == null ? Double.NEGATIVE_INFINITY : filter.getMinPrice();
+        double maxPrice = filter.getMaxPrice() == null ? Double.POSITIVE_INFINITY : filter.getMaxPrice();
+        double afterPrice = after == null ? 0 : (Double) after.getLastValue();
+        Long afterId = after == null ? null : after.getLastId();
+        lock.readLock().lock();
+        try {
+            return index.find(minPrice, maxPrice, filter.isInStock(), descending, afterPrice, afterId, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adding a book after the current transaction commits
+     *
+     * @param book saved book
+     */
+    public void addAfterCommit(Book book) {
+        Long id = book.getId();
+        double price = book.getPrice();
+        int quantity = book.getQuantity();
+        AfterTransaction.onCommit(() -> write(() -> index.put(id, price, quantity)));
+    }
+
+    /**
+     * Removing a book after the current transaction commits
+     *
+     * @param id deleted book id
+     */
+    public void removeAfterCommit(Long id) {
+        AfterTransaction.onCommit(() -> write(() -> {
+            index.remove(id);
+            loadGuard.removed(id);
+        }));
+    }
+
+    /**
+     * Taking items from the stock after the current transaction commits
+     *
+     * @param quantities taken quantity by book id
+     */
+    public void takenAfterCommit(Map<Long, Integer> quantities) {
+        Map<Long, Integer> deltas = new HashMap<>();
+        for (Map.Entry<Long, Integer> entry : quantities.entrySet()) {
+            deltas.put(entry.getKey(), -entry.getValue());
+        }
+        AfterTransaction.onCommit(() -> addQuantities(deltas));
+    }
+
+    /**
+     * Returning items to the stock after the current transaction commits
+     *
+     * @param quantities returned quantity by book id
+     */
+    public void returnedAfterCommit(Map<Long, Integer> quantities) {
+        Map<Long, Integer> deltas = new HashMap<>(quantities);
+        AfterTransaction.onCommit(() -> addQuantities(deltas));
+    }
+
+    /**
+     * Bringing back a book which is in stock, but is out of stock in the index.
+     * The book may have been read before a delta which is already applied to the index,
+     * so only an indexed 0 is raised, a positive quantity is never overwritten or lowered.
+     * A book in the index with more items than in the database is left out of the page when it's read
+     *
+     * @param book book read from the database
+     */
+    public void correct(Book book) {
+        if (book.getQuantity() <= 0) return;
+        lock.readLock().lock();
+        try {
+            if (index.quantity(book.getId()) != 0) return;
+        } finally {
+            lock.readLock().unlock();
+        }
+        write(() -> {
+            // Checked again, a delta may have come in between
+            if (index.quantity(book.getId()) != 0) return;
+            log.info("Book {} quantity corrected in the index: {}", book.getId(), book.getQuantity());
+            index.put(book.getId(), book.getPrice(), book.getQuantity());
+        });
+    }
+
+    public void clear() {
+        write(index::clear);
+    }
+
+    private void addQuantities(Map<Long, Integer> deltas) {
+        write(() -> {
+            for (Map.Entry<Long, Integer> delta : deltas.entrySet()) {
+                index.addQuantity(delta.getKey(), delta.getValue());
+            }
+        });
+    }
+
+    private void addLoaded(BookStockRow row) {
+        write(() -> {
+            if (loadGuard.canLoad(row.getId())) index.put(row.getId(), row.getPrice(), row.getQuantity());
+        });
+    }
+
+    private void write(Runnable change) {
+        lock.writeLock().lock();
+        try {
+            change.run();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
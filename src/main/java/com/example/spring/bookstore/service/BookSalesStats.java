@@ -0,0 +1,187 @@
+package com.example.spring.bookstore.service;
+
+import com.example.spring.bookstore.data.repository.BookRepository;
+import com.example.spring.bookstore.data.view.BookSalesRow;
+import com.example.spring.bookstore.data.view.BookSalesTotalsView;
+import com.example.spring.bookstore.data.view.BookSalesView;
+import com.example.spring.bookstore.util.AfterTransaction;
+import com.example.spring.bookstore.util.LoadGuard;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory mirror of book_sales rows with running totals, stats are read without queries.
+ * Rows changed by orders are put after the changing transaction commits. A row replaces the mirrored one
+ * only if its version is newer, so rows committed while the mirror is loaded, or put out of commit order,
+ * never go back in time. Sales of a book are summed over its rows, one per slot its sales were counted in.
+ * Stats are read from book_sales until the mirror is loaded
+ */
+@Component
+public class BookSalesStats {
+
+    private final Logger log = LoggerFactory.getLogger(BookSalesStats.class);
+
+    private final BookRepository bookRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Rows by slot of every book, guarded by lock
+    private final Map<Long, Map<Integer, BookSalesRow>> rows = new HashMap<>();
+    private final LoadGuard loadGuard = new LoadGuard();
+    private long booksSold;
+    private long unitsSold;
+    private double revenue;
+    private long orderItems;
+
+    public BookSalesStats(BookRepository bookRepository, PlatformTransactionManager transactionManager) {
+        this.bookRepository = bookRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * Loading all book_sales rows
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        transactionTemplate.execute(status -> {
+            bookRepository.readSales(this::putLoaded);
+            return null;
+        });
+        lock.writeLock().lock();
+        try {
+            loadGuard.loaded();
+            log.info("Book sales loaded: {}", rows.size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Getting sales of a book
+     *
+     * @param bookId book id
+     * @return sales, or empty if the book was never ordered
+     */
+    public Optional<BookSalesView> get(Long bookId) {
+        if (!loadGuard.isLoaded()) return bookRepository.findSales(bookId);
+        lock.readLock().lock();
+        try {
+            Map<Integer, BookSalesRow> bookRows = rows.get(bookId);
+            return bookRows == null ? Optional.empty() : Optional.of(sum(bookId, bookRows));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Getting sales of all books
+     */
+    public BookSalesTotalsView totals() {
+        if (!loadGuard.isLoaded()) return bookRepository.findSalesTotals();
+        lock.readLock().lock();
+        try {
+            return new BookSalesTotalsView(booksSold, unitsSold, revenue, orderItems);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Putting changed book_sales rows after the current transaction commits
+     *
+     * @param changedRows rows returned by the changing statements
+     */
+    public void putAfterCommit(List<BookSalesRow> changedRows) {
+        if (changedRows.isEmpty()) return;
+        List<BookSalesRow> copy = new ArrayList<>(changedRows);
+        AfterTransaction.onCommit(() -> write(() -> {
+            for (BookSalesRow row : copy) put(row);
+        }));
+    }
+
+    /**
+     * Removing sales of a book after the current transaction commits
+     *
+     * @param bookId deleted book id
+     */
+    public void removeAfterCommit(Long bookId) {
+        AfterTransaction.onCommit(() -> write(() -> {
+            Map<Integer, BookSalesRow> removed = rows.remove(bookId);
+            if (removed != null) {
+                if (sum(bookId, removed).getUnitsSold() > 0) booksSold--;
+                for (BookSalesRow row : removed.values()) count(row.getSales(), -1);
+            }
+            loadGuard.removed(bookId);
+        }));
+    }
+
+    public void clear() {
+        write(() -> {
+            rows.clear();
+            booksSold = 0;
+            unitsSold = 0;
+            revenue = 0;
+            orderItems = 0;
+        });
+    }
+
+    private void putLoaded(BookSalesRow row) {
+        write(() -> {
+            if (loadGuard.canLoad(row.getBookId())) put(row);
+        });
+    }
+
+    private void put(BookSalesRow row) {
+        Map<Integer, BookSalesRow> bookRows = rows.computeIfAbsent(row.getBookId(), bookId -> new HashMap<>(2));
+        BookSalesRow current = bookRows.get(row.getSlot());
+        if (current != null && current.getVersion() >= row.getVersion()) return;
+
+        boolean soldBefore = sum(row.getBookId(), bookRows).getUnitsSold() > 0;
+        if (current != null) count(current.getSales(), -1);
+        bookRows.put(row.getSlot(), row);
+        count(row.getSales(), 1);
+        boolean sold = sum(row.getBookId(), bookRows).getUnitsSold() > 0;
+        if (sold != soldBefore) booksSold += sold ? 1 : -1;
+    }
+
+    private static BookSalesView sum(Long bookId, Map<Integer, BookSalesRow> bookRows) {
+        long unitsSold = 0;
+        double revenue = 0;
+        long ordersCount = 0;
+        for (BookSalesRow row : bookRows.values()) {
+            unitsSold += row.getSales().getUnitsSold();
+            revenue += row.getSales().getRevenue();
+            ordersCount += row.getSales().getOrdersCount();
+        }
+        return new BookSalesView(bookId, unitsSold, revenue, ordersCount);
+    }
+
+    private void count(BookSalesView sales, int sign) {
+        unitsSold += sign * sales.getUnitsSold();
+        revenue += sign * sales.getRevenue();
+        orderItems += sign * sales.getOrdersCount();
+    }
+
+    private void write(Runnable change) {
+        lock.writeLock().lock();
+        try {
+            change.run();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.spring.bookstore.service;
+
+import com.example.spring.bookstore.data.repository.BookRepository;
+import com.example.spring.bookstore.data.view.BookNameRow;
+import com.example.spring.bookstore.util.AfterTransaction;
+import com.example.spring.bookstore.util.LoadGuard;
+import com.example.spring.bookstore.util.NgramIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * In-memory index of book names, searches don't query the database.
+ * Books are added and removed after the changing transaction commits, book names never change.
+ * Names are loaded on startup, searches find only books added since then until loading is done
+ */
+@Component
+public class BookSearch {
+
+    private final Logger log = LoggerFactory.getLogger(BookSearch.class);
+
+    private final BookRepository bookRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Guarded by lock
+    private final NgramIndex index = new NgramIndex();
+    private final LoadGuard loadGuard = new LoadGuard();
+
+    public BookSearch(BookRepository bookRepository, PlatformTransactionManager transactionManager) {
+        this.bookRepository = bookRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * Loading names of all books
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        transactionTemplate.execute(status -> {
+            try (Stream<BookNameRow> rows = bookRepository.streamAllNames()) {
+                rows.forEach(this::addLoaded);
+            }
+            return null;
+        });
+        lock.writeLock().lock();
+        try {
+            loadGuard.loaded();
+            log.info("Book names indexed: {}", index.size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finding books by name
+     *
+     * @param query  text in book names, shorter than three characters it's matched against word starts
+     * @param offset number of best matches to skip
+     * @param limit  max number of book ids
+     * @return ids of matching books, best first, and the number of all matches
+     */
+    public NgramIndex.Hits search(String query, int offset, int limit) {
+        lock.readLock().lock();
+        try {
+            return index.search(query, offset, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adding a book after the current transaction commits
+     *
+     * @param id   book id
+     * @param name book name
+     */
+    public void addAfterCommit(Long id, String name) {
+        AfterTransaction.onCommit(() -> add(id, name));
+    }
+
+    /**
+     * Removing a book after the current transaction commits
+     *
+     * @param id deleted book id
+     */
+    public void removeAfterCommit(Long id) {
+        AfterTransaction.onCommit(() -> remove(id));
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            index.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    private void add(Long id, String name) {
+        lock.writeLock().lock();
+        try {
+            index.add(id, name);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void remove(Long id) {
+        lock.writeLock().lock();
+        try {
+            index.remove(id);
+            loadGuard.removed(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addLoaded(BookNameRow row) {
+        lock.writeLock().lock();
+        try {
+            if (loadGuard.canLoad(row.getId())) index.add(row.getId(), row.getName());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
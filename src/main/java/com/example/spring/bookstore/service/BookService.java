@@ -2,22 +2,71 @@ package com.example.spring.bookstore.service;
 
 import com.example.spring.bookstore.data.entity.Book;
 import com.example.spring.bookstore.data.repository.BookRepository;
+import com.example.spring.bookstore.data.view.BestsellerView;
+import com.example.spring.bookstore.data.view.BookPageView;
+import com.example.spring.bookstore.data.view.BookSalesTotalsView;
+import com.example.spring.bookstore.data.view.BookSalesView;
+import com.example.spring.bookstore.data.view.BookSearchView;
+import com.example.spring.bookstore.request.objects.BookFilter;
+import com.example.spring.bookstore.request.objects.BookPageCursor;
 import com.example.spring.bookstore.request.objects.BookRequest;
+import com.example.spring.bookstore.request.objects.BookSort;
+import com.example.spring.bookstore.util.AfterTransaction;
+import com.example.spring.bookstore.util.NgramIndex;
+import com.example.spring.bookstore.util.PriceStockIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 import javax.validation.Valid;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @Service
 public class BookService {
 
+    public static final int MAX_STOCK_SLOTS = 64;
+    public static final int MAX_SEARCH_RESULTS = 10000;
+
     private final Logger log = LoggerFactory.getLogger(BookService.class);
     private final BookRepository bookRepository;
+    private final StockLedger stockLedger;
+    private final BookCache bookCache;
+    private final IdFilters idFilters;
+    private final BookSearch bookSearch;
+    private final BookFilterIndex bookFilterIndex;
+    private final BookSalesStats bookSalesStats;
+    private final Bestsellers bestsellers;
+
+    @PersistenceContext
+    private EntityManager entityManager;
 
-    public BookService(BookRepository bookRepository) {
+    public BookService(BookRepository bookRepository,
+                       StockLedger stockLedger,
+                       BookCache bookCache,
+                       IdFilters idFilters,
+                       BookSearch bookSearch,
+                       BookFilterIndex bookFilterIndex,
+                       BookSalesStats bookSalesStats,
+                       Bestsellers bestsellers) {
         this.bookRepository = bookRepository;
+        this.stockLedger = stockLedger;
+        this.bookCache = bookCache;
+        this.idFilters = idFilters;
+        this.bookSearch = bookSearch;
+        this.bookFilterIndex = bookFilterIndex;
+        this.bookSalesStats = bookSalesStats;
+        this.bestsellers = bestsellers;
 //        fillBooksRepository();
     }
 
@@ -29,6 +78,7 @@ public class BookService {
      */
     public Iterable<Book> fillBooksRepository() {
         log.info("fillBooksRepository()");
+        List<Long> bookIds = new ArrayList<>();
         for (int i = 1; i <= 10; i++) {
 
             String bookName = "Book " + i;
@@ -37,8 +87,13 @@ public class BookService {
 
             Book book = new Book(bookName, price, count);
             bookRepository.save(book);
+            idFilters.books().add(book.getId());
+            bookSearch.addAfterCommit(book.getId(), book.getName());
+            bookFilterIndex.addAfterCommit(book);
+            bookIds.add(book.getId());
             log.info("Book id: {} name: '{}' price: {} count: {}", book.getId(), bookName, price, count);
         }
+        bookCache.invalidateAfterCommit(bookIds);
         return bookRepository.findAll();
     }
 
@@ -50,7 +105,13 @@ public class BookService {
      * @return created book
      */
     public Book addBook(@Valid BookRequest bookRequest) {
-        return bookRepository.save(bookRequest.toBook());
+        Book book = bookRepository.save(bookRequest.toBook());
+        idFilters.books().add(book.getId());
+        bookSearch.addAfterCommit(book.getId(), book.getName());
+        bookFilterIndex.addAfterCommit(book);
+        stockLedger.seed(book.getId(), book.getQuantity());
+        bookCache.invalidateAfterCommit(Collections.singleton(book.getId()));
+        return book;
     }
 
 
@@ -65,22 +126,187 @@ public class BookService {
 
 
     /**
-     * Deleting all books from repo
+     * Reading all books one by one, books are detached after the consumer gets them,
+     * so memory use doesn't depend on the number of books
+     *
+     * @param consumer books consumer
+     */
+    @Transactional(readOnly = true)
+    public void streamAll(Consumer<Book> consumer) {
+        try (Stream<Book> books = bookRepository.streamAll()) {
+            books.forEach(book -> {
+                consumer.accept(book);
+                entityManager.detach(book);
+            });
+        }
+    }
+
+
+    /**
+     * Getting a page of books.
+     * One extra book is fetched to find out whether there is a next page
+     *
+     * @param sort       sort property
+     * @param descending true for descending sort
+     * @param cursor     cursor of the previous page, null for the first page
+     * @param size       page size
+     * @return books of the page and cursor of the next page
+     */
+    @Transactional(readOnly = true)
+    public BookPageView getPage(BookSort sort, boolean descending, BookPageCursor cursor, int size) {
+        List<Book> books = bookRepository.findPage(sort, descending, cursor, size + 1);
+        if (books.size() <= size) {
+            return new BookPageView(books, null);
+        }
+        books = books.subList(0, size);
+        Book last = books.get(size - 1);
+        return new BookPageView(books, BookPageCursor.after(last, sort, descending).encode());
+    }
+
+
+    /**
+     * Getting a page of books in a price range, sorted by price.
+     * Books of the page are found in the in-memory price and stock index and read by id,
+     * a book which ran out of stock since the index was updated is left out of an in-stock page
+     *
+     * @param filter     price range and stock filter
+     * @param descending true for the most expensive books first
+     * @param cursor     cursor of the previous page sorted by price, null for the first page
+     * @param size       page size
+     * @return books of the page and cursor of the next page
+     */
+    @Transactional(readOnly = true)
+    public BookPageView getFilteredPage(BookFilter filter, boolean descending, BookPageCursor cursor, int size) {
+        if (!bookFilterIndex.isLoaded()) {
+            List<Book> books = bookRepository.findFilteredPage(filter, descending, cursor, size + 1);
+            if (books.size() <= size) return new BookPageView(books, null);
+            books = books.subList(0, size);
+            return new BookPageView(books, BookPageCursor.after(books.get(size - 1), BookSort.PRICE, descending).encode());
+        }
+
+        PriceStockIndex.Rows rows = bookFilterIndex.find(filter, descending, cursor, size + 1);
+        int pageRows = Math.min(size, rows.getIds().length);
+        List<Long> ids = new ArrayList<>(pageRows);
+        for (int i = 0; i < pageRows; i++) {
+            ids.add(rows.getIds()[i]);
+        }
+        Map<Long, Book> booksById = new HashMap<>();
+        for (Book book : bookRepository.findAllById(ids)) {
+            bookFilterIndex.correct(book);
+            booksById.put(book.getId(), book);
+        }
+        List<Book> books = new ArrayList<>(pageRows);
+        for (Long id : ids) {
+            Book book = booksById.get(id);
+            if (book != null && (!filter.isInStock() || book.getQuantity() > 0)) books.add(book);
+        }
+
+        String nextCursor = null;
+        if (rows.getIds().length > size) {
+            // The cursor comes from the index, so it's right even if the last book was left out
+            nextCursor = new BookPageCursor(BookSort.PRICE, descending,
+                    rows.getIds()[size - 1], rows.getPrices()[size - 1]).encode();
+        }
+        return new BookPageView(books, nextCursor);
+    }
+
+
+    /**
+     * Searching books by name in the in-memory index, only books of the page are read from the database.
+     * Pages are counted from 0 and end at {@link #MAX_SEARCH_RESULTS} matches
+     *
+     * @param query text in book names
+     * @param page  page number
+     * @param size  page size
+     * @return books of the page and the number of the next page
+     */
+    @Transactional(readOnly = true)
+    public BookSearchView search(String query, int page, int size) {
+        if (page < 0 || size < 1 || (long) (page + 1) * size > MAX_SEARCH_RESULTS) {
+            throw new IllegalArgumentException("Search pages end at " + MAX_SEARCH_RESULTS + " books");
+        }
+        NgramIndex.Hits hits = bookSearch.search(query, page * size, size);
+        List<Long> ids = new ArrayList<>(hits.getIds().length);
+        for (long id : hits.getIds()) {
+            ids.add(id);
+        }
+        Map<Long, Book> booksById = new HashMap<>();
+        for (Book book : bookRepository.findAllById(ids)) {
+            booksById.put(book.getId(), book);
+        }
+        // Keeping the rank order, a book deleted after the search is left out
+        List<Book> books = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Book book = booksById.get(id);
+            if (book != null) books.add(book);
+        }
+        int shown = (page + 1) * size;
+        boolean hasNextPage = hits.getTotal() > shown && shown < MAX_SEARCH_RESULTS;
+        return new BookSearchView(books, hits.getTotal(), hasNextPage ? page + 1 : null);
+    }
+
+
+    /**
+     * Deleting all books from repo.
+     * In-memory copies are cleared after the transaction commits, a rolled back deletion leaves them as they are
      */
     public void deleteAll() {
         log.info("Clear book repo");
         bookRepository.deleteAll();
+        bookCache.clearAfterCommit();
+        AfterTransaction.onCommit(() -> {
+            stockLedger.clear();
+            bookSearch.clear();
+            bookFilterIndex.clear();
+            bookSalesStats.clear();
+            bestsellers.clear();
+        });
     }
 
 
     /**
-     * Get book by id
+     * Get book by id, books are cached until they change
+     * and unknown ids are rejected without a query
      *
      * @param id bookId
      * @return book from repo
      */
     public Optional<Book> getById(Long id) {
-        return bookRepository.findById(id);
+        if (!idFilters.books().mightExist(id)) return Optional.empty();
+        Optional<Book> book = bookCache.get(id, bookRepository::findById);
+        if (!book.isPresent()) idFilters.books().notFound();
+        return book;
+    }
+
+    /**
+     * Getting sales of a book from the in-memory mirror of book_sales, order items are not read
+     *
+     * @param id bookId
+     * @return sales, zeros for a book which was never ordered, or empty if the book doesn't exist
+     */
+    public Optional<BookSalesView> getSales(Long id) {
+        Optional<BookSalesView> sales = bookSalesStats.get(id);
+        if (sales.isPresent()) return sales;
+        return getById(id).map(book -> BookSalesView.empty(book.getId()));
+    }
+
+    /**
+     * Getting sales of all books from the in-memory mirror of book_sales
+     */
+    public BookSalesTotalsView getSalesTotals() {
+        return bookSalesStats.totals();
+    }
+
+    /**
+     * Getting the books with the most units sold in a recent window from in-memory sketches,
+     * orders are not read. Units are approximate, a book deleted in the window may still be listed
+     *
+     * @param window window ending now, up to a day
+     * @param limit  max number of books
+     * @return books, most units first
+     */
+    public List<BestsellerView> getBestsellers(Duration window, int limit) {
+        return bestsellers.top(window, limit);
     }
 
     /**
@@ -91,11 +317,38 @@ public class BookService {
     public void deleteById(Long id) throws BookNotExistException {
         if (bookRepository.existsById(id)) {
             bookRepository.deleteById(id);
+            stockLedger.evict(id);
+            bookSearch.removeAfterCommit(id);
+            bookFilterIndex.removeAfterCommit(id);
+            bookSalesStats.removeAfterCommit(id);
+            bookCache.invalidateAfterCommit(Collections.singleton(id));
         } else {
             throw new BookNotExistException();
         }
     }
 
+    /**
+     * Switching a book to hot mode, which splits its stock across slot rows,
+     * so concurrent orders of the book don't queue on one row lock.
+     * 0 slots switches the book back to a single stock row
+     *
+     * @param id    bookId
+     * @param slots number of stock slots
+     * @return book with redistributed stock
+     */
+    @Transactional
+    public Book setStockSlots(Long id, int slots) throws BookNotExistException {
+        if (slots < 0 || slots > MAX_STOCK_SLOTS) {
+            throw new IllegalArgumentException("Stock slots must be between 0 and " + MAX_STOCK_SLOTS);
+        }
+        if (!bookRepository.setStockSlots(id, slots)) {
+            throw new BookNotExistException();
+        }
+        bookCache.invalidateAfterCommit(Collections.singleton(id));
+        log.info("Book {} stock slots: {}", id, slots);
+        return bookRepository.findById(id).orElseThrow(BookNotExistException::new);
+    }
+
     public static class BookNotExistException extends Exception {
         public BookNotExistException() {
             super("Book doesn't exist");
@@ -0,0 +1,139 @@
+package com.example.spring.bookstore.service;
+
+import com.example.spring.bookstore.data.repository.BookRepository;
+import com.example.spring.bookstore.data.repository.OrderRepository;
+import com.example.spring.bookstore.util.BloomFilter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Bloom filters of existing book and order ids, unknown ids are rejected without querying the database.
+ * Ids are added as soon as books and orders are saved, so an existing id is never rejected.
+ * Deleted ids stay in the filters and cost a database lookup, like false positives do.
+ * Filters let every id through until they are loaded on startup
+ */
+@Component
+public class IdFilters {
+
+    private final Logger log = LoggerFactory.getLogger(IdFilters.class);
+
+    private final BookRepository bookRepository;
+    private final OrderRepository orderRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Filter books;
+    private final Filter orders;
+
+    public IdFilters(BookRepository bookRepository,
+                     OrderRepository orderRepository,
+                     PlatformTransactionManager transactionManager,
+                     MeterRegistry meterRegistry,
+                     @Value("${bookstore.ids.filter.expected-ids:1000000}") long expectedIds,
+                     @Value("${bookstore.ids.filter.false-positive-rate:0.01}") double falsePositiveRate) {
+        this.bookRepository = bookRepository;
+        this.orderRepository = orderRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.books = new Filter("books", expectedIds, falsePositiveRate, meterRegistry);
+        this.orders = new Filter("orders", expectedIds, falsePositiveRate, meterRegistry);
+    }
+
+    /**
+     * Adding ids of all books and orders to the filters
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        long bookIds = books.load(bookRepository::streamAllIds);
+        long orderIds = orders.load(orderRepository::streamAllIds);
+        log.info("Id filters loaded, books: {}, orders: {}", bookIds, orderIds);
+    }
+
+    public Filter books() {
+        return books;
+    }
+
+    public Filter orders() {
+        return orders;
+    }
+
+    public class Filter {
+        private final BloomFilter bloomFilter;
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong falsePositives = new AtomicLong();
+        private volatile boolean loaded;
+
+        private Filter(String name, long expectedIds, double falsePositiveRate, MeterRegistry meterRegistry) {
+            this.bloomFilter = new BloomFilter(expectedIds, falsePositiveRate);
+
+            Tags tags = Tags.of("ids", name);
+            FunctionCounter.builder("bookstore.ids.filter.rejected", rejected, AtomicLong::get)
+                    .tags(tags).register(meterRegistry);
+            FunctionCounter.builder("bookstore.ids.filter.false-positives", falsePositives, AtomicLong::get)
+                    .tags(tags).register(meterRegistry);
+            meterRegistry.gauge("bookstore.ids.filter.false-positive-rate", tags, this, Filter::falsePositiveRate);
+            meterRegistry.gauge("bookstore.ids.filter.expected-false-positive-rate", tags, bloomFilter,
+                    BloomFilter::expectedFalsePositiveRate);
+        }
+
+        /**
+         * Checking an id before it's looked up in the database
+         *
+         * @param id book or order id
+         * @return false if the id definitely doesn't exist
+         */
+        public boolean mightExist(Long id) {
+            if (!loaded || bloomFilter.mightContain(id)) return true;
+            rejected.incrementAndGet();
+            return false;
+        }
+
+        public void add(Long id) {
+            bloomFilter.add(id);
+        }
+
+        /**
+         * Counting an id which passed the filter, but wasn't found in the database.
+         * Every lookup of an id checked with {@link #mightExist} reports its misses here
+         */
+        public void notFound() {
+            if (loaded) falsePositives.incrementAndGet();
+        }
+
+        /**
+         * Share of unknown ids which passed the filter,
+         * compared with the rate expected for the number of added ids
+         */
+        public double falsePositiveRate() {
+            long falsePositiveCount = falsePositives.get();
+            long unknownCount = falsePositiveCount + rejected.get();
+            return unknownCount == 0 ? 0 : (double) falsePositiveCount / unknownCount;
+        }
+
+        private long load(Supplier<Stream<Long>> idsQuery) {
+            AtomicLong count = new AtomicLong();
+            transactionTemplate.execute(status -> {
+                try (Stream<Long> ids = idsQuery.get()) {
+                    ids.forEach(id -> {
+                        bloomFilter.add(id);
+                        count.incrementAndGet();
+                    });
+                }
+                return null;
+            });
+            loaded = true;
+            return count.get();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.spring.bookstore.service;
+
+import com.example.spring.bookstore.data.repository.IdempotencyKeyRepository;
+import com.example.spring.bookstore.data.view.IdempotentResponse;
+import com.example.spring.bookstore.errors.FieldErrorsView;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Replaying the first response of requests with the same idempotency key.
+ * Responses are cached in memory, bounded by size and age, and stored in the database,
+ * so retried requests are answered without running them again
+ */
+@Service
+public class IdempotencyService {
+
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+    public static final int MAX_KEY_LENGTH = 255;
+
+    private final Logger log = LoggerFactory.getLogger(IdempotencyService.class);
+
+    private final IdempotencyKeyRepository idempotencyKeyRepository;
+    private final ObjectMapper objectMapper;
+    private final Duration ttl;
+
+    // Least recently used responses are evicted first
+    private final Map<String, CachedResponse> cache;
+    private final Set<String> inFlightKeys = ConcurrentHashMap.newKeySet();
+
+    private final Counter replayedCounter;
+    private final Counter conflictCounter;
+
+    public IdempotencyService(IdempotencyKeyRepository idempotencyKeyRepository,
+                              ObjectMapper objectMapper,
+                              MeterRegistry meterRegistry,
+                              @Value("${bookstore.idempotency.cache-size:10000}") int cacheSize,
+                              @Value("${bookstore.idempotency.ttl-minutes:1440}") long ttlMinutes) {
+        this.idempotencyKeyRepository = idempotencyKeyRepository;
+        this.objectMapper = objectMapper;
+        this.ttl = Duration.ofMinutes(ttlMinutes);
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                return size() > cacheSize;
+            }
+        });
+
+        this.replayedCounter = meterRegistry.counter("bookstore.idempotency.replayed");
+        this.conflictCounter = meterRegistry.counter("bookstore.idempotency.conflicts");
+    }
+
+    /**
+     * Deleting expired keys from the database
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void deleteExpired() {
+        int deleted = idempotencyKeyRepository.deleteExpired(Instant.now().minus(ttl));
+        log.info("Expired idempotency keys deleted: {}", deleted);
+    }
+
+    /**
+     * Running the action once per idempotency key.
+     * A repeated request gets the stored response of the first one,
+     * a request with the key of a running request gets 409 Conflict,
+     * a request with a used key but another body gets 422 Unprocessable Entity
+     *
+     * @param key                idempotency key
+     * @param requestFingerprint canonical form of the request body
+     * @param action             action producing the response
+     */
+    public ResponseEntity<Object> execute(String key,
+                                          String requestFingerprint,
+                                          Supplier<ResponseEntity<Object>> action) {
+        String requestHash = sha256(requestFingerprint);
+        Optional<IdempotentResponse> stored = findResponse(key);
+        if (stored.isPresent()) {
+            return replay(key, requestHash, stored.get());
+        }
+
+        if (!inFlightKeys.add(key)) {
+            conflictCounter.increment();
+            log.info("Request with idempotency key {} is in progress", key);
+            FieldErrorsView errorsView = new FieldErrorsView(
+                    IDEMPOTENCY_KEY_HEADER,
+                    "Request with this idempotency key is in progress",
+                    key
+            );
+            return new ResponseEntity<>(errorsView, HttpStatus.CONFLICT);
+        }
+        try {
+            // The first request could finish between the lookup and marking the key
+            CachedResponse cached = cache.get(key);
+            if (cached != null) {
+                return replay(key, requestHash, cached.response);
+            }
+
+            ResponseEntity<Object> response = action.get();
+            store(key, new IdempotentResponse(
+                    requestHash,
+                    response.getStatusCodeValue(),
+                    objectMapper.writeValueAsString(response.getBody())
+            ));
+            return response;
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Response can't be stored for idempotency key " + key, e);
+        } finally {
+            inFlightKeys.remove(key);
+        }
+    }
+
+    private Optional<IdempotentResponse> findResponse(String key) {
+        long now = System.currentTimeMillis();
+        CachedResponse cached = cache.get(key);
+        if (cached != null) {
+            if (cached.expiresAt > now) return Optional.of(cached.response);
+            cache.remove(key);
+        }
+
+        Optional<IdempotentResponse> stored = idempotencyKeyRepository.find(key, Instant.now().minus(ttl));
+        stored.ifPresent(response -> cache.put(key, new CachedResponse(response, now + ttl.toMillis())));
+        return stored;
+    }
+
+    private void store(String key, IdempotentResponse response) {
+        cache.put(key, new CachedResponse(response, System.currentTimeMillis() + ttl.toMillis()));
+        try {
+            idempotencyKeyRepository.save(key, response);
+        } catch (DataAccessException e) {
+            // The action is done already, the key is still replayed from memory
+            log.warn("Idempotency key {} is not stored", key, e);
+        }
+    }
+
+    private ResponseEntity<Object> replay(String key, String requestHash, IdempotentResponse response) {
+        if (!response.getRequestHash().equals(requestHash)) {
+            log.info("Idempotency key {} was used with another request", key);
+            FieldErrorsView errorsView = new FieldErrorsView(
+                    IDEMPOTENCY_KEY_HEADER,
+                    "Idempotency key was already used with another request",
+                    key
+            );
+            return new ResponseEntity<>(errorsView, HttpStatus.UNPROCESSABLE_ENTITY);
+        }
+        replayedCounter.increment();
+        log.info("Replaying response of idempotency key {}", key);
+        return ResponseEntity.status(response.getStatus())
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .header(REPLAYED_HEADER, "true")
+                .body(response.getBody());
+    }
+
+    private static String sha256(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class CachedResponse {
+        private final IdempotentResponse response;
+        private final long expiresAt;
+
+        CachedResponse(IdempotentResponse response, long expiresAt) {
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
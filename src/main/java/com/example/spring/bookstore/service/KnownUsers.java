@@ -0,0 +1,97 @@
+package com.example.spring.bookstore.service;
+
+import com.example.spring.bookstore.data.repository.UserRepository;
+import com.example.spring.bookstore.util.AfterTransaction;
+import com.example.spring.bookstore.util.LoadGuard;
+import com.example.spring.bookstore.util.LongHashSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.stream.Stream;
+
+/**
+ * Ids of all existing users kept in memory, so orders check their user without a query.
+ * Ids are added as soon as users are saved and removed after the deleting transaction commits,
+ * so an existing user is never reported as unknown.
+ * Users are checked in the database until the ids are loaded
+ */
+@Component
+public class KnownUsers {
+
+    private final Logger log = LoggerFactory.getLogger(KnownUsers.class);
+
+    private final UserRepository userRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    // Guarded by this
+    private final LongHashSet userIds = new LongHashSet(1024);
+    private final LoadGuard loadGuard = new LoadGuard();
+
+    public KnownUsers(UserRepository userRepository, PlatformTransactionManager transactionManager) {
+        this.userRepository = userRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * Loading ids of all users
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        transactionTemplate.execute(status -> {
+            try (Stream<Long> ids = userRepository.streamAllIds()) {
+                ids.forEach(this::addLoaded);
+            }
+            return null;
+        });
+        synchronized (this) {
+            loadGuard.loaded();
+            log.info("Known users loaded: {}", userIds.size());
+        }
+    }
+
+    /**
+     * Forgetting all ids and loading them again, users are checked in the database meanwhile
+     */
+    public void reload() {
+        synchronized (this) {
+            loadGuard.reset();
+            userIds.clear();
+        }
+        load();
+    }
+
+    public boolean exists(Long userId) {
+        synchronized (this) {
+            if (loadGuard.isLoaded()) return userIds.contains(userId);
+        }
+        return userRepository.existsById(userId);
+    }
+
+    public synchronized void add(Long userId) {
+        userIds.add(userId);
+    }
+
+    /**
+     * Removing a user id after the current transaction commits
+     *
+     * @param userId deleted user id
+     */
+    public void removeAfterCommit(Long userId) {
+        AfterTransaction.onCommit(() -> remove(userId));
+    }
+
+    private synchronized void remove(Long userId) {
+        userIds.remove(userId);
+        loadGuard.removed(userId);
+    }
+
+    private synchronized void addLoaded(Long userId) {
+        if (loadGuard.canLoad(userId)) userIds.add(userId);
+    }
+}
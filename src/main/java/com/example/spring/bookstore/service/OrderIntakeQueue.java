@@ -0,0 +1,187 @@
+package com.example.spring.bookstore.service;
+
+import com.example.spring.bookstore.data.view.OrderResultView;
+import com.example.spring.bookstore.data.view.OrderTicketView;
+import com.example.spring.bookstore.request.objects.OrderRequest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded in-process queue of accepted order requests.
+ * Workers drain the queue in micro-batches into {@link OrderService#createOrders(List)},
+ * so request threads don't wait for the database
+ */
+@Component
+public class OrderIntakeQueue {
+
+    private final Logger log = LoggerFactory.getLogger(OrderIntakeQueue.class);
+
+    private final OrderService orderService;
+    private final BlockingQueue<Submission> queue;
+    private final int workers;
+    private final int batchSize;
+    private final int maxFinishedTickets;
+
+    private final Map<String, OrderTicketView> tickets = new ConcurrentHashMap<>();
+    // Finished tickets in completion order, the oldest are forgotten first
+    private final Queue<String> finishedTickets = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger finishedTicketsCount = new AtomicInteger();
+
+    private final Timer waitTimer;
+    private final Counter rejectedCounter;
+    private ExecutorService executor;
+
+    public OrderIntakeQueue(OrderService orderService,
+                            MeterRegistry meterRegistry,
+                            @Value("${bookstore.orders.intake.capacity:1000}") int capacity,
+                            @Value("${bookstore.orders.intake.workers:2}") int workers,
+                            @Value("${bookstore.orders.intake.batch-size:50}") int batchSize,
+                            @Value("${bookstore.orders.intake.max-finished-tickets:10000}") int maxFinishedTickets,
+                            @Value("${bookstore.orders.batch-max-size:1000}") int batchMaxSize) {
+        // A larger micro-batch would be refused by createOrders as a whole
+        if (batchSize < 1 || batchSize > batchMaxSize) {
+            throw new IllegalArgumentException(
+                    "Intake batch size must be between 1 and the order batch max size " + batchMaxSize
+            );
+        }
+        if (workers < 1) throw new IllegalArgumentException("Intake workers must be positive");
+        this.orderService = orderService;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.workers = workers;
+        this.batchSize = batchSize;
+        this.maxFinishedTickets = maxFinishedTickets;
+
+        meterRegistry.gauge("bookstore.orders.intake.queue.depth", queue, BlockingQueue::size);
+        this.waitTimer = meterRegistry.timer("bookstore.orders.intake.queue.wait");
+        this.rejectedCounter = meterRegistry.counter("bookstore.orders.intake.rejected");
+    }
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "order-intake-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < workers; i++) {
+            executor.submit(this::drain);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Putting an order request to the queue
+     *
+     * @param orderRequest validated order request
+     * @return queued ticket, or empty if the queue is full
+     */
+    public Optional<OrderTicketView> submit(OrderRequest orderRequest) {
+        String ticketId = UUID.randomUUID().toString();
+        OrderTicketView ticket = OrderTicketView.queued(ticketId);
+        tickets.put(ticketId, ticket);
+        if (!queue.offer(new Submission(ticketId, orderRequest))) {
+            tickets.remove(ticketId);
+            rejectedCounter.increment();
+            log.info("Order intake queue is full");
+            return Optional.empty();
+        }
+        return Optional.of(ticket);
+    }
+
+    /**
+     * Getting the ticket of a queued or recently finished order request
+     *
+     * @param ticketId ticket id
+     */
+    public Optional<OrderTicketView> getTicket(String ticketId) {
+        return Optional.ofNullable(tickets.get(ticketId));
+    }
+
+    private void drain() {
+        List<Submission> batch = new ArrayList<>(batchSize);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            queue.drainTo(batch, batchSize - 1);
+            process(batch);
+            batch.clear();
+        }
+    }
+
+    private void process(List<Submission> batch) {
+        long now = System.nanoTime();
+        List<OrderRequest> orderRequests = new ArrayList<>(batch.size());
+        for (Submission submission : batch) {
+            waitTimer.record(now - submission.enqueuedAt, TimeUnit.NANOSECONDS);
+            orderRequests.add(submission.orderRequest);
+        }
+
+        try {
+            List<OrderResultView> results = orderService.createOrders(orderRequests);
+            for (int i = 0; i < batch.size(); i++) {
+                String ticketId = batch.get(i).ticketId;
+                finish(OrderTicketView.fromResult(ticketId, results.get(i)));
+            }
+        } catch (Exception e) {
+            log.error("Creating a batch of {} queued orders failed", batch.size(), e);
+            for (Submission submission : batch) {
+                finish(OrderTicketView.failed(submission.ticketId));
+            }
+        }
+    }
+
+    private void finish(OrderTicketView ticket) {
+        tickets.put(ticket.getTicketId(), ticket);
+        finishedTickets.add(ticket.getTicketId());
+        if (finishedTicketsCount.incrementAndGet() > maxFinishedTickets) {
+            String oldestTicketId = finishedTickets.poll();
+            if (oldestTicketId != null) {
+                tickets.remove(oldestTicketId);
+                finishedTicketsCount.decrementAndGet();
+            }
+        }
+    }
+
+    private static class Submission {
+        private final String ticketId;
+        private final OrderRequest orderRequest;
+        private final long enqueuedAt;
+
+        Submission(String ticketId, OrderRequest orderRequest) {
+            this.ticketId = ticketId;
+            this.orderRequest = orderRequest;
+            this.enqueuedAt = System.nanoTime();
+        }
+    }
+}
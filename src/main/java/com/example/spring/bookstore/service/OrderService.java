@@ -5,21 +5,51 @@ import com.example.spring.bookstore.data.entity.Order;
 import com.example.spring.bookstore.data.entity.OrderItem;
 import com.example.spring.bookstore.data.entity.User;
 import com.example.spring.bookstore.data.repository.BookRepository;
+import com.example.spring.bookstore.data.repository.OrderBulkRepository.CancelledOrders;
 import com.example.spring.bookstore.data.repository.OrderRepository;
 import com.example.spring.bookstore.data.repository.UserRepository;
+import com.example.spring.bookstore.data.view.BookSalesView;
+import com.example.spring.bookstore.data.view.OrderCancelView;
+import com.example.spring.bookstore.data.view.OrderPageView;
+import com.example.spring.bookstore.data.view.OrderPayView;
+import com.example.spring.bookstore.data.view.OrderResultView;
+import com.example.spring.bookstore.data.view.OrderView;
+import com.example.spring.bookstore.data.view.UserOrderSummaryView;
 import com.example.spring.bookstore.errors.FieldErrorsView;
 import com.example.spring.bookstore.request.objects.BookItem;
+import com.example.spring.bookstore.request.objects.OrderFilter;
 import com.example.spring.bookstore.request.objects.OrderRequest;
+import com.example.spring.bookstore.request.objects.OrderSearch;
+import com.example.spring.bookstore.request.objects.OrderSearchCursor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
 
 @Service
 public class OrderService {
@@ -29,53 +59,275 @@ public class OrderService {
     private final OrderRepository orderRepository;
     private final BookRepository bookRepository;
     private final UserRepository userRepository;
+    private final StockLedger stockLedger;
+    private final BookCache bookCache;
+    private final ResourceVersions resourceVersions;
+    private final IdFilters idFilters;
+    private final KnownUsers knownUsers;
+    private final BookFilterIndex bookFilterIndex;
+    private final BookSalesStats bookSalesStats;
+    private final UserOrderSummaries userOrderSummaries;
+    private final Bestsellers bestsellers;
+    private final PendingOrderExpiry pendingOrderExpiry;
+    private final RetryOnConflictAspect retryOnConflict;
+    private final Validator validator;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchMaxSize;
+    private final int cancelChunkSize;
+    private final int payMaxSize;
+
+    @PersistenceContext
+    private EntityManager entityManager;
 
     public OrderService(OrderRepository orderRepository,
                         BookRepository bookRepository,
-                        UserRepository userRepository) {
+                        UserRepository userRepository,
+                        StockLedger stockLedger,
+                        BookCache bookCache,
+                        ResourceVersions resourceVersions,
+                        IdFilters idFilters,
+                        KnownUsers knownUsers,
+                        BookFilterIndex bookFilterIndex,
+                        BookSalesStats bookSalesStats,
+                        UserOrderSummaries userOrderSummaries,
+                        Bestsellers bestsellers,
+                        PendingOrderExpiry pendingOrderExpiry,
+                        RetryOnConflictAspect retryOnConflict,
+                        Validator validator,
+                        PlatformTransactionManager transactionManager,
+                        @Value("${bookstore.orders.batch-max-size:1000}") int batchMaxSize,
+                        @Value("${bookstore.orders.cancel-chunk-size:500}") int cancelChunkSize,
+                        @Value("${bookstore.orders.pay-max-size:10000}") int payMaxSize) {
         this.orderRepository = orderRepository;
         this.bookRepository = bookRepository;
         this.userRepository = userRepository;
+        this.stockLedger = stockLedger;
+        this.bookCache = bookCache;
+        this.resourceVersions = resourceVersions;
+        this.idFilters = idFilters;
+        this.knownUsers = knownUsers;
+        this.bookFilterIndex = bookFilterIndex;
+        this.bookSalesStats = bookSalesStats;
+        this.userOrderSummaries = userOrderSummaries;
+        this.bestsellers = bestsellers;
+        this.pendingOrderExpiry = pendingOrderExpiry;
+        this.retryOnConflict = retryOnConflict;
+        this.validator = validator;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchMaxSize = batchMaxSize;
+        this.cancelChunkSize = cancelChunkSize;
+        this.payMaxSize = payMaxSize;
     }
 
     /**
-     * Creating a new order from order request
+     * Creating a new order from order request.
+     * Stock is taken with conditional updates, so the order is retried only on a deadlock
+     * or when the slots of a hot book are collapsed while the order takes from them
      *
      * @param orderRequest request to creating the new order
      * @return Order
      * @throws OrderServiceFieldException
      */
+    @RetryOnConflict
     @Transactional(
             propagation = Propagation.REQUIRED,
             rollbackFor = OrderServiceFieldException.class
     )
     public Order createOrder(OrderRequest orderRequest) throws OrderServiceFieldException {
 
+        // Unknown users and books are rejected without queries, the user row isn't read
         Long userId = orderRequest.getUserId();
-        User user;
-        if (!userRepository.findById(userId).isPresent()) {
+        if (!knownUsers.exists(userId)) {
+            throw userDoesntExistException(userId);
+        }
+        User user = entityManager.getReference(User.class, userId);
+
+        log.info("Creating a new order");
+        Map<Long, Integer> quantities = orderQuantities(orderRequest);
+        for (Long bookId : quantities.keySet()) {
+            if (!idFilters.books().mightExist(bookId)) throw bookDoesntExistException(bookId);
+        }
+
+        // Reserving books in the ledger first, so short orders don't lock book rows
+        List<Long> shortBookIds = reserveStock(quantities);
+        if (!shortBookIds.isEmpty()) {
+            throw notEnoughBooksException(shortBookIds, quantities);
+        }
+
+        // Loading and locking all ordered books with one query
+        Map<Long, Book> books = findBooksForUpdate(quantities.keySet());
+        for (Long bookId : quantities.keySet()) {
+            // Every ordered book passed the filter
+            if (!books.containsKey(bookId)) idFilters.books().notFound();
+        }
+        checkBooksExist(quantities, books);
+
+        // Decrementing stock of all books with conditional updates
+        shortBookIds = decrementStock(quantities, books);
+        if (!shortBookIds.isEmpty()) {
+            // The ledger had more books than the database
+            for (Long bookId : shortBookIds) stockLedger.evict(bookId);
+            throw notEnoughBooksException(shortBookIds, quantities);
+        }
+        stockTakenAfterCommit(quantities);
+
+        Order order = orderRepository.save(newOrder(user, quantities, books));
+        Map<Long, Integer> orderCounts = new HashMap<>();
+        for (Long bookId : quantities.keySet()) orderCounts.put(bookId, 1);
+        addSales(quantities, orderCounts, books);
+        bestsellers.recordAfterCommit(quantities);
+        addOrderSummaries(Collections.singletonList(new UserOrderSummaryView(userId, 1, 1, 0)));
+        idFilters.orders().add(order.getOrderId());
+        pendingOrderExpiry.schedule(order.getOrderId(), order.getCreatedAt());
+        resourceVersions.orders().changedAfterCommit(Collections.singleton(order.getOrderId()));
+        return order;
+    }
+
+    /**
+     * Creating new orders from a batch of order requests in one transaction.
+     * Every request is accepted or rejected on its own,
+     * so a rejected order doesn't fail the others
+     *
+     * @param orderRequests requests to creating new orders
+     * @return result of every request in the same order
+     * @throws OrderServiceFieldException if the batch is too large
+     */
+    @RetryOnConflict
+    @Transactional(
+            propagation = Propagation.REQUIRED,
+            rollbackFor = OrderServiceFieldException.class
+    )
+    public List<OrderResultView> createOrders(List<OrderRequest> orderRequests) throws OrderServiceFieldException {
+        if (orderRequests.size() > batchMaxSize) {
             FieldErrorsView errorsView = new FieldErrorsView(
-                    "userId",
-                    "User doesn't exist",
-                    userId
+                    "orders",
+                    "Batch can't contain more than " + batchMaxSize + " orders",
+                    orderRequests.size()
             );
-            log.info("Exception: User doesn't exist");
             throw new OrderServiceFieldException(errorsView);
-        } else {
-            user = userRepository.findById(userId).get();
         }
+        log.info("Creating a batch of {} orders", orderRequests.size());
 
-        log.info("Creating a new order");
-        Order order = new Order();
-        Set<OrderItem> orderItems = new HashSet<>();
-        float sum = 0;
-        // Crating set of ids (to prevent duplicates)
+        OrderResultView[] results = new OrderResultView[orderRequests.size()];
+        // Validated quantities of every request which passed validation
+        Map<Integer, Map<Long, Integer>> requestQuantities = new LinkedHashMap<>();
+        Set<Long> userIds = new HashSet<>();
         Set<Long> bookIds = new HashSet<>();
 
-        for (BookItem bookItem : orderRequest.getBooks()) {
+        for (int i = 0; i < orderRequests.size(); i++) {
+            OrderRequest orderRequest = orderRequests.get(i);
+            Set<ConstraintViolation<OrderRequest>> violations = validator.validate(orderRequest);
+            if (!violations.isEmpty()) {
+                FieldErrorsView errorsView = new FieldErrorsView();
+                errorsView.addViolations(violations);
+                results[i] = OrderResultView.rejected(i, errorsView);
+                continue;
+            }
+            try {
+                Map<Long, Integer> quantities = orderQuantities(orderRequest);
+                requestQuantities.put(i, quantities);
+                userIds.add(orderRequest.getUserId());
+                bookIds.addAll(quantities.keySet());
+            } catch (OrderServiceFieldException e) {
+                results[i] = OrderResultView.rejected(i, e.getErrorsView());
+            }
+        }
+
+        // Loading all users and locking all books of the batch with one query each
+        Map<Long, User> users = new HashMap<>();
+        for (User user : userRepository.findAllById(userIds)) {
+            users.put(user.getId(), user);
+        }
+        Map<Long, Book> books = findBooksForUpdate(bookIds);
+        // Books left in stock for the rest of the batch
+        Map<Long, Integer> available = new HashMap<>();
+        for (Book book : books.values()) {
+            available.put(book.getId(), book.getQuantity());
+        }
+
+        // Quantities of orders accepted against the loaded stock
+        Map<Integer, Map<Long, Integer>> acceptedQuantities = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Map<Long, Integer>> entry : requestQuantities.entrySet()) {
+            int index = entry.getKey();
+            Map<Long, Integer> quantities = entry.getValue();
+            Long userId = orderRequests.get(index).getUserId();
+            try {
+                if (!users.containsKey(userId)) {
+                    throw userDoesntExistException(userId);
+                }
+                checkBooksExist(quantities, books);
 
-            // If bookId is in set already
-            if (bookIds.contains(bookItem.getBookId())) {
+                List<Long> shortBookIds = new ArrayList<>();
+                for (Map.Entry<Long, Integer> quantity : quantities.entrySet()) {
+                    if (available.get(quantity.getKey()) < quantity.getValue()) {
+                        shortBookIds.add(quantity.getKey());
+                    }
+                }
+                if (shortBookIds.isEmpty()) {
+                    shortBookIds = reserveStock(quantities);
+                }
+                if (!shortBookIds.isEmpty()) {
+                    throw notEnoughBooksException(shortBookIds, quantities);
+                }
+
+                for (Map.Entry<Long, Integer> quantity : quantities.entrySet()) {
+                    available.merge(quantity.getKey(), -quantity.getValue(), Integer::sum);
+                }
+                acceptedQuantities.put(index, quantities);
+            } catch (OrderServiceFieldException e) {
+                results[index] = OrderResultView.rejected(index, e.getErrorsView());
+            }
+        }
+
+        Map<Long, Integer> totalQuantities = takeBatchStock(acceptedQuantities, books, results);
+        Map<Integer, Order> orders = new LinkedHashMap<>();
+        Map<Long, Integer> orderCounts = new HashMap<>();
+        for (Map.Entry<Integer, Map<Long, Integer>> entry : acceptedQuantities.entrySet()) {
+            Long userId = orderRequests.get(entry.getKey()).getUserId();
+            orders.put(entry.getKey(), newOrder(users.get(userId), entry.getValue(), books));
+            for (Long bookId : entry.getValue().keySet()) orderCounts.merge(bookId, 1, Integer::sum);
+        }
+        if (!totalQuantities.isEmpty()) {
+            addSales(totalQuantities, orderCounts, books);
+            bestsellers.recordAfterCommit(totalQuantities);
+        }
+
+        // Order and item inserts are sent as JDBC batches
+        orderRepository.saveAll(orders.values());
+        Map<Long, Integer> userOrderCounts = new HashMap<>();
+        for (Order order : orders.values()) {
+            userOrderCounts.merge(order.getUser().getId(), 1, Integer::sum);
+        }
+        List<UserOrderSummaryView> summaryDeltas = new ArrayList<>(userOrderCounts.size());
+        for (Map.Entry<Long, Integer> entry : userOrderCounts.entrySet()) {
+            summaryDeltas.add(new UserOrderSummaryView(entry.getKey(), entry.getValue(), entry.getValue(), 0));
+        }
+        addOrderSummaries(summaryDeltas);
+        List<Long> orderIds = new ArrayList<>(orders.size());
+        for (Map.Entry<Integer, Order> entry : orders.entrySet()) {
+            pendingOrderExpiry.schedule(entry.getValue().getOrderId(), entry.getValue().getCreatedAt());
+            orderIds.add(entry.getValue().getOrderId());
+            idFilters.orders().add(entry.getValue().getOrderId());
+            results[entry.getKey()] = OrderResultView.created(entry.getKey(), OrderView.fromOrder(entry.getValue()));
+        }
+        resourceVersions.orders().changedAfterCommit(orderIds);
+        log.info("Batch orders created: {}, rejected: {}", orders.size(), results.length - orders.size());
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Getting needed quantities of the order request by book id
+     *
+     * @param orderRequest order request
+     * @throws OrderServiceFieldException if a book id is not unique
+     */
+    private Map<Long, Integer> orderQuantities(OrderRequest orderRequest) throws OrderServiceFieldException {
+        // Map keys prevent duplicates
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
+
+        for (BookItem bookItem : orderRequest.getBooks()) {
+            // If bookId is in map already
+            if (quantities.containsKey(bookItem.getBookId())) {
                 // It is duplicate
                 FieldErrorsView errorsView = new FieldErrorsView(
                         "books[]:bookId",
@@ -84,54 +336,263 @@ public class OrderService {
                 );
                 log.info("Exception: Book id is not unique");
                 throw new OrderServiceFieldException(errorsView);
-            } else {
-                bookIds.add(bookItem.getBookId());
             }
+            quantities.put(bookItem.getBookId(), bookItem.getQuantity());
+        }
+        return quantities;
+    }
 
-            // Checking if book exists
-            if (!bookRepository.findById(bookItem.getBookId()).isPresent()) {
-                FieldErrorsView errorsView = new FieldErrorsView(
-                        "books[].bookId",
-                        "Book doesn't exist",
-                        bookItem.getBookId()
-                );
-                log.info("Exception: Book doesn't exist");
-                throw new OrderServiceFieldException(errorsView);
+    /**
+     * Reserving books in the stock ledger.
+     * A counter can fall behind the database, so books the ledger is short of
+     * are reloaded from the database once before the order is rejected
+     *
+     * @param quantities needed quantity by book id
+     * @return ids of books which don't have enough items, nothing is reserved if not empty
+     */
+    private List<Long> reserveStock(Map<Long, Integer> quantities) {
+        List<Long> shortBookIds = stockLedger.reserve(quantities);
+        if (shortBookIds.isEmpty()) return shortBookIds;
+        stockLedger.reload(shortBookIds);
+        return stockLedger.reserve(quantities);
+    }
+
+    private Map<Long, Book> findBooksForUpdate(Collection<Long> bookIds) {
+        Map<Long, Book> books = new HashMap<>();
+        if (bookIds.isEmpty()) return books;
+        for (Book book : bookRepository.findRegularByIdForUpdate(bookIds)) {
+            books.put(book.getId(), book);
+            stockLedger.seed(book.getId(), book.getQuantity());
+        }
+        // Rows of hot books are not locked, their slot rows are locked on decrement
+        if (books.size() < bookIds.size()) {
+            for (Book book : bookRepository.findHotById(bookIds)) {
+                books.put(book.getId(), book);
+                stockLedger.seed(book.getId(), book.getQuantity());
             }
+        }
+        return books;
+    }
 
-            Book book = bookRepository.findById(bookItem.getBookId()).get();
-            int booksInStock = book.getQuantity();
-            int booksNeeded = bookItem.getQuantity();
-            if (booksInStock >= booksNeeded) {
-                book.setQuantity(booksInStock - booksNeeded);
-                bookRepository.save(book);
-                log.info(
-                        "Book {} new quantity: {} - {} = {}",
-                        bookItem.getBookId(),
-                        booksInStock,
-                        booksNeeded,
-                        booksInStock - booksNeeded
-                );
+    /**
+     * Taking books of the accepted orders of a batch from the stock.
+     * Stock of the whole batch is decremented at once. Rows of hot books are not locked,
+     * so their slots can have fewer books than were loaded. Then only orders with short books
+     * are decremented again one by one, in request order, and rejected if their books are still short.
+     * Slots of hot books of these orders are locked in ascending book id order first,
+     * so taking them order by order can't deadlock with other checkouts
+     *
+     * @param acceptedQuantities quantities of accepted orders by request index, rejected orders are removed
+     * @param books              loaded books by id
+     * @param results            results of the batch, rejected orders get theirs
+     * @return taken quantity by book id
+     */
+    private Map<Long, Integer> takeBatchStock(Map<Integer, Map<Long, Integer>> acceptedQuantities,
+                                              Map<Long, Book> books,
+                                              OrderResultView[] results) {
+        Map<Long, Integer> totalQuantities = new TreeMap<>();
+        for (Map<Long, Integer> quantities : acceptedQuantities.values()) {
+            for (Map.Entry<Long, Integer> quantity : quantities.entrySet()) {
+                totalQuantities.merge(quantity.getKey(), quantity.getValue(), Integer::sum);
+            }
+        }
+        if (totalQuantities.isEmpty()) return totalQuantities;
+        List<Long> shortBookIds = decrementStock(totalQuantities, books);
+        if (shortBookIds.isEmpty()) {
+            stockTakenAfterCommit(totalQuantities);
+            return totalQuantities;
+        }
+
+        // Nothing was taken of short books, other books of orders with short books are put back
+        log.info("Stock of books {} changed concurrently, their orders are taken one by one", shortBookIds);
+        for (Long bookId : shortBookIds) stockLedger.evict(bookId);
+        Set<Long> shortBooks = new HashSet<>(shortBookIds);
+        Set<Long> changedBookIds = new HashSet<>(totalQuantities.keySet());
+        Map<Integer, Map<Long, Integer>> retriedQuantities = new LinkedHashMap<>();
+        Map<Long, Integer> putBack = new TreeMap<>();
+        for (Map.Entry<Integer, Map<Long, Integer>> entry : acceptedQuantities.entrySet()) {
+            if (Collections.disjoint(entry.getValue().keySet(), shortBooks)) continue;
+            retriedQuantities.put(entry.getKey(), entry.getValue());
+            for (Map.Entry<Long, Integer> quantity : entry.getValue().entrySet()) {
+                totalQuantities.merge(quantity.getKey(), -quantity.getValue(), Integer::sum);
+                if (!shortBooks.contains(quantity.getKey())) {
+                    putBack.merge(quantity.getKey(), quantity.getValue(), Integer::sum);
+                }
+            }
+        }
+        Set<Long> hotBookIds = new TreeSet<>();
+        for (Map<Long, Integer> quantities : retriedQuantities.values()) {
+            for (Long bookId : quantities.keySet()) {
+                if (books.get(bookId).getStockSlots() > 0) hotBookIds.add(bookId);
+            }
+        }
+        bookRepository.lockSlots(hotBookIds);
+        if (!putBack.isEmpty()) bookRepository.restoreQuantities(putBack);
+
+        for (Map.Entry<Integer, Map<Long, Integer>> entry : retriedQuantities.entrySet()) {
+            int index = entry.getKey();
+            Map<Long, Integer> quantities = entry.getValue();
+            List<Long> orderShortBookIds = decrementStock(quantities, books);
+            if (orderShortBookIds.isEmpty()) {
+                for (Map.Entry<Long, Integer> quantity : quantities.entrySet()) {
+                    totalQuantities.merge(quantity.getKey(), quantity.getValue(), Integer::sum);
+                }
+                continue;
+            }
+            Map<Long, Integer> taken = new TreeMap<>(quantities);
+            taken.keySet().removeAll(orderShortBookIds);
+            if (!taken.isEmpty()) bookRepository.restoreQuantities(taken);
+            // The ledger reservation of the rejected order is given back
+            stockLedger.restock(quantities);
+            for (Long bookId : orderShortBookIds) stockLedger.evict(bookId);
+            acceptedQuantities.remove(index);
+            results[index] = OrderResultView.rejected(
+                    index, notEnoughBooksException(orderShortBookIds, quantities).getErrorsView()
+            );
+        }
+        totalQuantities.values().removeIf(quantity -> quantity == 0);
+        // Books which were put back changed too
+        bookFilterIndex.takenAfterCommit(totalQuantities);
+        bookCache.invalidateAfterCommit(changedBookIds);
+        return totalQuantities;
+    }
+
+    /**
+     * Updating the price and stock index and the book cache after books are taken from the stock.
+     * Short books roll the transaction back or are not taken, so the index never gets their deltas.
+     * The index is updated before book stamps change, so a new ETag never comes with old stock
+     *
+     * @param quantities taken quantity by book id
+     */
+    private void stockTakenAfterCommit(Map<Long, Integer> quantities) {
+        bookFilterIndex.takenAfterCommit(quantities);
+        bookCache.invalidateAfterCommit(quantities.keySet());
+    }
+
+    /**
+     * Decrementing stock of loaded books.
+     * Book rows are updated with one batched conditional update first,
+     * then slot rows of hot books in ascending book id order.
+     * Nothing is taken of short books, other books are taken
+     *
+     * @param quantities needed quantity by book id
+     * @param books      loaded books by id
+     * @return ids of books which don't have enough items in stock
+     */
+    private List<Long> decrementStock(Map<Long, Integer> quantities, Map<Long, Book> books) {
+        Map<Long, Integer> regularQuantities = new TreeMap<>();
+        Map<Long, Integer> hotQuantities = new TreeMap<>();
+        for (Map.Entry<Long, Integer> entry : quantities.entrySet()) {
+            if (books.get(entry.getKey()).getStockSlots() > 0) {
+                hotQuantities.put(entry.getKey(), entry.getValue());
             } else {
-                // If we doesn't have enough books
-                FieldErrorsView errorsView = new FieldErrorsView(
-                        "quantity",
-                        "We doesn't have enough books with id:" + bookItem.getBookId(),
-                        booksNeeded
-                );
-                log.info("Exception: We doesn't have enough books");
-                throw new OrderServiceFieldException(errorsView);
+                regularQuantities.put(entry.getKey(), entry.getValue());
             }
-            sum += book.getPrice() * bookItem.getQuantity();
-            orderItems.add(new OrderItem(book, order, bookItem.getQuantity()));
+        }
+
+        List<Long> shortBookIds = new ArrayList<>();
+        if (!regularQuantities.isEmpty()) {
+            shortBookIds.addAll(bookRepository.decrementQuantities(regularQuantities));
+        }
+        for (Map.Entry<Long, Integer> entry : hotQuantities.entrySet()) {
+            Long bookId = entry.getKey();
+            if (!bookRepository.decrementSlotQuantity(bookId, books.get(bookId).getStockSlots(), entry.getValue())) {
+                shortBookIds.add(bookId);
+            }
+        }
+        return shortBookIds;
+    }
+
+    /**
+     * Adding sales of ordered books to their book_sales rows in the ordering transaction
+     *
+     * @param quantities  ordered quantity by book id, negative for taken back items
+     * @param orderCounts number of orders by book id, negative for taken back orders
+     * @param books       ordered books by id
+     */
+    private void addSales(Map<Long, Integer> quantities, Map<Long, Integer> orderCounts, Map<Long, Book> books) {
+        List<BookSalesView> deltas = new ArrayList<>(quantities.size());
+        Map<Long, Integer> stockSlots = new HashMap<>();
+        for (Map.Entry<Long, Integer> entry : quantities.entrySet()) {
+            Book book = books.get(entry.getKey());
+            deltas.add(new BookSalesView(
+                    book.getId(),
+                    entry.getValue(),
+                    entry.getValue() * book.getPrice(),
+                    orderCounts.get(entry.getKey())
+            ));
+            stockSlots.put(book.getId(), book.getStockSlots());
+        }
+        bookSalesStats.putAfterCommit(bookRepository.addSales(deltas, stockSlots));
+    }
+
+    /**
+     * Adding order summary deltas to user_order_summary rows in the changing transaction
+     *
+     * @param deltas summary deltas by user
+     */
+    private void addOrderSummaries(Collection<UserOrderSummaryView> deltas) {
+        if (deltas.isEmpty()) return;
+        userOrderSummaries.putAfterCommit(userRepository.addOrderSummaries(deltas));
+    }
+
+    private void checkBooksExist(Map<Long, Integer> quantities, Map<Long, Book> books)
+            throws OrderServiceFieldException {
+        for (Long bookId : quantities.keySet()) {
+            if (!books.containsKey(bookId)) throw bookDoesntExistException(bookId);
+        }
+    }
+
+    private OrderServiceFieldException bookDoesntExistException(Long bookId) {
+        FieldErrorsView errorsView = new FieldErrorsView(
+                "books[].bookId",
+                "Book doesn't exist",
+                bookId
+        );
+        log.info("Exception: Book doesn't exist");
+        return new OrderServiceFieldException(errorsView);
+    }
+
+    private Order newOrder(User user, Map<Long, Integer> quantities, Map<Long, Book> books) {
+        Order order = new Order();
+        Set<OrderItem> orderItems = new HashSet<>();
+        float sum = 0;
+        for (Map.Entry<Long, Integer> entry : quantities.entrySet()) {
+            Book book = books.get(entry.getKey());
+            sum += book.getPrice() * entry.getValue();
+            orderItems.add(new OrderItem(book, order, entry.getValue()));
         }
         // Forming our new order
         order.setTotalPayment(sum);
         order.setStatus(Order.Status.PENDING);
         order.setOrderItems(orderItems);
         order.setUser(user);
+        return order;
+    }
+
+    private OrderServiceFieldException userDoesntExistException(Long userId) {
+        FieldErrorsView errorsView = new FieldErrorsView(
+                "userId",
+                "User doesn't exist",
+                userId
+        );
+        log.info("Exception: User doesn't exist");
+        return new OrderServiceFieldException(errorsView);
+    }
 
-        return orderRepository.save(order);
+    private OrderServiceFieldException notEnoughBooksException(List<Long> shortBookIds,
+                                                               Map<Long, Integer> quantities) {
+        // If we doesn't have enough books
+        FieldErrorsView errorsView = new FieldErrorsView();
+        for (Long bookId : shortBookIds) {
+            errorsView.addError(
+                    "quantity",
+                    "We doesn't have enough books with id:" + bookId,
+                    quantities.get(bookId)
+            );
+        }
+        log.info("Exception: We doesn't have enough books: {}", shortBookIds);
+        return new OrderServiceFieldException(errorsView);
     }
 
     /**
@@ -141,15 +602,14 @@ public class OrderService {
      * @return Changed order
      * @throws OrderServiceFieldException
      */
+    @Transactional(
+            propagation = Propagation.REQUIRED,
+            rollbackFor = OrderServiceFieldException.class
+    )
     public Order orderSetPaidById(Long id) throws OrderServiceFieldException {
-
-        Optional<Order> order = orderRepository.findById(id);
-
-        if (order.isPresent()) {
-            if (order.get().getStatus() == Order.Status.PENDING) {
-                order.get().setStatus(Order.Status.PAID);
-                return orderRepository.save(order.get());
-            } else {
+        // Only a PENDING order is updated, the order is loaded only if it was
+        if (!orderRepository.markPaid(id)) {
+            if (orderRepository.existsById(id)) {
                 FieldErrorsView fieldErrorsView = new FieldErrorsView(
                         "id",
                         "Order status was already PAID",
@@ -157,23 +617,126 @@ public class OrderService {
                 );
                 throw new OrderServiceFieldException(fieldErrorsView);
             }
-        } else {
-            FieldErrorsView fieldErrorsView = new FieldErrorsView(
-                    "id",
-                    "Order with this id doesn't exist",
-                    id
+            throw orderDoesntExistException(id);
+        }
+        resourceVersions.orders().changedAfterCommit(Collections.singleton(id));
+        Order order = orderRepository.findByIdWithItems(id).orElseThrow(() -> orderDoesntExistException(id));
+        addOrderSummaries(Collections.singletonList(
+                new UserOrderSummaryView(order.getUser().getId(), 0, -1, order.getTotalPayment())
+        ));
+        return order;
+    }
+
+    /**
+     * Setting status of PENDING orders to PAID with set-based conditional updates.
+     * Orders are locked in id order, the whole call is retried on a deadlock with other writers
+     *
+     * @param orderIds order ids
+     * @return ids of paid, already paid and not existing orders
+     * @throws OrderServiceFieldException if there are too many ids
+     */
+    @RetryOnConflict
+    @Transactional(
+            propagation = Propagation.REQUIRED,
+            rollbackFor = OrderServiceFieldException.class
+    )
+    public OrderPayView payOrders(List<Long> orderIds) throws OrderServiceFieldException {
+        if (orderIds.size() > payMaxSize) {
+            FieldErrorsView errorsView = new FieldErrorsView(
+                    "orderIds",
+                    "Can't pay more than " + payMaxSize + " orders at once",
+                    orderIds.size()
             );
-            throw new OrderServiceFieldException(fieldErrorsView);
+            throw new OrderServiceFieldException(errorsView);
+        }
+        Set<Long> notPaidIds = new LinkedHashSet<>(orderIds);
+        notPaidIds.remove(null);
+
+        List<Long> paidIds = orderRepository.markAllPaid(notPaidIds);
+        resourceVersions.orders().changedAfterCommit(paidIds);
+        if (!paidIds.isEmpty()) {
+            List<UserOrderSummaryView> summaryDeltas = new ArrayList<>();
+            for (UserOrderSummaryView paid : orderRepository.summarizeByUser(paidIds)) {
+                summaryDeltas.add(new UserOrderSummaryView(
+                        paid.getUserId(), 0, -paid.getOrdersCount(), paid.getPaidTotal()
+                ));
+            }
+            addOrderSummaries(summaryDeltas);
         }
+        notPaidIds.removeAll(paidIds);
+        List<Long> alreadyPaidIds = notPaidIds.isEmpty()
+                ? new ArrayList<>()
+                : orderRepository.findExistingIds(notPaidIds);
+        notPaidIds.removeAll(alreadyPaidIds);
+
+        log.info("Orders paid: {}, already paid: {}, not found: {}",
+                paidIds.size(), alreadyPaidIds.size(), notPaidIds.size());
+        return new OrderPayView(paidIds, alreadyPaidIds, new ArrayList<>(notPaidIds));
+    }
+
+    private OrderServiceFieldException orderDoesntExistException(Long id) {
+        FieldErrorsView fieldErrorsView = new FieldErrorsView(
+                "id",
+                "Order with this id doesn't exist",
+                id
+        );
+        return new OrderServiceFieldException(fieldErrorsView);
     }
 
     /**
-     * Getting all orders
+     * Getting all orders, views are read directly from order and item columns
      *
      * @return All orders
      */
-    public Iterable<Order> getAllOrders() {
-        return orderRepository.findAll();
+    @Transactional(readOnly = true)
+    public Iterable<OrderView> getAllOrders() {
+        return OrderView.fromRows(orderRepository.findAllItemRows());
+    }
+
+    /**
+     * Reading all orders one by one, in ascending id order.
+     * Orders are read as views, so no entities are kept in the persistence context
+     *
+     * @param consumer order views consumer
+     */
+    @Transactional(readOnly = true)
+    public void streamAllOrders(Consumer<OrderView> consumer) {
+        orderRepository.forEachOrderView(consumer);
+    }
+
+    /**
+     * Getting a page of orders matching the search, from the newest order.
+     * The page is found by order ids first, so items are fetched only for orders of the page
+     *
+     * @param search order search
+     * @param cursor cursor of the previous page, null for the first page
+     * @param size   page size
+     * @return orders of the page and cursor of the next page
+     */
+    @Transactional(readOnly = true)
+    public OrderPageView searchOrders(OrderSearch search, OrderSearchCursor cursor, int size) {
+        // One extra order tells whether there is a next page
+        Map<Long, Instant> createdAt = orderRepository.findCreatedAtBySearch(search, cursor, size + 1);
+        List<Long> orderIds = new ArrayList<>(createdAt.keySet());
+        String nextCursor = null;
+        if (orderIds.size() > size) {
+            orderIds = orderIds.subList(0, size);
+            Long lastId = orderIds.get(size - 1);
+            nextCursor = new OrderSearchCursor(createdAt.get(lastId), lastId).encode();
+        }
+        if (orderIds.isEmpty()) return new OrderPageView(new ArrayList<>(), null);
+
+        Map<Long, OrderView> orders = new HashMap<>();
+        for (OrderView orderView : OrderView.fromRows(orderRepository.findItemRowsByIds(orderIds))) {
+            orders.put(orderView.getOrderId(), orderView);
+        }
+        List<OrderView> orderViews = new ArrayList<>(orderIds.size());
+        for (Long orderId : orderIds) {
+            // Orders deleted between the two queries are skipped
+            OrderView orderView = orders.get(orderId);
+            if (orderView != null) orderViews.add(orderView);
+        }
+        return new OrderPageView(orderViews, nextCursor);
     }
 
     /**
@@ -181,8 +744,15 @@ public class OrderService {
      *
      * @param id order id
      */
-    public Optional<Order> getById(Long id) {
-        return orderRepository.findById(id);
+    @Transactional(readOnly = true)
+    public Optional<OrderView> getById(Long id) {
+        if (!idFilters.orders().mightExist(id)) return Optional.empty();
+        List<OrderView> orderViews = OrderView.fromRows(orderRepository.findItemRowsById(id));
+        if (orderViews.isEmpty()) {
+            idFilters.orders().notFound();
+            return Optional.empty();
+        }
+        return Optional.of(orderViews.get(0));
     }
 
     /**
@@ -191,9 +761,10 @@ public class OrderService {
      * @param userId user id
      * @throws OrderServiceFieldException
      */
-    public Iterable<Order> getOrdersByUserId(Long userId) throws OrderServiceFieldException {
-        if (userRepository.findById(userId).isPresent()) {
-            return orderRepository.getOrdersByUserId(userId);
+    @Transactional(readOnly = true)
+    public Iterable<OrderView> getOrdersByUserId(Long userId) throws OrderServiceFieldException {
+        if (knownUsers.exists(userId)) {
+            return OrderView.fromRows(orderRepository.findItemRowsByUserId(userId));
         } else {
             FieldErrorsView errorsView = new FieldErrorsView(
                     "userId",
@@ -210,51 +781,115 @@ public class OrderService {
      * @param id order id
      * @throws OrderNotExistException
      */
+    @RetryOnConflict
     @Transactional(
             propagation = Propagation.REQUIRED,
             rollbackFor = Exception.class
     )
     public void deleteById(Long id) throws Exception {
-        if (orderRepository.existsById(id)) {
-            Order order = orderRepository.findById(id).get();
-            Set<OrderItem> orderItems = order.getOrderItems();
-            for (OrderItem orderItem : orderItems) {
+        Optional<Order> order = orderRepository.findByIdWithItems(id);
+        if (order.isPresent()) {
+            Map<Long, Integer> returnedQuantities = new HashMap<>();
+            Map<Long, Integer> soldQuantities = new HashMap<>();
+            Map<Long, Integer> orderCounts = new HashMap<>();
+            Map<Long, Book> books = new HashMap<>();
+            for (OrderItem orderItem : order.get().getOrderItems()) {
                 Long bookId = orderItem.getBook().getId();
-                if (bookRepository.existsById(bookId)) {
-                    Book book = bookRepository.findById(bookId).get();
-                    int booksIsStock = book.getQuantity();
-                    int bookNewQuantity = booksIsStock + orderItem.getQuantity();
-                    book.setQuantity(bookNewQuantity);
-                    bookRepository.save(book);
-                    log.info(
-                            "Book {} new quantity: {} + {} = {}",
-                            bookId,
-                            booksIsStock,
-                            orderItem.getQuantity(),
-                            bookNewQuantity
-                    );
-                } else {
-                    log.info("Book {} doesn't exist", bookId);
-                    throw new Exception("Book doesn't exist!?");
-                }
+                returnedQuantities.put(bookId, orderItem.getQuantity());
+                soldQuantities.put(bookId, -orderItem.getQuantity());
+                orderCounts.put(bookId, -1);
+                books.put(bookId, orderItem.getBook());
             }
+
+            // Returning books in ascending id order, like checkout locks them
+            List<Long> missingBookIds = bookRepository.restoreQuantities(returnedQuantities);
+            if (!missingBookIds.isEmpty()) {
+                log.info("Books {} don't exist", missingBookIds);
+                throw new Exception("Book doesn't exist!?");
+            }
+            log.info("Books returned to the stock: {}", returnedQuantities);
+            addSales(soldQuantities, orderCounts, books);
+            boolean paid = order.get().getStatus() == Order.Status.PAID;
+            addOrderSummaries(Collections.singletonList(new UserOrderSummaryView(
+                    order.get().getUser().getId(),
+                    -1,
+                    paid ? 0 : -1,
+                    paid ? -order.get().getTotalPayment() : 0
+            )));
             // After returning the books
-            orderRepository.deleteById(id);
+            stockLedger.restock(returnedQuantities);
+            bookFilterIndex.returnedAfterCommit(returnedQuantities);
+            bookCache.invalidateAfterCommit(returnedQuantities.keySet());
+            orderRepository.delete(order.get());
+            resourceVersions.orders().changedAfterCommit(Collections.singleton(id));
         } else {
             throw new OrderNotExistException();
         }
     }
 
     /**
-     * Delete all orders from repo
+     * Cancelling orders matching the filter and returning their books to the stock.
+     * Orders are cancelled chunk by chunk, every chunk in its own short transaction,
+     * so a large cancellation doesn't block checkout for long.
+     * A chunk failed by a lock conflict is retried in a new transaction
+     *
+     * @param filter order filter
+     * @return cancelled orders count and returned books
+     */
+    public OrderCancelView cancelOrders(OrderFilter filter) {
+        OrderCancelView cancelView = new OrderCancelView();
+        long afterId = 0;
+        while (true) {
+            List<Long> orderIds = orderRepository.findIdsByFilter(filter, afterId, cancelChunkSize);
+            if (orderIds.isEmpty()) break;
+
+            cancelChunk(filter, orderIds, cancelView);
+
+            if (orderIds.size() < cancelChunkSize) break;
+            afterId = orderIds.get(orderIds.size() - 1);
+        }
+        log.info("Orders cancelled: {}", cancelView.getCancelledOrders());
+        return cancelView;
+    }
+
+    /**
+     * Cancelling expired orders which are still PENDING and returning their books to the stock
      *
-     * @throws Exception
+     * @param orderIds ids of expired orders
+     * @return cancelled orders count and returned books
      */
-    public void deleteAll() throws Exception {
-        List<Order> orders = (List<Order>) getAllOrders();
-        for (Order order : orders) {
-            deleteById(order.getOrderId());
+    public OrderCancelView cancelExpiredOrders(List<Long> orderIds) {
+        OrderFilter filter = new OrderFilter(Order.Status.PENDING, null, null, null);
+        OrderCancelView cancelView = new OrderCancelView();
+        for (int from = 0; from < orderIds.size(); from += cancelChunkSize) {
+            int to = Math.min(from + cancelChunkSize, orderIds.size());
+            cancelChunk(filter, orderIds.subList(from, to), cancelView);
         }
+        return cancelView;
+    }
+
+    private void cancelChunk(OrderFilter filter, List<Long> orderIds, OrderCancelView cancelView) {
+        // Every attempt is a new transaction, after-commit actions of a failed attempt never run
+        CancelledOrders cancelledOrders = retryOnConflict.retry("cancelChunk", () -> transactionTemplate.execute(status -> {
+            CancelledOrders cancelled = orderRepository.cancelByIds(filter, orderIds);
+            stockLedger.restock(cancelled.getReturnedQuantities());
+            bookFilterIndex.returnedAfterCommit(cancelled.getReturnedQuantities());
+            bookSalesStats.putAfterCommit(cancelled.getSales());
+            List<UserOrderSummaryView> summaryDeltas = new ArrayList<>();
+            for (UserOrderSummaryView summary : cancelled.getUserSummaries()) summaryDeltas.add(summary.negate());
+            addOrderSummaries(summaryDeltas);
+            bookCache.invalidateAfterCommit(cancelled.getReturnedQuantities().keySet());
+            resourceVersions.orders().changedAfterCommit(orderIds);
+            return cancelled;
+        }));
+        cancelView.addChunk(cancelledOrders.getOrdersCount(), cancelledOrders.getReturnedQuantities());
+    }
+
+    /**
+     * Delete all orders from repo
+     */
+    public void deleteAll() {
+        cancelOrders(OrderFilter.all());
     }
 
     public static class OrderServiceFieldException extends Exception {
@@ -0,0 +1,91 @@
+package com.example.spring.bookstore.service;
+
+import com.example.spring.bookstore.util.AfterTransaction;
+import com.example.spring.bookstore.util.HierarchicalTimingWheel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Expiration schedule of unpaid PENDING orders.
+ * Orders are kept in a timing wheel by their expiration time, so expired orders
+ * are found without scanning the orders table.
+ * Paid and deleted orders stay in the wheel, they are skipped when expired orders are cancelled
+ */
+@Component
+public class PendingOrderExpiry {
+
+    private final Duration ttl;
+    private final HierarchicalTimingWheel<Long> wheel;
+
+    public PendingOrderExpiry(@Value("${bookstore.orders.pending-ttl-minutes:30}") long ttlMinutes,
+                              @Value("${bookstore.orders.expiry.tick-millis:1000}") long tickMillis,
+                              @Value("${bookstore.orders.expiry.wheel-size:64}") int wheelSize) {
+        this.ttl = Duration.ofMinutes(ttlMinutes);
+        this.wheel = new HierarchicalTimingWheel<>(tickMillis, wheelSize, System.currentTimeMillis());
+    }
+
+    /**
+     * Orders don't expire if TTL is 0
+     */
+    public boolean isEnabled() {
+        return !ttl.isZero();
+    }
+
+    public Duration getTtl() {
+        return ttl;
+    }
+
+    /**
+     * Scheduling expiration of a new order.
+     * Inside a transaction the order is scheduled after the transaction commits
+     *
+     * @param orderId   order id
+     * @param createdAt order creation time
+     */
+    public void schedule(Long orderId, Instant createdAt) {
+        if (!isEnabled()) return;
+        long expiresAt = createdAt.plus(ttl).toEpochMilli();
+        AfterTransaction.onCommit(() -> wheel.add(orderId, expiresAt));
+    }
+
+    /**
+     * Scheduling expiration of existing orders
+     *
+     * @param createdAt creation time by order id
+     */
+    public void scheduleAll(Map<Long, Instant> createdAt) {
+        if (!isEnabled()) return;
+        for (Map.Entry<Long, Instant> entry : createdAt.entrySet()) {
+            wheel.add(entry.getKey(), entry.getValue().plus(ttl).toEpochMilli());
+        }
+    }
+
+    /**
+     * Getting orders which expired by the given time
+     *
+     * @param nowMillis current time in millis
+     * @return ids of expired orders
+     */
+    public List<Long> expire(long nowMillis) {
+        return wheel.advance(nowMillis);
+    }
+
+    /**
+     * Scheduling orders to expire again
+     *
+     * @param orderIds  order ids
+     * @param nowMillis current time in millis
+     */
+    public void reschedule(List<Long> orderIds, long nowMillis) {
+        for (Long orderId : orderIds) wheel.add(orderId, nowMillis);
+    }
+
+    public int size() {
+        return wheel.size();
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.spring.bookstore.service;
+
+import com.example.spring.bookstore.data.entity.Order;
+import com.example.spring.bookstore.data.repository.OrderRepository;
+import com.example.spring.bookstore.data.view.OrderCancelView;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cancelling unpaid PENDING orders when they expire and returning their books to the stock.
+ * The expiration schedule is rebuilt from order creation times on startup
+ */
+@Component
+public class PendingOrderReaper {
+
+    private final Logger log = LoggerFactory.getLogger(PendingOrderReaper.class);
+
+    private final OrderService orderService;
+    private final OrderRepository orderRepository;
+    private final PendingOrderExpiry pendingOrderExpiry;
+    private final long tickMillis;
+    private final Counter expiredCounter;
+    private ScheduledExecutorService executor;
+
+    public PendingOrderReaper(OrderService orderService,
+                              OrderRepository orderRepository,
+                              PendingOrderExpiry pendingOrderExpiry,
+                              MeterRegistry meterRegistry,
+                              @Value("${bookstore.orders.expiry.tick-millis:1000}") long tickMillis) {
+        this.orderService = orderService;
+        this.orderRepository = orderRepository;
+        this.pendingOrderExpiry = pendingOrderExpiry;
+        this.tickMillis = tickMillis;
+        this.expiredCounter = meterRegistry.counter("bookstore.orders.expired");
+        meterRegistry.gauge("bookstore.orders.expiry.scheduled", pendingOrderExpiry, PendingOrderExpiry::size);
+    }
+
+    /**
+     * Scheduling existing PENDING orders and starting the reaper
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!pendingOrderExpiry.isEnabled()) {
+            log.info("Pending orders don't expire");
+            return;
+        }
+        Map<Long, Instant> createdAt = orderRepository.findCreatedAtByStatus(Order.Status.PENDING);
+        pendingOrderExpiry.scheduleAll(createdAt);
+        log.info("Pending orders scheduled to expire: {}, TTL: {}", createdAt.size(), pendingOrderExpiry.getTtl());
+
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pending-order-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::reap, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (executor != null) executor.shutdownNow();
+    }
+
+    /**
+     * Cancelling orders which expired by the given time
+     *
+     * @param nowMillis current time in millis
+     * @return cancelled orders count
+     */
+    public int reapExpired(long nowMillis) {
+        List<Long> orderIds = pendingOrderExpiry.expire(nowMillis);
+        if (orderIds.isEmpty()) return 0;
+
+        OrderCancelView cancelView;
+        try {
+            cancelView = orderService.cancelExpiredOrders(orderIds);
+        } catch (RuntimeException e) {
+            // Orders are tried again on the next tick
+            pendingOrderExpiry.reschedule(orderIds, nowMillis);
+            throw e;
+        }
+        expiredCounter.increment(cancelView.getCancelledOrders());
+        log.info("Expired orders: {}, cancelled: {}", orderIds.size(), cancelView.getCancelledOrders());
+        return cancelView.getCancelledOrders();
+    }
+
+    private void reap() {
+        try {
+            reapExpired(System.currentTimeMillis());
+        } catch (Exception e) {
+            log.error("Cancelling expired orders failed", e);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.spring.bookstore.service;
+
+import com.example.spring.bookstore.util.AfterTransaction;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory version stamps of books, users and orders, which are turned into strong ETags.
+ * Every resource kind has a change counter of the whole collection and change counters striped by id,
+ * they are bumped after a transaction changing resources commits.
+ * A stamp is read before the resource is loaded, so a response is never older than its ETag.
+ * Resources sharing a stripe only cause a full response instead of 304 for each other.
+ * ETags contain the process start time, so ETags of a previous run never match
+ */
+@Component
+public class ResourceVersions {
+
+    private static final int STRIPES = 1024;
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final Stamps books = new Stamps("books");
+    private final Stamps users = new Stamps("users");
+    private final Stamps orders = new Stamps("orders");
+
+    public Stamps books() {
+        return books;
+    }
+
+    public Stamps users() {
+        return users;
+    }
+
+    public Stamps orders() {
+        return orders;
+    }
+
+    /**
+     * Checking an If-None-Match header, weak comparison is used like for GET requests
+     *
+     * @param ifNoneMatch header value, may be null
+     * @param etag        current ETag
+     * @return true if the client has the current version
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals(etag)) return true;
+        }
+        return false;
+    }
+
+    public class Stamps {
+        private final String name;
+        private final AtomicLong collection = new AtomicLong();
+        private final AtomicLongArray stripes = new AtomicLongArray(STRIPES);
+
+        private Stamps(String name) {
+            this.name = name;
+        }
+
+        /**
+         * ETag of the whole collection, it changes whenever any resource changes
+         */
+        public String collectionTag() {
+            return "\"" + name + "-" + epoch + "-" + collection.get() + "\"";
+        }
+
+        /**
+         * ETag of a resource, it changes whenever the resource changes
+         *
+         * @param id resource id
+         */
+        public String tag(Long id) {
+            return "\"" + name + "-" + epoch + "-" + id + "-" + stripes.get(stripe(id)) + "\"";
+        }
+
+        /**
+         * Bumping stamps of resources after the current transaction commits
+         *
+         * @param ids changed, created or deleted resource ids
+         */
+        public void changedAfterCommit(Collection<Long> ids) {
+            List<Long> changedIds = new ArrayList<>(ids);
+            AfterTransaction.onCommit(() -> changed(changedIds));
+        }
+
+        /**
+         * Bumping stamps of all resources after the current transaction commits,
+         * when resources are changed without knowing their ids
+         */
+        public void allChangedAfterCommit() {
+            AfterTransaction.onCommit(this::allChanged);
+        }
+
+        /**
+         * Bumping stamps of all resources right away, when their change is already committed
+         */
+        public void allChanged() {
+            for (int stripe = 0; stripe < STRIPES; stripe++) stripes.incrementAndGet(stripe);
+            collection.incrementAndGet();
+        }
+
+        /**
+         * Bumping stamps of resources right away, when their change is already committed
+         *
+         * @param ids changed, created or deleted resource ids
+         */
+        public void changed(Collection<Long> ids) {
+            for (Long id : ids) stripes.incrementAndGet(stripe(id));
+            collection.incrementAndGet();
+        }
+
+        private int stripe(Long id) {
+            return Long.hashCode(id) & (STRIPES - 1);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.spring.bookstore.service;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a transactional service method which is retried
+ * when it fails because of a concurrent modification
+ *
+ * @see RetryOnConflictAspect
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RetryOnConflict {
+}
@@ -0,0 +1,140 @@
+package com.example.spring.bookstore.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.CannotSerializeTransactionException;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DeadlockLoserDataAccessException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Retrying methods annotated with {@link RetryOnConflict} when they fail because of
+ * an optimistic lock conflict, a deadlock or a serialization failure,
+ * with a bounded number of attempts and a jittered exponential backoff.
+ * Runs before the transaction interceptor, so every attempt gets a new transaction
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class RetryOnConflictAspect {
+
+    private static final String DEADLOCK_SQL_STATE = "40P01";
+    private static final String SERIALIZATION_FAILURE_SQL_STATE = "40001";
+
+    private final Logger log = LoggerFactory.getLogger(RetryOnConflictAspect.class);
+
+    private final MeterRegistry meterRegistry;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+
+    public RetryOnConflictAspect(MeterRegistry meterRegistry,
+                                 @Value("${bookstore.retry.max-attempts:5}") int maxAttempts,
+                                 @Value("${bookstore.retry.backoff-millis:10}") long backoffMillis,
+                                 @Value("${bookstore.retry.max-backoff-millis:200}") long maxBackoffMillis) {
+        this.meterRegistry = meterRegistry;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMillis = backoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    @Around("@annotation(com.example.spring.bookstore.service.RetryOnConflict)")
+    public Object retryOnConflict(ProceedingJoinPoint joinPoint) throws Throwable {
+        String operation = joinPoint.getSignature().getName();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return joinPoint.proceed();
+            } catch (RuntimeException e) {
+                onFailure(operation, attempt, e);
+            }
+        }
+    }
+
+    /**
+     * Retrying an action like a method annotated with {@link RetryOnConflict},
+     * for actions which start their own transaction with a transaction template
+     *
+     * @param operation name of the action in logs and meters
+     * @param action    action running in its own transaction
+     * @return result of the successful attempt
+     */
+    public <T> T retry(String operation, Supplier<T> action) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return action.get();
+            } catch (RuntimeException e) {
+                try {
+                    onFailure(operation, attempt, e);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Rethrowing a failure which is not a conflict or which failed the last attempt,
+     * otherwise waiting before the next attempt
+     */
+    private void onFailure(String operation, int attempt, RuntimeException e) throws InterruptedException {
+        String reason = conflictReason(e);
+        if (reason == null) throw e;
+        if (attempt >= maxAttempts) {
+            log.info("{} failed after {} attempts: {}", operation, attempt, e.getMessage());
+            meterRegistry.counter("bookstore.retry.exhausted",
+                    "operation", operation, "reason", reason).increment();
+            throw e;
+        }
+        log.debug("{} failed on attempt {} because of {}, retrying", operation, attempt, reason);
+        meterRegistry.counter("bookstore.retry.attempts",
+                "operation", operation, "reason", reason).increment();
+        backoff(attempt);
+    }
+
+    /**
+     * Classifying failures which are worth retrying in a new transaction
+     *
+     * @param e failure
+     * @return conflict reason, or null if the failure is not a conflict
+     */
+    static String conflictReason(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                String sqlState = ((SQLException) cause).getSQLState();
+                if (DEADLOCK_SQL_STATE.equals(sqlState)) return "deadlock";
+                if (SERIALIZATION_FAILURE_SQL_STATE.equals(sqlState)) return "serialization";
+            }
+        }
+        if (e instanceof OptimisticLockingFailureException) return "optimistic";
+        if (e instanceof DeadlockLoserDataAccessException) return "deadlock";
+        if (e instanceof CannotSerializeTransactionException) return "serialization";
+        if (e instanceof ConcurrencyFailureException) return "lock";
+        return null;
+    }
+
+    /**
+     * Sleeping for a random time up to the exponential backoff of the attempt,
+     * so conflicting callers don't retry in lockstep
+     *
+     * @param attempt number of the failed attempt
+     */
+    private void backoff(int attempt) throws InterruptedException {
+        long ceiling = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempt - 1, 20));
+        if (ceiling > 0) {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.spring.bookstore.service;
+
+import com.example.spring.bookstore.data.repository.BookRepository;
+import com.example.spring.bookstore.util.AfterTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory books stock kept in front of the books table.
+ * Orders reserve against lock-free counters, so orders which can't be
+ * satisfied are rejected without touching book rows.
+ * The books table stays the source of truth: counters are reconciled from it
+ * on startup, dropped whenever the database has fewer books than them
+ * and reloaded from it when they are short, so a counter behind the table heals on the next order
+ */
+@Component
+public class StockLedger {
+
+    private final Logger log = LoggerFactory.getLogger(StockLedger.class);
+
+    private final BookRepository bookRepository;
+    private final Map<Long, AtomicInteger> stock = new ConcurrentHashMap<>();
+
+    public StockLedger(BookRepository bookRepository) {
+        this.bookRepository = bookRepository;
+    }
+
+    /**
+     * Reloading all counters from the books table
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcile() {
+        Map<Long, Integer> stockLevels = bookRepository.findStockLevels();
+        stock.clear();
+        for (Map.Entry<Long, Integer> stockLevel : stockLevels.entrySet()) {
+            stock.put(stockLevel.getKey(), new AtomicInteger(stockLevel.getValue()));
+        }
+        log.info("Stock ledger reconciled, books: {}", stockLevels.size());
+    }
+
+    /**
+     * Starting to track a book if it isn't tracked yet
+     *
+     * @param bookId   book id
+     * @param quantity book quantity in stock
+     */
+    public void seed(Long bookId, int quantity) {
+        stock.putIfAbsent(bookId, new AtomicInteger(quantity));
+    }
+
+    /**
+     * Reserving all quantities or nothing.
+     * Inside a transaction the reservation is released if the transaction rolls back
+     *
+     * @param quantities needed quantity by book id
+     * @return ids of books which don't have enough items, nothing is reserved if not empty
+     */
+    public List<Long> reserve(Map<Long, Integer> quantities) {
+        Map<Long, Integer> reserved = new LinkedHashMap<>();
+        List<Long> shortBookIds = new ArrayList<>();
+        for (Map.Entry<Long, Integer> entry : quantities.entrySet()) {
+            AtomicInteger counter = stock.get(entry.getKey());
+            // Untracked books are left to the database
+            if (counter == null) continue;
+            if (tryDecrement(counter, entry.getValue())) {
+                reserved.put(entry.getKey(), entry.getValue());
+            } else {
+                shortBookIds.add(entry.getKey());
+            }
+        }
+
+        if (!shortBookIds.isEmpty()) {
+            release(reserved);
+        } else {
+            AfterTransaction.onRollback(() -> release(reserved));
+        }
+        return shortBookIds;
+    }
+
+    /**
+     * Returning books to the stock after the current transaction commits
+     *
+     * @param quantities returned quantity by book id
+     */
+    public void restock(Map<Long, Integer> quantities) {
+        AfterTransaction.onCommit(() -> release(quantities));
+    }
+
+    /**
+     * Resetting counters of books from the books table without locking book rows
+     *
+     * @param bookIds book ids
+     */
+    public void reload(Collection<Long> bookIds) {
+        Map<Long, Integer> stockLevels = bookRepository.findStockLevels(bookIds);
+        for (Long bookId : bookIds) {
+            Integer stockLevel = stockLevels.get(bookId);
+            if (stockLevel == null) {
+                stock.remove(bookId);
+            } else {
+                stock.put(bookId, new AtomicInteger(stockLevel));
+            }
+        }
+    }
+
+    /**
+     * Stopping tracking of a book, it will be seeded again on the next order
+     *
+     * @param bookId book id
+     */
+    public void evict(Long bookId) {
+        stock.remove(bookId);
+    }
+
+    public void clear() {
+        stock.clear();
+    }
+
+    private void release(Map<Long, Integer> quantities) {
+        for (Map.Entry<Long, Integer> entry : quantities.entrySet()) {
+            AtomicInteger counter = stock.get(entry.getKey());
+            if (counter != null) counter.addAndGet(entry.getValue());
+        }
+    }
+
+    private static boolean tryDecrement(AtomicInteger counter, int quantity) {
+        int current;
+        do {
+            current = counter.get();
+            if (current < quantity) return false;
+        } while (!counter.compareAndSet(current, current - quantity));
+        return true;
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.spring.bookstore.service;
+
+import com.example.spring.bookstore.data.repository.UserRepository;
+import com.example.spring.bookstore.data.view.UserOrderSummaryRow;
+import com.example.spring.bookstore.data.view.UserOrderSummaryView;
+import com.example.spring.bookstore.util.AfterTransaction;
+import com.example.spring.bookstore.util.OrderSummaryTable;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Order summaries of users kept in a compact in-memory table, summaries are read without queries.
+ * A user is read from user_order_summary on the first request, rows changed by orders are put
+ * after the changing transaction commits. A row replaces the kept one only if its version is newer,
+ * so a row read while orders of the user change, or put out of commit order, never goes back in time.
+ * When the table holds max-size users, other users are read from the database
+ */
+@Component
+public class UserOrderSummaries {
+
+    private final UserRepository userRepository;
+    private final int maxSize;
+
+    // Guarded by this
+    private final OrderSummaryTable table;
+
+    public UserOrderSummaries(UserRepository userRepository,
+                              MeterRegistry meterRegistry,
+                              @Value("${bookstore.users.summary.max-size:1000000}") int maxSize) {
+        this.userRepository = userRepository;
+        this.maxSize = maxSize;
+        this.table = new OrderSummaryTable(Math.min(maxSize, 1024));
+        meterRegistry.gauge("bookstore.users.summary.size", this, UserOrderSummaries::size);
+    }
+
+    /**
+     * Getting the order summary of an existing user
+     *
+     * @param userId user id
+     * @return summary, zeros if the user never ordered
+     */
+    public UserOrderSummaryView get(Long userId) {
+        synchronized (this) {
+            int slot = table.find(userId);
+            if (slot >= 0) return view(userId, slot);
+        }
+        // A user without orders has no row, any row of the user is newer than its zeros
+        UserOrderSummaryRow row = userRepository.findOrderSummary(userId)
+                .orElseGet(() -> new UserOrderSummaryRow(UserOrderSummaryView.empty(userId), 0));
+        synchronized (this) {
+            put(row);
+            int slot = table.find(userId);
+            return slot >= 0 ? view(userId, slot) : row.getSummary();
+        }
+    }
+
+    /**
+     * Putting changed user_order_summary rows after the current transaction commits
+     *
+     * @param changedRows rows returned by the changing statements
+     */
+    public void putAfterCommit(List<UserOrderSummaryRow> changedRows) {
+        if (changedRows.isEmpty()) return;
+        List<UserOrderSummaryRow> copy = new ArrayList<>(changedRows);
+        AfterTransaction.onCommit(() -> {
+            synchronized (this) {
+                for (UserOrderSummaryRow row : copy) put(row);
+            }
+        });
+    }
+
+    /**
+     * Removing the summary of a user after the current transaction commits
+     *
+     * @param userId deleted user id
+     */
+    public void removeAfterCommit(Long userId) {
+        AfterTransaction.onCommit(() -> {
+            synchronized (this) {
+                table.remove(userId);
+            }
+        });
+    }
+
+    public synchronized void clear() {
+        table.clear();
+    }
+
+    public synchronized int size() {
+        return table.size();
+    }
+
+    private void put(UserOrderSummaryRow row) {
+        UserOrderSummaryView summary = row.getSummary();
+        if (table.size() >= maxSize && table.find(row.getUserId()) < 0) return;
+        table.put(row.getUserId(), summary.getOrdersCount(), summary.getPendingCount(), summary.getPaidTotal(),
+                row.getVersion());
+    }
+
+    private UserOrderSummaryView view(Long userId, int slot) {
+        return new UserOrderSummaryView(
+                userId, table.ordersCount(slot), table.pendingCount(slot), table.paidTotal(slot)
+        );
+    }
+}
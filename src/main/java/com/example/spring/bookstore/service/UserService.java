@@ -2,11 +2,20 @@ package com.example.spring.bookstore.service;
 
 import com.example.spring.bookstore.data.entity.User;
 import com.example.spring.bookstore.data.repository.UserRepository;
+import com.example.spring.bookstore.data.view.UserOrderSummaryView;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @Service
 public class UserService {
@@ -14,9 +23,21 @@ public class UserService {
     private final Logger log = LoggerFactory.getLogger(UserService.class);
 
     private final UserRepository userRepository;
+    private final ResourceVersions resourceVersions;
+    private final KnownUsers knownUsers;
+    private final UserOrderSummaries userOrderSummaries;
 
-    public UserService(UserRepository userRepository) {
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public UserService(UserRepository userRepository,
+                       ResourceVersions resourceVersions,
+                       KnownUsers knownUsers,
+                       UserOrderSummaries userOrderSummaries) {
         this.userRepository = userRepository;
+        this.resourceVersions = resourceVersions;
+        this.knownUsers = knownUsers;
+        this.userOrderSummaries = userOrderSummaries;
     }
 
     /**
@@ -32,13 +53,17 @@ public class UserService {
                 "Petr.Ivanov"
         };
 
+        List<Long> userIds = new ArrayList<>();
         for (String name : names) {
             if (User.isUserNameValid(name)) {
                 User user = new User(name);
                 userRepository.save(user);
+                knownUsers.add(user.getId());
+                userIds.add(user.getId());
                 log.info("User added: id={}, name={}", user.getId(), user.getName());
             }
         }
+        resourceVersions.users().changedAfterCommit(userIds);
         return userRepository.findAll();
     }
 
@@ -53,6 +78,23 @@ public class UserService {
     }
 
 
+    /**
+     * Reading all users one by one, users are detached after the consumer gets them,
+     * so memory use doesn't depend on the number of users
+     *
+     * @param consumer users consumer
+     */
+    @Transactional(readOnly = true)
+    public void streamAll(Consumer<User> consumer) {
+        try (Stream<User> users = userRepository.streamAll()) {
+            users.forEach(user -> {
+                consumer.accept(user);
+                entityManager.detach(user);
+            });
+        }
+    }
+
+
     /**
      * Get user by id
      *
@@ -64,11 +106,27 @@ public class UserService {
     }
 
 
+    /**
+     * Getting the order summary of a user: number of orders, number of PENDING orders and PAID total.
+     * Summaries are kept in memory, orders are not read
+     *
+     * @param id user id
+     * @return summary, or empty if the user doesn't exist
+     */
+    public Optional<UserOrderSummaryView> getOrderSummary(Long id) {
+        if (!knownUsers.exists(id)) return Optional.empty();
+        return Optional.of(userOrderSummaries.get(id));
+    }
+
+
     /**
      * Delete all users from repo
      */
     public void deleteAll() {
         userRepository.deleteAll();
+        userOrderSummaries.clear();
+        knownUsers.reload();
+        resourceVersions.users().allChangedAfterCommit();
     }
 
 
@@ -79,7 +137,10 @@ public class UserService {
      * @return created user
      */
     public User addUser(User user) {
-        return userRepository.save(user);
+        User savedUser = userRepository.save(user);
+        knownUsers.add(savedUser.getId());
+        resourceVersions.users().changedAfterCommit(Collections.singleton(savedUser.getId()));
+        return savedUser;
     }
 
     /**
@@ -89,5 +150,8 @@ public class UserService {
      */
     public void deleteById(Long id) {
         userRepository.deleteById(id);
+        knownUsers.removeAfterCommit(id);
+        userOrderSummaries.removeAfterCommit(id);
+        resourceVersions.users().changedAfterCommit(Collections.singleton(id));
     }
 }
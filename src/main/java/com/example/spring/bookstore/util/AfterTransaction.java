@@ -0,0 +1,48 @@
+package com.example.spring.bookstore.util;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Running in-memory changes only when the current transaction ends the way they depend on,
+ * so a rolled back transaction leaves no trace in caches and indexes
+ */
+public class AfterTransaction {
+
+    private AfterTransaction() {
+    }
+
+    /**
+     * Running an action after the current transaction commits, or right away outside a transaction.
+     * The action must not register synchronizations itself
+     *
+     * @param action change of committed data
+     */
+    public static void onCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * Running an action if the current transaction doesn't commit, never outside a transaction
+     *
+     * @param action undoing a change made in advance of the commit
+     */
+    public static void onRollback(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) return;
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) action.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.spring.bookstore.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel of items with expiration times.
+ * Level 0 has wheelSize buckets of tickMillis each, every next level has buckets
+ * wheelSize times wider and is added when an item expires too late for the existing levels.
+ * Adding an item and advancing the time by one tick don't depend on the number of items,
+ * items of a wider bucket are moved to lower levels when the wheel reaches the bucket.
+ * Items expire up to one tick late. The wheel is thread safe
+ *
+ * @param <T> item type
+ */
+public class HierarchicalTimingWheel<T> {
+
+    private final long tickMillis;
+    private final int wheelSize;
+    private final List<List<Entry<T>>[]> levels = new ArrayList<>();
+    private final List<T> overdue = new ArrayList<>();
+
+    // Start of the current tick, all items which expired before it are returned already
+    private long currentTime;
+    private int size;
+
+    public HierarchicalTimingWheel(long tickMillis, int wheelSize, long startMillis) {
+        if (tickMillis <= 0) throw new IllegalArgumentException("Tick must be positive");
+        if (wheelSize < 2) throw new IllegalArgumentException("Wheel size must be at least 2");
+        this.tickMillis = tickMillis;
+        this.wheelSize = wheelSize;
+        this.currentTime = startMillis - startMillis % tickMillis;
+    }
+
+    /**
+     * Adding an item, an already expired item is returned by the next advance
+     *
+     * @param item      item
+     * @param expiresAt expiration time in millis
+     */
+    public synchronized void add(T item, long expiresAt) {
+        size++;
+        if (expiresAt < currentTime) {
+            overdue.add(item);
+        } else {
+            place(new Entry<>(item, expiresAt));
+        }
+    }
+
+    /**
+     * Advancing the wheel to the given time
+     *
+     * @param nowMillis current time in millis
+     * @return items expired since the previous advance
+     */
+    public synchronized List<T> advance(long nowMillis) {
+        List<T> expired = new ArrayList<>(overdue);
+        overdue.clear();
+
+        while (currentTime + tickMillis <= nowMillis) {
+            if (!levels.isEmpty()) {
+                List<Entry<T>> bucket = takeBucket(0, tickMillis);
+                for (Entry<T> entry : bucket) expired.add(entry.item);
+            }
+            currentTime += tickMillis;
+            cascade();
+        }
+        size -= expired.size();
+        return expired;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Moving items of higher level buckets which start at the current time to lower levels.
+     * Higher levels go first, so items can move down several levels at once
+     */
+    private void cascade() {
+        int reachedLevel = 0;
+        long levelTick = tickMillis;
+        while (reachedLevel + 1 < levels.size() && currentTime % (levelTick * wheelSize) == 0) {
+            levelTick *= wheelSize;
+            reachedLevel++;
+        }
+        for (int level = reachedLevel; level >= 1; level--) {
+            for (Entry<T> entry : takeBucket(level, levelTick)) place(entry);
+            levelTick /= wheelSize;
+        }
+    }
+
+    private void place(Entry<T> entry) {
+        int level = 0;
+        long levelTick = tickMillis;
+        while (entry.expiresAt - currentTime >= levelTick * wheelSize) {
+            levelTick *= wheelSize;
+            level++;
+        }
+        while (levels.size() <= level) levels.add(newLevel());
+        int bucket = (int) ((entry.expiresAt / levelTick) % wheelSize);
+        levels.get(level)[bucket].add(entry);
+    }
+
+    private List<Entry<T>> takeBucket(int level, long levelTick) {
+        List<Entry<T>>[] buckets = levels.get(level);
+        int index = (int) ((currentTime / levelTick) % wheelSize);
+        List<Entry<T>> bucket = buckets[index];
+        buckets[index] = new ArrayList<>();
+        return bucket;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Entry<T>>[] newLevel() {
+        List<Entry<T>>[] buckets = new List[wheelSize];
+        for (int i = 0; i < wheelSize; i++) buckets[i] = new ArrayList<>();
+        return buckets;
+    }
+
+    private static class Entry<T> {
+        private final T item;
+        private final long expiresAt;
+
+        Entry(T item, long expiresAt) {
+            this.item = item;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
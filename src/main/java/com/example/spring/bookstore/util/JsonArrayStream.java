@@ -0,0 +1,49 @@
+package com.example.spring.bookstore.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/**
+ * Response body which writes elements as a JSON array while they are read,
+ * so the whole array is never kept in memory
+ */
+public class JsonArrayStream {
+
+    private JsonArrayStream() {
+    }
+
+    /**
+     * Creating a streaming response body
+     *
+     * @param objectMapper mapper used for every element
+     * @param source       reads elements and passes every element to the given consumer
+     * @param <T>          element type
+     */
+    public static <T> StreamingResponseBody of(ObjectMapper objectMapper, Consumer<Consumer<T>> source) {
+        return outputStream -> {
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+            // The servlet output stream is closed by the container
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            try {
+                generator.writeStartArray();
+                source.accept(element -> {
+                    try {
+                        objectMapper.writeValue(generator, element);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                generator.writeEndArray();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                generator.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.spring.bookstore.util;
+
+/**
+ * Keeping a loader of an in-memory copy from adding back ids removed while the copy is loaded.
+ * Ids removed before loading is done are remembered until it's done.
+ * The guard is not thread safe, it's guarded by the lock of the copy, only {@link #isLoaded()} may be read without it
+ */
+public class LoadGuard {
+
+    private final LongHashSet removedWhileLoading = new LongHashSet(16);
+    private volatile boolean loaded;
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Remembering a removed id if loading isn't done
+     *
+     * @param id removed id
+     */
+    public void removed(long id) {
+        if (!loaded) removedWhileLoading.add(id);
+    }
+
+    /**
+     * @param id loaded id
+     * @return false if the id was removed while loading, the loader must skip it
+     */
+    public boolean canLoad(long id) {
+        return !removedWhileLoading.contains(id);
+    }
+
+    /**
+     * Marking loading as done, removed ids are forgotten
+     */
+    public void loaded() {
+        loaded = true;
+        removedWhileLoading.clear();
+    }
+
+    /**
+     * Marking the copy as not loaded before it's loaded again
+     */
+    public void reset() {
+        loaded = false;
+    }
+}
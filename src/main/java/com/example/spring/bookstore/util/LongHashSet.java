@@ -0,0 +1,124 @@
+package com.example.spring.bookstore.util;
+
+import java.util.Arrays;
+
+/**
+ * Set of primitive longs with open addressing and linear probing.
+ * Keys are stored in one long array without boxing, the table is kept at most half full.
+ * Removed keys are filled by shifting the rest of their probe run back, so there are no tombstones.
+ * The set is not thread safe
+ */
+public class LongHashSet {
+
+    private static final long EMPTY = 0;
+
+    private long[] table;
+    private int mask;
+    // 0 marks empty slots, so it's kept apart
+    private boolean containsEmptyKey;
+    private int size;
+
+    public LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(8, expectedSize * 2 - 1)) << 1;
+        this.table = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    public boolean contains(long key) {
+        if (key == EMPTY) return containsEmptyKey;
+        for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+            long current = table[slot];
+            if (current == key) return true;
+            if (current == EMPTY) return false;
+        }
+    }
+
+    /**
+     * Adding a key
+     *
+     * @param key key
+     * @return false if the key is in the set already
+     */
+    public boolean add(long key) {
+        if (key == EMPTY) {
+            if (containsEmptyKey) return false;
+            containsEmptyKey = true;
+            size++;
+            return true;
+        }
+        int slot = slot(key);
+        while (table[slot] != EMPTY) {
+            if (table[slot] == key) return false;
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = key;
+        if (++size * 2 > table.length) grow();
+        return true;
+    }
+
+    /**
+     * Removing a key
+     *
+     * @param key key
+     * @return false if the key was not in the set
+     */
+    public boolean remove(long key) {
+        if (key == EMPTY) {
+            if (!containsEmptyKey) return false;
+            containsEmptyKey = false;
+            size--;
+            return true;
+        }
+        int slot = slot(key);
+        while (table[slot] != key) {
+            if (table[slot] == EMPTY) return false;
+            slot = (slot + 1) & mask;
+        }
+        shiftBack(slot);
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(table, EMPTY);
+        containsEmptyKey = false;
+        size = 0;
+    }
+
+    private void shiftBack(int freeSlot) {
+        int slot = freeSlot;
+        while (true) {
+            slot = (slot + 1) & mask;
+            long current = table[slot];
+            if (current == EMPTY) break;
+            // A key can fill the free slot only if the free slot is between its home slot and its slot
+            int home = slot(current);
+            if (((slot - home) & mask) >= ((slot - freeSlot) & mask)) {
+                table[freeSlot] = current;
+                freeSlot = slot;
+            }
+        }
+        table[freeSlot] = EMPTY;
+    }
+
+    private void grow() {
+        long[] oldTable = table;
+        table = new long[oldTable.length * 2];
+        mask = table.length - 1;
+        for (long key : oldTable) {
+            if (key == EMPTY) continue;
+            int slot = slot(key);
+            while (table[slot] != EMPTY) slot = (slot + 1) & mask;
+            table[slot] = key;
+        }
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,381 @@
+package com.example.spring.bookstore.util;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Case-insensitive search index of names by their trigrams and word prefixes.
+ * Queries of three characters or more match names containing them,
+ * shorter queries match names with a word starting with them.
+ * Each gram has a posting list of document numbers in a primitive int array, documents are numbered
+ * in insertion order, so posting lists stay sorted without sorting.
+ * Matches are ranked: exact names first, then names starting with the query, then names with a word
+ * starting with it, then the rest, shorter names first within a rank.
+ * Removed documents are skipped until they make up half of the index, then the index is compacted.
+ * Candidates of all grams are verified against the name, so grams found in another order don't match.
+ * The index is not thread safe
+ */
+public class NgramIndex {
+
+    private static final int MIN_SUBSTRING_LENGTH = 3;
+    private static final int MIN_COMPACTED_DOCS = 1024;
+    // Mark grams at word and name starts, they can't be in a normalized name
+    private static final char WORD_START = '\u0001';
+    private static final char NAME_START = '\u0002';
+
+    private static final int EXACT = 0;
+    private static final int NAME_PREFIX = 1;
+    private static final int WORD_PREFIX = 2;
+    private static final int SUBSTRING = 3;
+
+    private final Map<Long, Postings> postings = new HashMap<>();
+    private final Map<Long, Integer> docsById = new HashMap<>();
+    private final BitSet removed = new BitSet();
+    private long[] ids = new long[16];
+    // Normalized names are kept one after another in one array, so checking a candidate reads one place
+    private char[] chars = new char[256];
+    // Start and length of each name side by side
+    private int[] spans = new int[32];
+    private int charCount;
+    private int docCount;
+    private int removedCount;
+
+    /**
+     * Adding a name
+     *
+     * @param id   id the name is found by
+     * @param name name
+     * @return false if the id is in the index already
+     */
+    public boolean add(long id, String name) {
+        if (docsById.containsKey(id)) return false;
+        String normalized = normalize(name);
+        int doc = append(id, normalized);
+        docsById.put(id, doc);
+        index(doc, normalized);
+        return true;
+    }
+
+    /**
+     * Removing a name
+     *
+     * @param id id of the name
+     * @return false if the id is not in the index
+     */
+    public boolean remove(long id) {
+        Integer doc = docsById.remove(id);
+        if (doc == null) return false;
+        removed.set(doc);
+        removedCount++;
+        if (removedCount >= MIN_COMPACTED_DOCS && removedCount * 2 >= docCount) compact();
+        return true;
+    }
+
+    public int size() {
+        return docCount - removedCount;
+    }
+
+    public void clear() {
+        postings.clear();
+        docsById.clear();
+        removed.clear();
+        ids = new long[16];
+        chars = new char[256];
+        spans = new int[32];
+        charCount = 0;
+        docCount = 0;
+        removedCount = 0;
+    }
+
+    /**
+     * Finding ids of names matching a query, best matches first
+     *
+     * @param query  searched text
+     * @param offset number of best matches to skip
+     * @param limit  max number of ids
+     * @return ids of matches after the offset and the number of all matches
+     */
+    public Hits search(String query, int offset, int limit) {
+        String normalized = normalize(query);
+        if (normalized.isEmpty() || limit <= 0) return new Hits(new long[0], 0);
+        return normalized.length() < MIN_SUBSTRING_LENGTH
+                ? searchWordPrefix(normalized, offset, limit)
+                : searchSubstring(normalized, offset, limit);
+    }
+
+    /**
+     * Word and name start grams tell the rank of a short query match, names are not read
+     */
+    private Hits searchWordPrefix(String query, int offset, int limit) {
+        char second = query.length() == 1 ? WORD_START : query.charAt(0);
+        char last = query.charAt(query.length() - 1);
+        Postings words = postings.get(gram(WORD_START, second, last));
+        if (words == null) return new Hits(new long[0], 0);
+        Postings nameStarts = postings.get(gram(NAME_START, second, last));
+
+        Ranking ranking = new Ranking(offset, limit, words.size);
+        int nameStartPosition = 0;
+        for (int i = 0; i < words.size; i++) {
+            int doc = words.docs[i];
+            if (removed.get(doc)) continue;
+            int rank = WORD_PREFIX;
+            if (nameStarts != null) {
+                nameStartPosition = seek(nameStarts, nameStartPosition, doc);
+                if (nameStartPosition < nameStarts.size && nameStarts.docs[nameStartPosition] == doc) {
+                    rank = length(doc) == query.length() ? EXACT : NAME_PREFIX;
+                }
+            }
+            ranking.offer(rank, length(doc), doc);
+        }
+        return ranking.hits(offset);
+    }
+
+    /**
+     * Candidates having all trigrams of the query are checked in their names
+     */
+    private Hits searchSubstring(String query, int offset, int limit) {
+        Postings[] lists = new Postings[query.length() - MIN_SUBSTRING_LENGTH + 1];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = postings.get(gram(query.charAt(i), query.charAt(i + 1), query.charAt(i + 2)));
+            // A trigram no name has, nothing matches
+            if (lists[i] == null) return new Hits(new long[0], 0);
+        }
+        // Candidates come from the shortest list and are looked up in the others
+        Arrays.sort(lists, Comparator.comparingInt(list -> list.size));
+
+        Ranking ranking = new Ranking(offset, limit, lists[0].size);
+        int[] positions = new int[lists.length];
+        char[] queryChars = query.toCharArray();
+        candidates:
+        for (int i = 0; i < lists[0].size; i++) {
+            int doc = lists[0].docs[i];
+            for (int list = 1; list < lists.length; list++) {
+                positions[list] = seek(lists[list], positions[list], doc);
+                // No more documents have this trigram
+                if (positions[list] == lists[list].size) break candidates;
+                if (lists[list].docs[positions[list]] != doc) continue candidates;
+            }
+            if (removed.get(doc)) continue;
+            int rank = rank(doc, queryChars);
+            if (rank >= 0) ranking.offer(rank, length(doc), doc);
+        }
+        return ranking.hits(offset);
+    }
+
+    /**
+     * Finding the first document not below the given one. Documents are looked up in ascending order,
+     * so the list is searched forward from the previous position with galloping steps
+     *
+     * @return position of the document, or the list size if all documents are below it
+     */
+    private static int seek(Postings list, int from, int doc) {
+        int[] docs = list.docs;
+        int low = from;
+        int step = 1;
+        while (low + step < list.size && docs[low + step] < doc) {
+            low += step;
+            step <<= 1;
+        }
+        int high = Math.min(low + step, list.size);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (docs[middle] < doc) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Ranking a candidate name, grams don't keep positions, so the query is checked in the name
+     *
+     * @return rank, lower is better, or -1 if the name doesn't match
+     */
+    private int rank(int doc, char[] query) {
+        int start = spans[2 * doc];
+        int length = spans[2 * doc + 1];
+        int rank = -1;
+        for (int position = 0; position + query.length <= length; position++) {
+            if (!matchesAt(start + position, query)) continue;
+            if (position == 0) return length == query.length ? EXACT : NAME_PREFIX;
+            if (!Character.isLetterOrDigit(chars[start + position - 1])) return WORD_PREFIX;
+            rank = SUBSTRING;
+        }
+        return rank;
+    }
+
+    private boolean matchesAt(int offset, char[] query) {
+        for (int i = 0; i < query.length; i++) {
+            if (chars[offset + i] != query[i]) return false;
+        }
+        return true;
+    }
+
+    private void index(int doc, String name) {
+        for (int i = 0; i + MIN_SUBSTRING_LENGTH <= name.length(); i++) {
+            addPosting(gram(name.charAt(i), name.charAt(i + 1), name.charAt(i + 2)), doc);
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!Character.isLetterOrDigit(c) || (i > 0 && Character.isLetterOrDigit(name.charAt(i - 1)))) continue;
+            char next = i + 1 < name.length() ? name.charAt(i + 1) : WORD_START;
+            addPosting(gram(WORD_START, WORD_START, c), doc);
+            if (next != WORD_START) addPosting(gram(WORD_START, c, next), doc);
+            if (i == 0) {
+                addPosting(gram(NAME_START, WORD_START, c), doc);
+                if (next != WORD_START) addPosting(gram(NAME_START, c, next), doc);
+            }
+        }
+    }
+
+    private void addPosting(long gram, int doc) {
+        postings.computeIfAbsent(gram, key -> new Postings()).add(doc);
+    }
+
+    private int append(long id, String name) {
+        if (docCount == ids.length) {
+            ids = Arrays.copyOf(ids, docCount * 2);
+            spans = Arrays.copyOf(spans, docCount * 4);
+        }
+        if (charCount + name.length() > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + name.length()));
+        }
+        int doc = docCount++;
+        ids[doc] = id;
+        spans[2 * doc] = charCount;
+        spans[2 * doc + 1] = name.length();
+        name.getChars(0, name.length(), chars, charCount);
+        charCount += name.length();
+        return doc;
+    }
+
+    private void compact() {
+        long[] oldIds = ids;
+        char[] oldChars = chars;
+        int[] oldSpans = spans;
+        BitSet oldRemoved = (BitSet) removed.clone();
+        int oldDocCount = docCount;
+        clear();
+        for (int doc = oldRemoved.nextClearBit(0); doc < oldDocCount; doc = oldRemoved.nextClearBit(doc + 1)) {
+            String name = new String(oldChars, oldSpans[2 * doc], oldSpans[2 * doc + 1]);
+            int liveDoc = append(oldIds[doc], name);
+            docsById.put(oldIds[doc], liveDoc);
+            index(liveDoc, name);
+        }
+    }
+
+    private int length(int doc) {
+        return spans[2 * doc + 1];
+    }
+
+    private static String normalize(String text) {
+        return text.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static long gram(char first, char second, char third) {
+        return (long) first << 32 | (long) second << 16 | third;
+    }
+
+    /**
+     * Best matches kept in a max-heap of rank keys, so the worst kept match is replaced first.
+     * A key orders matches by rank, then by name length, then by document number
+     */
+    private class Ranking {
+        private final long[] heap;
+        private int size;
+        private int total;
+
+        private Ranking(int offset, int limit, int candidates) {
+            this.heap = new long[(int) Math.min((long) offset + limit, candidates)];
+        }
+
+        private void offer(int rank, int length, int doc) {
+            total++;
+            if (heap.length == 0) return;
+            long key = (long) rank << 56 | (long) Math.min(length, 0xFFFFFF) << 32 | doc;
+            if (size < heap.length) {
+                heap[size] = key;
+                siftUp(size++);
+            } else if (key < heap[0]) {
+                heap[0] = key;
+                siftDown();
+            }
+        }
+
+        private Hits hits(int offset) {
+            Arrays.sort(heap, 0, size);
+            long[] hitIds = new long[Math.max(0, size - offset)];
+            for (int i = 0; i < hitIds.length; i++) {
+                hitIds[i] = ids[(int) heap[offset + i]];
+            }
+            return new Hits(hitIds, total);
+        }
+
+        private void siftUp(int index) {
+            long key = heap[index];
+            while (index > 0) {
+                int parent = (index - 1) >>> 1;
+                if (heap[parent] >= key) break;
+                heap[index] = heap[parent];
+                index = parent;
+            }
+            heap[index] = key;
+        }
+
+        private void siftDown() {
+            long key = heap[0];
+            int index = 0;
+            while (true) {
+                int child = 2 * index + 1;
+                if (child >= size) break;
+                if (child + 1 < size && heap[child + 1] > heap[child]) child++;
+                if (heap[child] <= key) break;
+                heap[index] = heap[child];
+                index = child;
+            }
+            heap[index] = key;
+        }
+    }
+
+    /**
+     * Sorted document numbers of one gram
+     */
+    private static class Postings {
+        private int[] docs = new int[4];
+        private int size;
+
+        private void add(int doc) {
+            // A gram repeated in one name is posted once
+            if (size > 0 && docs[size - 1] == doc) return;
+            if (size == docs.length) docs = Arrays.copyOf(docs, size * 2);
+            docs[size++] = doc;
+        }
+    }
+
+    public static class Hits {
+        private final long[] ids;
+        private final int total;
+
+        private Hits(long[] ids, int total) {
+            this.ids = ids;
+            this.total = total;
+        }
+
+        /**
+         * Ids of the requested matches, best first
+         */
+        public long[] getIds() {
+            return ids;
+        }
+
+        /**
+         * Number of all matches
+         */
+        public int getTotal() {
+            return total;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.spring.bookstore.util;
+
+import java.util.Arrays;
+
+/**
+ * Order summaries by owner id in primitive column arrays with open addressing and linear probing:
+ * orders count, pending orders count, paid total and the version of the summary.
+ * An entry takes about 64 bytes with the table at most half full, and nothing is boxed.
+ * A summary replaces the kept one only if its version is newer.
+ * Removed entries are filled by shifting the rest of their probe run back, so there are no tombstones.
+ * The table is not thread safe
+ */
+public class OrderSummaryTable {
+
+    private static final long EMPTY = 0;
+
+    private long[] keys;
+    private int[] ordersCounts;
+    private int[] pendingCounts;
+    private double[] paidTotals;
+    private long[] versions;
+    private int mask;
+    // 0 marks empty slots, so its entry is kept in the extra last slot
+    private boolean containsEmptyKey;
+    private int size;
+
+    public OrderSummaryTable(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(8, expectedSize * 2 - 1)) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Finding the slot of a summary
+     *
+     * @param key owner id
+     * @return slot to read the summary from, or -1 if there is no summary of the owner
+     */
+    public int find(long key) {
+        if (key == EMPTY) return containsEmptyKey ? keys.length - 1 : -1;
+        for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+            long current = keys[slot];
+            if (current == key) return slot;
+            if (current == EMPTY) return -1;
+        }
+    }
+
+    public int ordersCount(int slot) {
+        return ordersCounts[slot];
+    }
+
+    public int pendingCount(int slot) {
+        return pendingCounts[slot];
+    }
+
+    public double paidTotal(int slot) {
+        return paidTotals[slot];
+    }
+
+    public long version(int slot) {
+        return versions[slot];
+    }
+
+    /**
+     * Putting a summary unless the kept one is as new
+     *
+     * @param key     owner id
+     * @param version summary version
+     * @return false if the kept summary is as new or newer
+     */
+    public boolean put(long key, int ordersCount, int pendingCount, double paidTotal, long version) {
+        int slot;
+        if (key == EMPTY) {
+            slot = keys.length - 1;
+            if (containsEmptyKey && versions[slot] >= version) return false;
+            if (!containsEmptyKey) size++;
+            containsEmptyKey = true;
+        } else {
+            slot = slot(key);
+            while (keys[slot] != EMPTY && keys[slot] != key) slot = (slot + 1) & mask;
+            if (keys[slot] == key) {
+                if (versions[slot] >= version) return false;
+            } else {
+                keys[slot] = key;
+                size++;
+            }
+        }
+        ordersCounts[slot] = ordersCount;
+        pendingCounts[slot] = pendingCount;
+        paidTotals[slot] = paidTotal;
+        versions[slot] = version;
+        if (size * 2 > mask + 1) grow();
+        return true;
+    }
+
+    /**
+     * Removing a summary
+     *
+     * @param key owner id
+     * @return false if there was no summary of the owner
+     */
+    public boolean remove(long key) {
+        if (key == EMPTY) {
+            if (!containsEmptyKey) return false;
+            containsEmptyKey = false;
+            size--;
+            return true;
+        }
+        int slot = find(key);
+        if (slot < 0) return false;
+        shiftBack(slot);
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        containsEmptyKey = false;
+        size = 0;
+    }
+
+    private void shiftBack(int freeSlot) {
+        int slot = freeSlot;
+        while (true) {
+            slot = (slot + 1) & mask;
+            long current = keys[slot];
+            if (current == EMPTY) break;
+            // An entry can fill the free slot only if the free slot is between its home slot and its slot
+            int home = slot(current);
+            if (((slot - home) & mask) >= ((slot - freeSlot) & mask)) {
+                move(slot, freeSlot);
+                freeSlot = slot;
+            }
+        }
+        keys[freeSlot] = EMPTY;
+    }
+
+    private void move(int from, int to) {
+        keys[to] = keys[from];
+        ordersCounts[to] = ordersCounts[from];
+        pendingCounts[to] = pendingCounts[from];
+        paidTotals[to] = paidTotals[from];
+        versions[to] = versions[from];
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldOrdersCounts = ordersCounts;
+        int[] oldPendingCounts = pendingCounts;
+        double[] oldPaidTotals = paidTotals;
+        long[] oldVersions = versions;
+        int oldCapacity = mask + 1;
+        allocate(oldCapacity * 2);
+        for (int oldSlot = 0; oldSlot <= oldCapacity; oldSlot++) {
+            long key = oldKeys[oldSlot];
+            int slot = keys.length - 1;
+            if (oldSlot < oldCapacity) {
+                if (key == EMPTY) continue;
+                slot = slot(key);
+                while (keys[slot] != EMPTY) slot = (slot + 1) & mask;
+                keys[slot] = key;
+            }
+            ordersCounts[slot] = oldOrdersCounts[oldSlot];
+            pendingCounts[slot] = oldPendingCounts[oldSlot];
+            paidTotals[slot] = oldPaidTotals[oldSlot];
+            versions[slot] = oldVersions[oldSlot];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity + 1];
+        ordersCounts = new int[capacity + 1];
+        pendingCounts = new int[capacity + 1];
+        paidTotals = new double[capacity + 1];
+        versions = new long[capacity + 1];
+        mask = capacity - 1;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,269 @@
+package com.example.spring.bookstore.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Rows of id, price and quantity sorted by price, then by id, in primitive column arrays,
+ * with a bitmap of rows in stock. A price range is found with two binary searches
+ * and rows out of stock are skipped a bitmap word at a time.
+ * Prices never change, quantities are changed in place. Adding or removing a row shifts the rows after it,
+ * so the index suits data which is read and restocked far more often than added or removed.
+ * The index is not thread safe
+ */
+public class PriceStockIndex {
+
+    private final Map<Long, Double> pricesById = new HashMap<>();
+    private double[] prices = new double[16];
+    private long[] ids = new long[16];
+    private int[] quantities = new int[16];
+    private long[] inStock = new long[1];
+    private int size;
+
+    /**
+     * Adding a row, or replacing the quantity of a row which is in the index already
+     *
+     * @param id       row id
+     * @param price    row price
+     * @param quantity quantity in stock
+     */
+    public void put(long id, double price, int quantity) {
+        Double knownPrice = pricesById.get(id);
+        if (knownPrice != null) {
+            setQuantity(position(id, knownPrice), quantity);
+            return;
+        }
+        if (size == ids.length) grow();
+        int position = -insertionPoint(price, id) - 1;
+        int moved = size - position;
+        System.arraycopy(prices, position, prices, position + 1, moved);
+        System.arraycopy(ids, position, ids, position + 1, moved);
+        System.arraycopy(quantities, position, quantities, position + 1, moved);
+        shiftBitsUp(position);
+        size++;
+        prices[position] = price;
+        ids[position] = id;
+        quantities[position] = 0;
+        setQuantity(position, quantity);
+        pricesById.put(id, price);
+    }
+
+    /**
+     * Removing a row
+     *
+     * @param id row id
+     * @return false if the id is not in the index
+     */
+    public boolean remove(long id) {
+        Double price = pricesById.remove(id);
+        if (price == null) return false;
+        int position = position(id, price);
+        int moved = size - position - 1;
+        System.arraycopy(prices, position + 1, prices, position, moved);
+        System.arraycopy(ids, position + 1, ids, position, moved);
+        System.arraycopy(quantities, position + 1, quantities, position, moved);
+        shiftBitsDown(position);
+        size--;
+        return true;
+    }
+
+    /**
+     * Adding to the quantity of a row
+     *
+     * @param id    row id
+     * @param delta added quantity, negative for taken items
+     * @return false if the id is not in the index
+     */
+    public boolean addQuantity(long id, int delta) {
+        Double price = pricesById.get(id);
+        if (price == null) return false;
+        int position = position(id, price);
+        setQuantity(position, quantities[position] + delta);
+        return true;
+    }
+
+    /**
+     * Getting the quantity of a row
+     *
+     * @param id row id
+     * @return quantity, or -1 if the id is not in the index
+     */
+    public int quantity(long id) {
+        Double price = pricesById.get(id);
+        return price == null ? -1 : quantities[position(id, price)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        pricesById.clear();
+        prices = new double[16];
+        ids = new long[16];
+        quantities = new int[16];
+        inStock = new long[1];
+        size = 0;
+    }
+
+    /**
+     * Finding rows in a price range, in price order, then id order
+     *
+     * @param minPrice    lowest price, inclusive
+     * @param maxPrice    highest price, inclusive
+     * @param inStockOnly true to skip rows out of stock
+     * @param descending  true for the most expensive rows first
+     * @param afterPrice  price of the last row of the previous page, ignored if afterId is null
+     * @param afterId     id of the last row of the previous page, null for the first page
+     * @param limit       max number of rows
+     * @return ids and prices of found rows
+     */
+    public Rows find(double minPrice, double maxPrice, boolean inStockOnly, boolean descending,
+                     double afterPrice, Long afterId, int limit) {
+        // Rows from the first at or above the min price up to the first above the max price
+        int from = boundary(minPrice, Long.MIN_VALUE);
+        int to = boundary(maxPrice, Long.MAX_VALUE);
+        if (afterId != null) {
+            // The row of the cursor may be gone, then the rows after it start at its insertion point
+            int after = insertionPoint(afterPrice, afterId);
+            if (descending) to = Math.min(to, boundary(afterPrice, afterId));
+            else from = Math.max(from, after >= 0 ? after + 1 : -after - 1);
+        }
+
+        int[] found = new int[Math.max(0, Math.min(limit, to - from))];
+        int count = 0;
+        if (descending) {
+            for (int position = previous(to - 1, inStockOnly); position >= from && count < found.length;
+                 position = previous(position - 1, inStockOnly)) {
+                found[count++] = position;
+            }
+        } else {
+            for (int position = next(from, inStockOnly); position >= 0 && position < to && count < found.length;
+                 position = next(position + 1, inStockOnly)) {
+                found[count++] = position;
+            }
+        }
+
+        long[] foundIds = new long[count];
+        double[] foundPrices = new double[count];
+        for (int i = 0; i < count; i++) {
+            foundIds[i] = ids[found[i]];
+            foundPrices[i] = prices[found[i]];
+        }
+        return new Rows(foundIds, foundPrices);
+    }
+
+    private int next(int position, boolean inStockOnly) {
+        if (!inStockOnly) return position;
+        int word = position >>> 6;
+        if (word >= inStock.length) return -1;
+        long bits = inStock[word] & (-1L << position);
+        while (bits == 0) {
+            if (++word == inStock.length) return -1;
+            bits = inStock[word];
+        }
+        return word * 64 + Long.numberOfTrailingZeros(bits);
+    }
+
+    private int previous(int position, boolean inStockOnly) {
+        if (!inStockOnly || position < 0) return position;
+        int word = position >>> 6;
+        long bits = inStock[word] & (-1L >>> (63 - (position & 63)));
+        while (bits == 0) {
+            if (word-- == 0) return -1;
+            bits = inStock[word];
+        }
+        return word * 64 + 63 - Long.numberOfLeadingZeros(bits);
+    }
+
+    private void setQuantity(int position, int quantity) {
+        quantities[position] = quantity;
+        if (quantity > 0) inStock[position >>> 6] |= 1L << position;
+        else inStock[position >>> 6] &= ~(1L << position);
+    }
+
+    private int position(long id, double price) {
+        return insertionPoint(price, id);
+    }
+
+    /**
+     * Position of the row, or of the first row after it if there is no such row
+     */
+    private int boundary(double price, long id) {
+        int position = insertionPoint(price, id);
+        return position >= 0 ? position : -position - 1;
+    }
+
+    /**
+     * Binary search by price, then id
+     *
+     * @return position of the row, or -(insertion point) - 1 if there is no such row
+     */
+    private int insertionPoint(double price, long id) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = Double.compare(prices[middle], price);
+            if (comparison == 0) comparison = Long.compare(ids[middle], id);
+            if (comparison < 0) low = middle + 1;
+            else if (comparison > 0) high = middle - 1;
+            else return middle;
+        }
+        return -(low + 1);
+    }
+
+    private void grow() {
+        prices = Arrays.copyOf(prices, size * 2);
+        ids = Arrays.copyOf(ids, size * 2);
+        quantities = Arrays.copyOf(quantities, size * 2);
+        inStock = Arrays.copyOf(inStock, (size * 2 + 63) >>> 6);
+    }
+
+    /**
+     * Moving bits from the position on one bit up, the bit at the position is cleared
+     */
+    private void shiftBitsUp(int position) {
+        int word = position >>> 6;
+        for (int i = (size >>> 6); i > word; i--) {
+            inStock[i] = inStock[i] << 1 | inStock[i - 1] >>> 63;
+        }
+        long lowMask = (1L << position) - 1;
+        long current = inStock[word];
+        inStock[word] = (current & lowMask) | ((current & ~lowMask) << 1);
+    }
+
+    /**
+     * Moving bits after the position one bit down over it
+     */
+    private void shiftBitsDown(int position) {
+        int word = position >>> 6;
+        long lowMask = (1L << position) - 1;
+        long current = inStock[word];
+        long next = word + 1 < inStock.length ? inStock[word + 1] : 0;
+        inStock[word] = (current & lowMask) | ((current >>> 1) & ~lowMask) | next << 63;
+        for (int i = word + 1; i <= ((size - 1) >>> 6) && i < inStock.length; i++) {
+            long following = i + 1 < inStock.length ? inStock[i + 1] : 0;
+            inStock[i] = inStock[i] >>> 1 | following << 63;
+        }
+    }
+
+    public static class Rows {
+        private final long[] ids;
+        private final double[] prices;
+
+        private Rows(long[] ids, double[] prices) {
+            this.ids = ids;
+            this.prices = prices;
+        }
+
+        public long[] getIds() {
+            return ids;
+        }
+
+        public double[] getPrices() {
+            return prices;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.spring.bookstore.util;
+
+import java.util.Arrays;
+
+/**
+ * Space-Saving sketch of the heaviest keys of a stream in a fixed number of counters.
+ * A key without a counter takes the counter of the smallest one and inherits its count as the error,
+ * so a count is never below the true count of the key and never above it by more than its error.
+ * Any key counted more than total / capacity times has a counter.
+ * Counters are kept in primitive arrays with a min-heap by count and an open-addressing index by key,
+ * so counting is O(log capacity) and memory doesn't grow with the number of keys.
+ * The sketch is not thread safe
+ */
+public class SpaceSaving {
+
+    private static final int NO_COUNTER = -1;
+
+    private final long[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    // Counters ordered as a min-heap by count, and the heap position of every counter
+    private final int[] heap;
+    private final int[] heapPositions;
+    // Counter of each key, linear probing over a table at most half full
+    private final long[] indexKeys;
+    private final int[] indexCounters;
+    private final int indexMask;
+    private int size;
+
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive");
+        this.keys = new long[capacity];
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+        this.heap = new int[capacity];
+        this.heapPositions = new int[capacity];
+        int indexCapacity = Integer.highestOneBit(Math.max(8, capacity * 2 - 1)) << 1;
+        this.indexKeys = new long[indexCapacity];
+        this.indexCounters = new int[indexCapacity];
+        this.indexMask = indexCapacity - 1;
+        Arrays.fill(indexCounters, NO_COUNTER);
+    }
+
+    /**
+     * Counting a key
+     *
+     * @param key   key
+     * @param count how many times the key is seen, positive
+     */
+    public void offer(long key, long count) {
+        int counter = counter(key);
+        if (counter == NO_COUNTER) {
+            if (size < keys.length) {
+                // A new counter is the last heap leaf
+                counter = size++;
+                keys[counter] = key;
+                counts[counter] = count;
+                errors[counter] = 0;
+                index(key, counter);
+                siftUp(counter, counter);
+                return;
+            }
+            // The smallest counter is taken over, its count is the most the new key could have been missed
+            counter = heap[0];
+            unindex(keys[counter]);
+            errors[counter] = counts[counter];
+            keys[counter] = key;
+            index(key, counter);
+        }
+        counts[counter] += count;
+        siftDown(heapPositions[counter]);
+    }
+
+    /**
+     * Number of counters in use, counters are numbered from 0
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Most a key without a counter could have been counted, 0 until all counters are in use
+     */
+    public long minCount() {
+        return size < keys.length ? 0 : counts[heap[0]];
+    }
+
+    public long key(int counter) {
+        return keys[counter];
+    }
+
+    /**
+     * Counted times of the key of a counter, never below the true count
+     */
+    public long count(int counter) {
+        return counts[counter];
+    }
+
+    /**
+     * Most the count of a counter can be above the true count
+     */
+    public long error(int counter) {
+        return errors[counter];
+    }
+
+    private void siftUp(int position, int counter) {
+        long count = counts[counter];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (counts[heap[parent]] <= count) break;
+            heap[position] = heap[parent];
+            heapPositions[heap[position]] = position;
+            position = parent;
+        }
+        heap[position] = counter;
+        heapPositions[counter] = position;
+    }
+
+    private void siftDown(int position) {
+        int counter = heap[position];
+        long count = counts[counter];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) break;
+            if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) child++;
+            if (counts[heap[child]] >= count) break;
+            heap[position] = heap[child];
+            heapPositions[heap[position]] = position;
+            position = child;
+        }
+        heap[position] = counter;
+        heapPositions[counter] = position;
+    }
+
+    private int counter(long key) {
+        for (int slot = slot(key); ; slot = (slot + 1) & indexMask) {
+            int counter = indexCounters[slot];
+            if (counter == NO_COUNTER || indexKeys[slot] == key) return counter;
+        }
+    }
+
+    private void index(long key, int counter) {
+        int slot = slot(key);
+        while (indexCounters[slot] != NO_COUNTER) slot = (slot + 1) & indexMask;
+        indexKeys[slot] = key;
+        indexCounters[slot] = counter;
+    }
+
+    private void unindex(long key) {
+        int freeSlot = slot(key);
+        while (indexKeys[freeSlot] != key || indexCounters[freeSlot] == NO_COUNTER) {
+            freeSlot = (freeSlot + 1) & indexMask;
+        }
+        // The rest of the probe run is shifted back, so there are no tombstones
+        int slot = freeSlot;
+        while (true) {
+            slot = (slot + 1) & indexMask;
+            if (indexCounters[slot] == NO_COUNTER) break;
+            int home = slot(indexKeys[slot]);
+            if (((slot - home) & indexMask) >= ((slot - freeSlot) & indexMask)) {
+                indexKeys[freeSlot] = indexKeys[slot];
+                indexCounters[freeSlot] = indexCounters[slot];
+                freeSlot = slot;
+            }
+        }
+        indexCounters[freeSlot] = NO_COUNTER;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & indexMask;
+    }
+}
@@ -0,0 +1,242 @@
+package com.example.spring.bookstore.util;
+
+import java.util.LinkedHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded cache with W-TinyLFU admission.
+ * New entries go to a small LRU window. An entry leaving the window competes with the least recently used
+ * entry of the main segmented LRU, and the one which was used more often stays in the cache.
+ * Usage frequency is estimated by a count-min sketch which is halved periodically, so old popularity fades.
+ * Main entries used twice are protected from eviction until more popular entries push them out.
+ * Entries expire ttl after they are written. The cache is thread safe
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class TinyLfuCache<K, V> {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final int windowMaximum;
+    private final int mainMaximum;
+    private final int protectedMaximum;
+    private final FrequencySketch sketch;
+
+    // Access ordered, the least recently used entry goes first
+    private final LinkedHashMap<K, Entry<V>> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, Entry<V>> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, Entry<V>> protectedEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    public TinyLfuCache(int maximumSize, long ttlMillis, LongSupplier clock) {
+        if (maximumSize < 1) throw new IllegalArgumentException("Maximum size must be positive");
+        if (ttlMillis <= 0) throw new IllegalArgumentException("TTL must be positive");
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        this.windowMaximum = Math.max(1, maximumSize / 100);
+        this.mainMaximum = maximumSize - windowMaximum;
+        this.protectedMaximum = mainMaximum * 4 / 5;
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    /**
+     * Getting a value which is not expired yet
+     *
+     * @param key key
+     * @return value, or null if the key is not cached
+     */
+    public synchronized V get(K key) {
+        sketch.increment(key.hashCode());
+        Entry<V> entry = find(key);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        if (entry.expiresAt <= clock.getAsLong()) {
+            segment(entry.segment).remove(key);
+            missCount++;
+            return null;
+        }
+        if (entry.segment == PROBATION) promote(key, entry);
+        hitCount++;
+        return entry.value;
+    }
+
+    /**
+     * Putting a value, a new key may be rejected if it's used less often than cached keys
+     *
+     * @param key   key
+     * @param value value
+     */
+    public synchronized void put(K key, V value) {
+        sketch.increment(key.hashCode());
+        long expiresAt = clock.getAsLong() + ttlMillis;
+        Entry<V> entry = find(key);
+        if (entry != null) {
+            entry.value = value;
+            entry.expiresAt = expiresAt;
+            return;
+        }
+
+        window.put(key, new Entry<>(value, expiresAt));
+        if (window.size() > windowMaximum) {
+            K candidateKey = window.keySet().iterator().next();
+            admit(candidateKey, window.remove(candidateKey));
+        }
+    }
+
+    /**
+     * Removing a key
+     *
+     * @param key key
+     */
+    public synchronized void invalidate(K key) {
+        if (window.remove(key) == null && probation.remove(key) == null) {
+            protectedEntries.remove(key);
+        }
+    }
+
+    public synchronized void clear() {
+        window.clear();
+        probation.clear();
+        protectedEntries.clear();
+    }
+
+    public synchronized int size() {
+        return window.size() + probation.size() + protectedEntries.size();
+    }
+
+    public synchronized long hitCount() {
+        return hitCount;
+    }
+
+    public synchronized long missCount() {
+        return missCount;
+    }
+
+    public synchronized long evictionCount() {
+        return evictionCount;
+    }
+
+    private Entry<V> find(K key) {
+        Entry<V> entry = window.get(key);
+        if (entry == null) entry = protectedEntries.get(key);
+        if (entry == null) entry = probation.get(key);
+        return entry;
+    }
+
+    private LinkedHashMap<K, Entry<V>> segment(int segment) {
+        switch (segment) {
+            case WINDOW:
+                return window;
+            case PROBATION:
+                return probation;
+            default:
+                return protectedEntries;
+        }
+    }
+
+    private void promote(K key, Entry<V> entry) {
+        probation.remove(key);
+        entry.segment = PROTECTED;
+        protectedEntries.put(key, entry);
+        if (protectedEntries.size() > protectedMaximum) {
+            // The least recently used protected entry gets one more chance in probation
+            K demotedKey = protectedEntries.keySet().iterator().next();
+            Entry<V> demoted = protectedEntries.remove(demotedKey);
+            demoted.segment = PROBATION;
+            probation.put(demotedKey, demoted);
+        }
+    }
+
+    private void admit(K candidateKey, Entry<V> candidate) {
+        candidate.segment = PROBATION;
+        if (probation.size() + protectedEntries.size() < mainMaximum) {
+            probation.put(candidateKey, candidate);
+            return;
+        }
+        evictionCount++;
+        if (mainMaximum == 0) return;
+
+        LinkedHashMap<K, Entry<V>> victims = probation.isEmpty() ? protectedEntries : probation;
+        K victimKey = victims.keySet().iterator().next();
+        if (sketch.frequency(candidateKey.hashCode()) > sketch.frequency(victimKey.hashCode())) {
+            victims.remove(victimKey);
+            probation.put(candidateKey, candidate);
+        }
+    }
+
+    private static class Entry<V> {
+        private V value;
+        private long expiresAt;
+        private int segment = WINDOW;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4 rows of counters up to 15.
+     * All counters are halved after every sample of increments
+     */
+    static class FrequencySketch {
+
+        private static final int[] SEEDS = {0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F};
+        private static final int MAX_COUNT = 15;
+
+        private final byte[][] table = new byte[SEEDS.length][];
+        private final int mask;
+        private final int sampleSize;
+        private int increments;
+
+        FrequencySketch(int maximumSize) {
+            int width = Integer.highestOneBit(Math.max(16, maximumSize - 1) << 1);
+            for (int row = 0; row < table.length; row++) table[row] = new byte[width];
+            this.mask = width - 1;
+            this.sampleSize = 10 * width;
+        }
+
+        void increment(int hash) {
+            boolean incremented = false;
+            for (int row = 0; row < table.length; row++) {
+                int index = index(hash, row);
+                if (table[row][index] < MAX_COUNT) {
+                    table[row][index]++;
+                    incremented = true;
+                }
+            }
+            if (incremented && ++increments >= sampleSize) reset();
+        }
+
+        int frequency(int hash) {
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < table.length; row++) {
+                frequency = Math.min(frequency, table[row][index(hash, row)]);
+            }
+            return frequency;
+        }
+
+        private int index(int hash, int row) {
+            int h = hash * SEEDS[row];
+            h ^= h >>> 16;
+            return h & mask;
+        }
+
+        private void reset() {
+            for (byte[] counters : table) {
+                for (int i = 0; i < counters.length; i++) counters[i] >>= 1;
+            }
+            increments /= 2;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.spring.bookstore.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Heaviest keys of the last time window in a ring of time buckets, each bucket with a Space-Saving sketch.
+ * The bucket of a moment is found by its bucket number, a bucket left from a previous turn of the ring
+ * is replaced by compare-and-set, so rotation takes no lock. Sketches are counted under their own
+ * bucket monitor. A count made into a bucket just replaced by the next turn of the ring is lost.
+ * Memory is buckets * capacity counters whatever the number of keys is.
+ * A window is made of whole buckets, the current bucket included. The current bucket is only partly over,
+ * so a window of n buckets spans between n - 1 and n bucket lengths
+ */
+public class WindowedTopK {
+
+    private final long bucketMillis;
+    private final int capacity;
+    private final LongSupplier clock;
+    private final AtomicReferenceArray<Bucket> buckets;
+
+    /**
+     * @param bucketMillis length of a bucket
+     * @param bucketCount  number of buckets, the longest window is at least bucketMillis * (bucketCount - 1)
+     * @param capacity     counters of each bucket sketch
+     * @param clock        current time in milliseconds
+     */
+    public WindowedTopK(long bucketMillis, int bucketCount, int capacity, LongSupplier clock) {
+        this.bucketMillis = bucketMillis;
+        this.capacity = capacity;
+        this.clock = clock;
+        this.buckets = new AtomicReferenceArray<>(bucketCount);
+    }
+
+    /**
+     * Counting a key in the current bucket
+     *
+     * @param key   key
+     * @param count how many times the key is seen, positive
+     */
+    public void offer(long key, long count) {
+        Bucket bucket = bucket(clock.getAsLong() / bucketMillis);
+        synchronized (bucket) {
+            bucket.sketch.offer(key, count);
+        }
+    }
+
+    /**
+     * Finding the heaviest keys of the last buckets.
+     * Counts of a key are summed over the buckets, so are their errors.
+     * A full bucket without the key adds its smallest count to both
+     *
+     * @param bucketCount number of last buckets, the current partly over one included
+     * @param limit       max number of keys
+     * @return keys with the highest counts, highest first
+     */
+    public Top top(int bucketCount, int limit) {
+        long current = clock.getAsLong() / bucketMillis;
+        long oldest = current - Math.min(bucketCount, buckets.length()) + 1;
+        // Count, error and the smallest counts of the buckets the key is counted in
+        Map<Long, long[]> merged = new HashMap<>();
+        long minCounts = 0;
+        for (int index = 0; index < buckets.length(); index++) {
+            Bucket bucket = buckets.get(index);
+            if (bucket == null || bucket.number < oldest || bucket.number > current) continue;
+            synchronized (bucket) {
+                SpaceSaving sketch = bucket.sketch;
+                long minCount = sketch.minCount();
+                minCounts += minCount;
+                for (int counter = 0; counter < sketch.size(); counter++) {
+                    long[] merge = merged.computeIfAbsent(sketch.key(counter), key -> new long[3]);
+                    merge[0] += sketch.count(counter);
+                    merge[1] += sketch.error(counter);
+                    merge[2] += minCount;
+                }
+            }
+        }
+        // A key missing from a full bucket could have been counted there up to the smallest count of the bucket
+        for (long[] merge : merged.values()) {
+            merge[0] += minCounts - merge[2];
+            merge[1] += minCounts - merge[2];
+        }
+
+        @SuppressWarnings("unchecked")
+        Map.Entry<Long, long[]>[] entries = merged.entrySet().toArray(new Map.Entry[0]);
+        Arrays.sort(entries, Comparator.<Map.Entry<Long, long[]>>comparingLong(entry -> -entry.getValue()[0])
+                .thenComparingLong(Map.Entry::getKey));
+        int size = Math.min(limit, entries.length);
+        long[] keys = new long[size];
+        long[] counts = new long[size];
+        long[] errors = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = entries[i].getKey();
+            counts[i] = entries[i].getValue()[0];
+            errors[i] = entries[i].getValue()[1];
+        }
+        return new Top(keys, counts, errors);
+    }
+
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    public int getBucketCount() {
+        return buckets.length();
+    }
+
+    public void clear() {
+        for (int index = 0; index < buckets.length(); index++) {
+            buckets.set(index, null);
+        }
+    }
+
+    private Bucket bucket(long number) {
+        int index = (int) Math.floorMod(number, (long) buckets.length());
+        while (true) {
+            Bucket bucket = buckets.get(index);
+            // A bucket of a later turn means the clock went back, the count goes to that bucket
+            if (bucket != null && bucket.number >= number) return bucket;
+            Bucket next = new Bucket(number, capacity);
+            if (buckets.compareAndSet(index, bucket, next)) return next;
+        }
+    }
+
+    private static class Bucket {
+        private final long number;
+        // Guarded by the bucket
+        private final SpaceSaving sketch;
+
+        private Bucket(long number, int capacity) {
+            this.number = number;
+            this.sketch = new SpaceSaving(capacity);
+        }
+    }
+
+    public static class Top {
+        private final long[] keys;
+        private final long[] counts;
+        private final long[] errors;
+
+        private Top(long[] keys, long[] counts, long[] errors) {
+            this.keys = keys;
+            this.counts = counts;
+            this.errors = errors;
+        }
+
+        public long[] getKeys() {
+            return keys;
+        }
+
+        /**
+         * Counts of the keys, never below the true counts
+         */
+        public long[] getCounts() {
+            return counts;
+        }
+
+        /**
+         * Most the counts can be above the true counts
+         */
+        public long[] getErrors() {
+            return errors;
+        }
+    }
+}
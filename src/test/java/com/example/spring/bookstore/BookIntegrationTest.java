@@ -1,10 +1,12 @@
 package com.example.spring.bookstore;
 
 import com.example.spring.bookstore.data.entity.Book;
+import com.example.spring.bookstore.data.view.BookPageView;
 import com.example.spring.bookstore.request.objects.BookRequest;
 import com.example.spring.bookstore.service.BookService;
 import com.example.spring.bookstore.util.DummyFiller;
 import com.google.gson.Gson;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -15,17 +17,24 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import static com.example.spring.bookstore.util.MvcUtils.mvcResultToClass;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
@@ -48,6 +57,12 @@ public class BookIntegrationTest {
     @Autowired
     private BookService bookService;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     @BeforeClass
     public static void setUp() {
         DummyFiller.fillDummyBooks(DUMMY_BOOKS);
@@ -83,6 +98,38 @@ public class BookIntegrationTest {
         Assert.assertEquals(allBooks[1].getName(), DUMMY_BOOKS.get(1).getName());
     }
 
+    @Test
+    public void rolledBackDeleteAllKeepsCachedBooks() throws Exception {
+        Book kept = bookService.addBook(new BookRequest("Kept Title", 12.34D, 2));
+        Long bookId = ((List<Book>) bookService.getAll()).get(0).getId();
+        String etag = mvc.perform(get("/api/books/" + bookId).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        new TransactionTemplate(transactionManager).execute(status -> {
+            bookService.deleteAll();
+            status.setRollbackOnly();
+            return null;
+        });
+
+        // Nothing was deleted, so the cache isn't cleared and the ETag still matches
+        mvc.perform(get("/api/books/" + bookId).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+        // Search and filtered pages are served from their in-memory indexes, which are kept too
+        mvc.perform(get("/api/books/search").param("q", "kept").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.total", is(1)))
+                .andExpect(jsonPath("$.books[0].name", is(kept.getName())));
+        mvc.perform(get("/api/books")
+                .param("minPrice", "12.34")
+                .param("maxPrice", "12.34")
+                .param("inStock", "true")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books", hasSize(1)))
+                .andExpect(jsonPath("$.books[0].name", is(kept.getName())));
+    }
+
     @Test
     public void getBookByIdWorks() throws Exception {
         List<Book> books = (List<Book>) bookService.getAll();
@@ -144,6 +191,30 @@ public class BookIntegrationTest {
         Assert.assertEquals(((List<Book>) bookService.getAll()).size(), booksCount);
     }
 
+    @Test
+    public void unknownBookIdIsCountedByIdFilter() throws Exception {
+        List<Book> books = (List<Book>) bookService.getAll();
+        Long maxBookId = 0L;
+        for (Book book : books) {
+            if (maxBookId < book.getId()) maxBookId = book.getId();
+        }
+        double unknownIdsBefore = countUnknownBookIds();
+
+        mvc.perform(
+                get("/api/books/" + (maxBookId + 1000L))
+                        .accept(MediaType.APPLICATION_JSON)
+        )
+                .andExpect(status().isNotFound())
+                .andReturn();
+        // The id is either rejected by the filter or passes it as a false positive
+        Assert.assertEquals(countUnknownBookIds(), unknownIdsBefore + 1, DOUBLE_DELTA);
+    }
+
+    private double countUnknownBookIds() {
+        return meterRegistry.get("bookstore.ids.filter.rejected").tag("ids", "books").functionCounter().count()
+                + meterRegistry.get("bookstore.ids.filter.false-positives").tag("ids", "books").functionCounter().count();
+    }
+
     @Test
     public void creatingNewBookFromRequestCreatesIt() throws Exception {
         BookRequest bookRequest = new BookRequest("Name", 150D, 1);
@@ -175,4 +246,147 @@ public class BookIntegrationTest {
                 .andExpect(status().isCreated())
                 .andExpect(jsonPath("$", hasSize(10)));
     }
+
+    @Test
+    public void pagesOfBooksContainEveryBookOnce() throws Exception {
+        String[][] sorts = {{"id", "asc"}, {"name", "desc"}, {"price", "asc"}, {"price", "desc"}};
+        for (String[] sort : sorts) {
+            Set<Long> bookIds = new HashSet<>();
+            List<Book> sortedBooks = new ArrayList<>();
+            MvcResult result = mvc.perform(
+                    get("/api/books")
+                            .param("sort", sort[0])
+                            .param("direction", sort[1])
+                            .param("size", "2")
+                            .accept(MediaType.APPLICATION_JSON)
+            )
+                    .andExpect(status().isOk())
+                    .andReturn();
+            BookPageView page = mvcResultToClass(result, BookPageView.class);
+            while (true) {
+                Assert.assertTrue(page.getBooks().size() <= 2);
+                for (Book book : page.getBooks()) {
+                    Assert.assertTrue("Book " + book.getId() + " is returned twice", bookIds.add(book.getId()));
+                    sortedBooks.add(book);
+                }
+                if (page.getNextCursor() == null) break;
+                result = mvc.perform(
+                        get("/api/books")
+                                .param("cursor", page.getNextCursor())
+                                .accept(MediaType.APPLICATION_JSON)
+                )
+                        .andExpect(status().isOk())
+                        .andReturn();
+                page = mvcResultToClass(result, BookPageView.class);
+            }
+            Assert.assertEquals(DUMMY_BOOKS.size(), sortedBooks.size());
+
+            boolean descending = "desc".equals(sort[1]);
+            for (int i = 1; i < sortedBooks.size(); i++) {
+                Book previous = sortedBooks.get(i - 1);
+                Book book = sortedBooks.get(i);
+                int comparison;
+                if ("name".equals(sort[0])) {
+                    comparison = previous.getName().compareTo(book.getName());
+                } else if ("price".equals(sort[0])) {
+                    comparison = Double.compare(previous.getPrice(), book.getPrice());
+                } else {
+                    comparison = 0;
+                }
+                if (comparison == 0) comparison = previous.getId().compareTo(book.getId());
+                Assert.assertTrue(descending ? comparison > 0 : comparison < 0);
+            }
+        }
+    }
+
+    @Test
+    public void notValidPageParamsReturnBadRequest() throws Exception {
+        mvc.perform(get("/api/books").param("cursor", "not a cursor").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.fieldErrors[0].field", is("cursor")));
+        mvc.perform(get("/api/books").param("sort", "quantity").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.fieldErrors[0].field", is("sort")));
+        mvc.perform(get("/api/books").param("size", "0").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.fieldErrors[0].field", is("size")));
+    }
+
+    @Test
+    public void searchFindsBooksByName() throws Exception {
+        bookService.addBook(new BookRequest("Bookkeeping", 10D, 1));
+
+        mvc.perform(get("/api/books/search").param("q", "book 3").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.total", is(1)))
+                .andExpect(jsonPath("$.books[0].name", is("Book 3")));
+        // Shorter names first, the next page is numbered while there are more matches
+        mvc.perform(get("/api/books/search").param("q", "BO").param("size", "2").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.total", is(DUMMY_BOOKS.size() + 1)))
+                .andExpect(jsonPath("$.books", hasSize(2)))
+                .andExpect(jsonPath("$.books[0].name", is("Book 1")))
+                .andExpect(jsonPath("$.nextPage", is(1)));
+        mvc.perform(get("/api/books/search").param("q", "keep").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books[0].name", is("Bookkeeping")));
+    }
+
+    @Test
+    public void deletedBookIsNotFoundBySearch() throws Exception {
+        Book book = bookService.addBook(new BookRequest("Removed Title", 10D, 1));
+        bookService.deleteById(book.getId());
+
+        mvc.perform(get("/api/books/search").param("q", "removed").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.total", is(0)))
+                .andExpect(jsonPath("$.books", hasSize(0)));
+    }
+
+    @Test
+    public void notValidSearchParamsReturnBadRequest() throws Exception {
+        mvc.perform(get("/api/books/search").param("q", " ").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.fieldErrors[0].field", is("q")));
+        mvc.perform(get("/api/books/search").param("q", "book").param("page", "-1").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.fieldErrors[0].field", is("page")));
+    }
+
+    @Test
+    public void booksAreFilteredByPriceAndStock() throws Exception {
+        Book cheap = bookService.addBook(new BookRequest("Cheap", 10D, 2));
+        bookService.addBook(new BookRequest("Sold Out", 15D, 0));
+        Book middle = bookService.addBook(new BookRequest("Middle", 20D, 1));
+
+        mvc.perform(get("/api/books")
+                .param("minPrice", "10")
+                .param("maxPrice", "20")
+                .param("inStock", "true")
+                .param("size", "1")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books", hasSize(1)))
+                .andExpect(jsonPath("$.books[0].name", is(cheap.getName())));
+
+        // Filters are passed again with the cursor
+        List<String> names = new ArrayList<>();
+        MvcResult result = mvc.perform(get("/api/books")
+                .param("maxPrice", "100").param("inStock", "true").param("size", "1").param("direction", "desc")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andReturn();
+        BookPageView page = mvcResultToClass(result, BookPageView.class);
+        names.add(page.getBooks().get(0).getName());
+        while (page.getNextCursor() != null) {
+            result = mvc.perform(get("/api/books")
+                    .param("maxPrice", "100").param("inStock", "true").param("cursor", page.getNextCursor())
+                    .accept(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isOk())
+                    .andReturn();
+            page = mvcResultToClass(result, BookPageView.class);
+            for (Book book : page.getBooks()) names.add(book.getName());
+        }
+        Assert.assertEquals(names, Arrays.asList(middle.getName(), cheap.getName()));
+    }
 }
@@ -0,0 +1,183 @@
+package com.example.spring.bookstore;
+
+import com.example.spring.bookstore.data.entity.Book;
+import com.example.spring.bookstore.data.entity.Order;
+import com.example.spring.bookstore.data.entity.OrderItem;
+import com.example.spring.bookstore.data.entity.User;
+import com.example.spring.bookstore.request.objects.BookRequest;
+import com.example.spring.bookstore.request.objects.OrderRequest;
+import com.example.spring.bookstore.service.BookService;
+import com.example.spring.bookstore.service.OrderService;
+import com.example.spring.bookstore.service.UserService;
+import com.example.spring.bookstore.util.OrderRequestBuilder;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import javax.persistence.EntityManagerFactory;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Query counts of catalog, checkout and order reads with order history in the database.
+ * Heap allocated by every read is logged
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+public class FetchPlanIntegrationTest {
+
+    private final static Logger log = LoggerFactory.getLogger(FetchPlanIntegrationTest.class);
+
+    private final static int HISTORY_ORDERS = 50;
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private OrderService orderService;
+    @Autowired
+    private BookService bookService;
+    @Autowired
+    private UserService userService;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+    private List<Book> books;
+    private User user;
+    private Order lastOrder;
+
+    @Before
+    public void fillOrderHistory() throws Exception {
+        orderService.deleteAll();
+        bookService.deleteAll();
+        userService.deleteAll();
+
+        books = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            books.add(bookService.addBook(new BookRequest("History book " + i, 10D, HISTORY_ORDERS * 2)));
+        }
+        user = userService.addUser(new User("History user"));
+        for (int i = 0; i < HISTORY_ORDERS; i++) {
+            lastOrder = orderService.createOrder(orderRequest());
+        }
+
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+    }
+
+    @After
+    public void clearOrders() {
+        orderService.deleteAll();
+    }
+
+    @Test
+    public void catalogReadsDontLoadOrderHistory() throws Exception {
+        measure("GET /api/books", () -> mvc.perform(get("/api/books").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk()));
+        Assert.assertEquals(statistics.getPrepareStatementCount(), 1);
+        assertNoOrderHistoryLoaded();
+
+        measure("GET /api/books/{id}", () -> mvc.perform(get("/api/books/" + books.get(0).getId())
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk()));
+        Assert.assertEquals(statistics.getPrepareStatementCount(), 1);
+        assertNoOrderHistoryLoaded();
+    }
+
+    @Test
+    public void checkoutDoesntLoadOrderHistory() throws Exception {
+        OrderRequest orderRequest = orderRequest();
+        measure("createOrder", () -> orderService.createOrder(orderRequest));
+        assertNoOrderHistoryLoaded();
+        // The user is checked in memory and referenced without a select
+        Assert.assertEquals(statistics.getEntityStatistics(User.class.getName()).getLoadCount(), 0);
+    }
+
+    @Test
+    public void orderReadsUseOneQueryWithoutEntities() throws Exception {
+        measure("GET /api/orders", () -> mvc.perform(get("/api/orders").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk()));
+        Assert.assertEquals(statistics.getPrepareStatementCount(), 1);
+        assertNoEntitiesLoaded();
+
+        measure("GET /api/orders/{id}", () -> mvc.perform(get("/api/orders/" + lastOrder.getOrderId())
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk()));
+        Assert.assertEquals(statistics.getPrepareStatementCount(), 1);
+        assertNoEntitiesLoaded();
+
+        measure("GET /api/orders/filter", () -> mvc.perform(get("/api/orders/filter")
+                .param("userId", user.getId().toString())
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk()));
+        // The user is checked in memory
+        Assert.assertEquals(statistics.getPrepareStatementCount(), 1);
+        assertNoEntitiesLoaded();
+    }
+
+    private OrderRequest orderRequest() throws Exception {
+        OrderRequestBuilder builder = new OrderRequestBuilder().setUserId(user.getId());
+        for (Book book : books) builder.addBook(book.getId(), 1);
+        return builder.build();
+    }
+
+    private void assertNoOrderHistoryLoaded() {
+        Assert.assertEquals(statistics.getEntityStatistics(OrderItem.class.getName()).getLoadCount(), 0);
+        Assert.assertEquals(statistics.getEntityStatistics(Order.class.getName()).getLoadCount(), 0);
+        Assert.assertEquals(statistics.getCollectionFetchCount(), 0);
+    }
+
+    // Order views are read as projections, no entity is hydrated
+    private void assertNoEntitiesLoaded() {
+        Assert.assertEquals(statistics.getEntityLoadCount(), 0);
+        Assert.assertEquals(statistics.getCollectionFetchCount(), 0);
+    }
+
+    /**
+     * Running the action with cleared statistics and logging its statements and allocated heap
+     */
+    private void measure(String name, Callable<?> action) throws Exception {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        long allocatedBefore = allocatedBytes(threadMXBean);
+        statistics.clear();
+        action.call();
+        long allocated = allocatedBytes(threadMXBean) - allocatedBefore;
+        log.info(
+                "{} with {} orders in history: {} statements, {} entities loaded, {} KB allocated",
+                name,
+                HISTORY_ORDERS,
+                statistics.getPrepareStatementCount(),
+                statistics.getEntityLoadCount(),
+                allocated / 1024
+        );
+    }
+
+    private static long allocatedBytes(ThreadMXBean threadMXBean) {
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId()
+            );
+        }
+        return 0;
+    }
+}
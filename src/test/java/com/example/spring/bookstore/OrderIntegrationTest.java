@@ -3,16 +3,27 @@ package com.example.spring.bookstore;
 import com.example.spring.bookstore.data.entity.Book;
 import com.example.spring.bookstore.data.entity.Order;
 import com.example.spring.bookstore.data.entity.User;
+import com.example.spring.bookstore.data.repository.OrderRepository;
+import com.example.spring.bookstore.data.view.OrderPageView;
+import com.example.spring.bookstore.data.view.OrderPayView;
+import com.example.spring.bookstore.data.view.OrderResultView;
+import com.example.spring.bookstore.data.view.OrderTicketView;
 import com.example.spring.bookstore.data.view.OrderView;
 import com.example.spring.bookstore.request.objects.BookItem;
 import com.example.spring.bookstore.request.objects.BookRequest;
 import com.example.spring.bookstore.request.objects.OrderRequest;
 import com.example.spring.bookstore.service.BookService;
+import com.example.spring.bookstore.service.IdempotencyService;
 import com.example.spring.bookstore.service.OrderService;
+import com.example.spring.bookstore.service.PendingOrderExpiry;
+import com.example.spring.bookstore.service.PendingOrderReaper;
 import com.example.spring.bookstore.service.UserService;
 import com.example.spring.bookstore.util.DummyFiller;
 import com.example.spring.bookstore.util.OrderRequestBuilder;
 import com.google.gson.Gson;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.*;
 import org.junit.runner.RunWith;
 import org.slf4j.Logger;
@@ -21,21 +32,34 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static com.example.spring.bookstore.util.MvcUtils.mvcResultToClass;
 import static junit.framework.TestCase.fail;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @RunWith(SpringRunner.class)
@@ -58,6 +82,14 @@ public class OrderIntegrationTest {
     private BookService bookService;
     @Autowired
     private UserService userService;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    private OrderRepository orderRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
 
     private List<User> users;
     private List<Book> books;
@@ -112,13 +144,60 @@ public class OrderIntegrationTest {
                 resultOrder.getUserId(),
                 users.get(0).getId()
         );
-        Set<BookItem> resultBookItems = resultOrder.getBooks();
+        List<BookItem> resultBookItems = resultOrder.getBooks();
         for (BookItem resultBookItem : resultBookItems) {
             Long bookId = resultBookItem.getBookId();
             Assert.assertTrue(bookId.equals(books.get(0).getId()) || bookId.equals(books.get(1).getId()));
         }
     }
 
+    @Test
+    public void sameIdempotencyKeyCreatesOrderOnce() throws Exception {
+        String idempotencyKey = UUID.randomUUID().toString();
+        int bookQuantity = books.get(0).getQuantity();
+        OrderRequest orderRequest = new OrderRequestBuilder()
+                .setUserId(users.get(0).getId())
+                .addBook(books.get(0).getId(), 1)
+                .build();
+
+        MvcResult firstResult = mvc.perform(post("/api/orders")
+                .header(IdempotencyService.IDEMPOTENCY_KEY_HEADER, idempotencyKey)
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .content(gson.toJson(orderRequest))
+        )
+                .andExpect(status().isCreated())
+                .andReturn();
+        MvcResult retriedResult = mvc.perform(post("/api/orders")
+                .header(IdempotencyService.IDEMPOTENCY_KEY_HEADER, idempotencyKey)
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .content(gson.toJson(orderRequest))
+        )
+                .andExpect(status().isCreated())
+                .andExpect(header().string(IdempotencyService.REPLAYED_HEADER, "true"))
+                .andReturn();
+
+        Assert.assertEquals(
+                mvcResultToClass(firstResult, OrderView.class).getOrderId(),
+                mvcResultToClass(retriedResult, OrderView.class).getOrderId()
+        );
+        Assert.assertEquals(bookService.getById(books.get(0).getId()).get().getQuantity(), bookQuantity - 1);
+
+        // The same key with another request is rejected
+        OrderRequest anotherRequest = new OrderRequestBuilder()
+                .setUserId(users.get(0).getId())
+                .addBook(books.get(0).getId(), 2)
+                .build();
+        mvc.perform(post("/api/orders")
+                .header(IdempotencyService.IDEMPOTENCY_KEY_HEADER, idempotencyKey)
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .content(gson.toJson(anotherRequest))
+        )
+                .andExpect(status().isUnprocessableEntity());
+    }
+
     @Test
     public void creatingOrderWithNoExistentUserOrBookReturnBadRequest() throws Exception {
         Long maxUserId = 0L;
@@ -151,6 +230,29 @@ public class OrderIntegrationTest {
         }
     }
 
+    @Test
+    public void orderOfDeletedBookCountsFalsePositive() throws Exception {
+        // Deleted ids stay in the filter, so the order looks the book up in the database
+        Long bookId = bookService.addBook(new BookRequest("Deleted book", 10D, 1)).getId();
+        bookService.deleteById(bookId);
+        double falsePositivesBefore = meterRegistry.get("bookstore.ids.filter.false-positives")
+                .tag("ids", "books").functionCounter().count();
+        OrderRequest orderRequest = new OrderRequestBuilder()
+                .setUserId(users.get(0).getId())
+                .addBook(bookId, 1)
+                .build();
+
+        mvc.perform(post("/api/orders")
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON_UTF8_VALUE)
+                .content(gson.toJson(orderRequest))
+        )
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.fieldErrors[0].field", is("books[].bookId")));
+        Assert.assertEquals(meterRegistry.get("bookstore.ids.filter.false-positives")
+                .tag("ids", "books").functionCounter().count(), falsePositivesBefore + 1, 0);
+    }
+
     @Test
     public void cantOrderMoreBooksThanStockQuantity() throws Exception {
         OrderRequest orderRequest = new OrderRequestBuilder()
@@ -217,6 +319,460 @@ public class OrderIntegrationTest {
         Assert.assertEquals(books.get(2).getQuantity(), book2Quantity);
     }
 
+    @Test
+    public void notEnoughBooksOfOneItemRollsBackWholeOrder() throws Exception {
+        int book0Quantity = books.get(0).getQuantity();
+        int book1Quantity = books.get(1).getQuantity();
+
+        OrderRequest orderRequest = new OrderRequestBuilder()
+                .setUserId(users.get(0).getId())
+                .addBook(books.get(0).getId(), 1)
+                .addBook(books.get(1).getId(), book1Quantity + 1)
+                .build();
+
+        mvc.perform(post("/api/orders")
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON_UTF8_VALUE)
+                .content(gson.toJson(orderRequest))
+        )
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.fieldErrors", hasSize(1)))
+                .andExpect(jsonPath("$.fieldErrors[0].rejectedValue", is(book1Quantity + 1)));
+
+        Assert.assertEquals(bookService.getById(books.get(0).getId()).get().getQuantity(), book0Quantity);
+        Assert.assertEquals(bookService.getById(books.get(1).getId()).get().getQuantity(), book1Quantity);
+    }
+
+    @Test
+    public void concurrentOrdersDontOversellBook() throws Exception {
+        Book book = books.get(0);
+        int ordersCount = book.getQuantity() * 2;
+        OrderRequest orderRequest = new OrderRequestBuilder()
+                .setUserId(users.get(0).getId())
+                .addBook(book.getId(), 1)
+                .build();
+
+        ExecutorService executor = Executors.newFixedThreadPool(ordersCount);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < ordersCount; i++) {
+            results.add(executor.submit(() -> {
+                try {
+                    orderService.createOrder(orderRequest);
+                    return true;
+                } catch (OrderService.OrderServiceFieldException e) {
+                    return false;
+                }
+            }));
+        }
+        int createdOrders = 0;
+        for (Future<Boolean> result : results) if (result.get()) createdOrders++;
+        executor.shutdown();
+
+        Assert.assertEquals(createdOrders, book.getQuantity());
+        Assert.assertEquals(bookService.getById(book.getId()).get().getQuantity(), 0);
+    }
+
+    @Test
+    public void batchOfOrdersCreatesAcceptedOrdersOnly() throws Exception {
+        int book0Quantity = books.get(0).getQuantity();
+        int book1Quantity = books.get(1).getQuantity();
+
+        OrderRequest acceptedRequest = new OrderRequestBuilder()
+                .setUserId(users.get(0).getId())
+                .addBook(books.get(0).getId(), 1)
+                .build();
+        OrderRequest notEnoughBooksRequest = new OrderRequestBuilder()
+                .setUserId(users.get(1).getId())
+                .addBook(books.get(1).getId(), book1Quantity + 1)
+                .build();
+        OrderRequest secondAcceptedRequest = new OrderRequestBuilder()
+                .setUserId(users.get(1).getId())
+                .addBook(books.get(0).getId(), book0Quantity - 1)
+                .addBook(books.get(1).getId(), 1)
+                .build();
+        OrderRequest soldOutRequest = new OrderRequestBuilder()
+                .setUserId(users.get(2).getId())
+                .addBook(books.get(0).getId(), 1)
+                .build();
+
+        mvc.perform(post("/api/orders/batch")
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON_UTF8_VALUE)
+                .content(gson.toJson(Arrays.asList(
+                        acceptedRequest,
+                        notEnoughBooksRequest,
+                        secondAcceptedRequest,
+                        soldOutRequest
+                )))
+        )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(4)))
+                .andExpect(jsonPath("$[0].status", is("CREATED")))
+                .andExpect(jsonPath("$[1].status", is("REJECTED")))
+                .andExpect(jsonPath("$[2].status", is("CREATED")))
+                .andExpect(jsonPath("$[3].status", is("REJECTED")));
+
+        Assert.assertEquals(bookService.getById(books.get(0).getId()).get().getQuantity(), 0);
+        Assert.assertEquals(bookService.getById(books.get(1).getId()).get().getQuantity(), book1Quantity - 1);
+        Assert.assertEquals(orderService.getAllOrders().spliterator().getExactSizeIfKnown(), 2);
+    }
+
+    @Test
+    public void batchRejectsOnlyOrdersOfHotBookWhichRanShort() throws Exception {
+        // One book in each of four slots
+        Long hotBookId = bookService.addBook(new BookRequest("Batch hot book", 10D, 4)).getId();
+        bookService.setStockSlots(hotBookId, 4);
+        Long bookId = books.get(1).getId();
+        int bookQuantity = books.get(1).getQuantity();
+        List<OrderRequest> orderRequests = Arrays.asList(
+                new OrderRequestBuilder().setUserId(users.get(0).getId())
+                        .addBook(hotBookId, 1).addBook(bookId, 1).build(),
+                new OrderRequestBuilder().setUserId(users.get(1).getId())
+                        .addBook(hotBookId, 1).build(),
+                new OrderRequestBuilder().setUserId(users.get(2).getId())
+                        .addBook(bookId, 1).build()
+        );
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch taken = new CountDownLatch(1);
+        CountDownLatch commit = new CountDownLatch(1);
+        // Three slots are emptied after the batch loads the book, only one book is left
+        Future<?> takeSlots = executor.submit(() -> new TransactionTemplate(transactionManager).execute(status -> {
+            jdbcTemplate.update("UPDATE book_stock_slot SET quantity = 0 WHERE book_id = ? AND slot > 0", hotBookId);
+            taken.countDown();
+            try {
+                commit.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return null;
+        }));
+        taken.await();
+        Future<List<OrderResultView>> batch = executor.submit(() -> orderService.createOrders(orderRequests));
+        for (int i = 0; i < 100 && waitingForLocks() == 0; i++) Thread.sleep(50);
+        commit.countDown();
+        takeSlots.get();
+
+        List<OrderResultView> results = batch.get();
+        executor.shutdown();
+        Assert.assertEquals(results.get(0).getStatus(), OrderResultView.Status.CREATED);
+        Assert.assertEquals(results.get(1).getStatus(), OrderResultView.Status.REJECTED);
+        Assert.assertEquals(results.get(2).getStatus(), OrderResultView.Status.CREATED);
+        Assert.assertEquals(bookService.getById(hotBookId).get().getQuantity(), 0);
+        Assert.assertEquals(bookService.getById(bookId).get().getQuantity(), bookQuantity - 2);
+        Assert.assertEquals(orderService.getAllOrders().spliterator().getExactSizeIfKnown(), 2);
+    }
+
+    @Test
+    public void acceptedOrderIsCreatedAsynchronously() throws Exception {
+        OrderRequest orderRequest = new OrderRequestBuilder()
+                .setUserId(users.get(0).getId())
+                .addBook(books.get(0).getId(), 1)
+                .build();
+
+        MvcResult result = mvc.perform(post("/api/orders/async")
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON_UTF8_VALUE)
+                .content(gson.toJson(orderRequest))
+        )
+                .andExpect(status().isAccepted())
+                .andReturn();
+        OrderTicketView ticket = mvcResultToClass(result, OrderTicketView.class);
+
+        for (int i = 0; i < 100 && ticket.getStatus() == OrderTicketView.Status.QUEUED; i++) {
+            Thread.sleep(50);
+            result = mvc.perform(get("/api/orders/tickets/" + ticket.getTicketId())
+                    .accept(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isOk())
+                    .andReturn();
+            ticket = mvcResultToClass(result, OrderTicketView.class);
+        }
+
+        Assert.assertEquals(ticket.getStatus(), OrderTicketView.Status.CREATED);
+        Assert.assertEquals(ticket.getOrder().getUserId(), users.get(0).getId());
+    }
+
+    @Test
+    public void overlappingOrdersDontDeadlock() throws Exception {
+        int ordersCount = 64;
+        // The registry lives as long as the context, only meters of this test are compared
+        double deadlocksBefore = retryCount("bookstore.retry.attempts", "reason", "deadlock");
+        double exhaustedBefore = retryCount("bookstore.retry.exhausted");
+        List<Long> bookIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            bookIds.add(bookService.addBook(new BookRequest("Stress book " + i, 10D, ordersCount)).getId());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(ordersCount);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Order>> results = new ArrayList<>();
+        for (int i = 0; i < ordersCount; i++) {
+            // Every order lists the same books in its own order
+            List<Long> orderBookIds = new ArrayList<>(bookIds);
+            Collections.shuffle(orderBookIds);
+            OrderRequestBuilder builder = new OrderRequestBuilder().setUserId(users.get(0).getId());
+            for (Long bookId : orderBookIds) builder.addBook(bookId, 1);
+            OrderRequest orderRequest = builder.build();
+            results.add(executor.submit(() -> {
+                start.await();
+                return orderService.createOrder(orderRequest);
+            }));
+        }
+        start.countDown();
+        for (Future<Order> result : results) Assert.assertNotNull(result.get());
+        executor.shutdown();
+
+        for (Long bookId : bookIds) {
+            Assert.assertEquals(bookService.getById(bookId).get().getQuantity(), 0);
+        }
+        Assert.assertEquals(retryCount("bookstore.retry.attempts", "reason", "deadlock"), deadlocksBefore, 0);
+        Assert.assertEquals(retryCount("bookstore.retry.exhausted"), exhaustedBefore, 0);
+    }
+
+    @Test
+    public void hotBookOrdersDontOversellAcrossSlots() throws Exception {
+        Book book = bookService.setStockSlots(books.get(0).getId(), 4);
+        Assert.assertEquals(book.getStockSlots(), 4);
+        Assert.assertEquals(book.getQuantity(), books.get(0).getQuantity());
+
+        int ordersCount = book.getQuantity() * 2;
+        OrderRequest orderRequest = new OrderRequestBuilder()
+                .setUserId(users.get(0).getId())
+                .addBook(book.getId(), 1)
+                .build();
+
+        ExecutorService executor = Executors.newFixedThreadPool(ordersCount);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < ordersCount; i++) {
+            results.add(executor.submit(() -> {
+                try {
+                    orderService.createOrder(orderRequest);
+                    return true;
+                } catch (OrderService.OrderServiceFieldException e) {
+                    return false;
+                }
+            }));
+        }
+        int createdOrders = 0;
+        for (Future<Boolean> result : results) if (result.get()) createdOrders++;
+        executor.shutdown();
+
+        Assert.assertEquals(createdOrders, book.getQuantity());
+        mvc.perform(get("/api/books/" + book.getId()).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.quantity", is(0)))
+                .andExpect(jsonPath("$.stockSlots", is(4)));
+
+        // Sales spread over several book_sales rows are summed, and taken back on cancellation
+        mvc.perform(get("/api/books/" + book.getId() + "/stats").accept(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.unitsSold", is(createdOrders)))
+                .andExpect(jsonPath("$.ordersCount", is(createdOrders)));
+        Assert.assertEquals(bookService.getSalesTotals().getBooksSold(), 1);
+        orderService.deleteAll();
+        mvc.perform(get("/api/books/" + book.getId() + "/stats").accept(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.unitsSold", is(0)))
+                .andExpect(jsonPath("$.ordersCount", is(0)));
+        Assert.assertEquals(bookService.getSalesTotals().getBooksSold(), 0);
+    }
+
+    @Test
+    public void hotBookOrderDrainsSeveralSlots() throws Exception {
+        // Five books in four slots, no single slot has three of them
+        Book book = bookService.setStockSlots(books.get(0).getId(), 4);
+        int quantity = book.getQuantity();
+        OrderRequest orderRequest = new OrderRequestBuilder()
+                .setUserId(users.get(0).getId())
+                .addBook(book.getId(), 3)
+                .addBook(books.get(1).getId(), 1)
+                .build();
+
+        Order order = orderService.createOrder(orderRequest);
+        Assert.assertEquals(bookService.getById(book.getId()).get().getQuantity(), quantity - 3);
+
+        // Deleted order returns the books to the slots
+        orderService.deleteById(order.getOrderId());
+        Assert.assertEquals(bookService.getById(book.getId()).get().getQuantity(), quantity);
+
+        // Turning hot mode off collapses the slots back into the book row
+        book = bookService.setStockSlots(book.getId(), 0);
+        Assert.assertEquals(book.getStockSlots(), 0);
+        Assert.assertEquals(book.getQuantity(), quantity);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void quantityOfHotBookCantBeSetInBookRow() throws Exception {
+        Book book = bookService.setStockSlots(books.get(0).getId(), 4);
+        book.setQuantity(book.getQuantity());
+    }
+
+    @Test
+    public void orderOfHotBookIsRetriedWhenSlotsAreCollapsed() throws Exception {
+        Long bookId = bookService.setStockSlots(books.get(0).getId(), 4).getId();
+        int quantity = books.get(0).getQuantity();
+        OrderRequest orderRequest = new OrderRequestBuilder()
+                .setUserId(users.get(0).getId())
+                .addBook(bookId, 1)
+                .build();
+        double retriesBefore = retryAttempts("createOrder", "optimistic");
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch collapsed = new CountDownLatch(1);
+        CountDownLatch commit = new CountDownLatch(1);
+        // Slots are collapsed and kept locked until the order waits for them
+        Future<?> collapse = executor.submit(() -> new TransactionTemplate(transactionManager).execute(status -> {
+            try {
+                bookService.setStockSlots(bookId, 0);
+                collapsed.countDown();
+                commit.await();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            return null;
+        }));
+        collapsed.await();
+        // The order still sees the book as hot and finds its slots gone once they are unlocked
+        Future<Order> order = executor.submit(() -> orderService.createOrder(orderRequest));
+        for (int i = 0; i < 100 && waitingForLocks() == 0; i++) Thread.sleep(50);
+        commit.countDown();
+        collapse.get();
+
+        Assert.assertNotNull(order.get());
+        executor.shutdown();
+        Assert.assertEquals(retryAttempts("createOrder", "optimistic") - retriesBefore, 1, 0);
+        Book book = bookService.getById(bookId).get();
+        Assert.assertEquals(book.getStockSlots(), 0);
+        Assert.assertEquals(book.getQuantity(), quantity - 1);
+    }
+
+    private double retryAttempts(String operation, String reason) {
+        return retryCount("bookstore.retry.attempts", "operation", operation, "reason", reason);
+    }
+
+    private double retryCount(String name, String... tags) {
+        return meterRegistry.find(name).tags(tags).counters().stream().mapToDouble(Counter::count).sum();
+    }
+
+    private int waitingForLocks() {
+        return jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM pg_stat_activity WHERE datname = current_database() AND wait_event_type = 'Lock'",
+                Integer.class
+        );
+    }
+
+    /**
+     * Rough comparison of the single row and the hot layouts under contention,
+     * timings are logged and only correctness is asserted
+     */
+    @Test
+    public void hotBookLayoutComparedToSingleRow() throws Exception {
+        int ordersCount = 400;
+        int threads = 32;
+        Long singleRowBookId = bookService.addBook(new BookRequest("Single row book", 10D, ordersCount)).getId();
+        Long hotBookId = bookService.addBook(new BookRequest("Hot book", 10D, ordersCount)).getId();
+        bookService.setStockSlots(hotBookId, 16);
+
+        long singleRowNanos = placeConcurrentOrders(singleRowBookId, ordersCount, threads);
+        long hotNanos = placeConcurrentOrders(hotBookId, ordersCount, threads);
+        log.info(
+                "{} orders of one book by {} threads, single row: {} ms, 16 slots: {} ms",
+                ordersCount,
+                threads,
+                singleRowNanos / 1_000_000,
+                hotNanos / 1_000_000
+        );
+
+        Assert.assertEquals(bookService.getById(singleRowBookId).get().getQuantity(), 0);
+        Assert.assertEquals(bookService.getById(hotBookId).get().getQuantity(), 0);
+    }
+
+    private long placeConcurrentOrders(Long bookId, int ordersCount, int threads) throws Exception {
+        OrderRequest orderRequest = new OrderRequestBuilder()
+                .setUserId(users.get(0).getId())
+                .addBook(bookId, 1)
+                .build();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Order>> results = new ArrayList<>();
+        for (int i = 0; i < ordersCount; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return orderService.createOrder(orderRequest);
+            }));
+        }
+        long startedAt = System.nanoTime();
+        start.countDown();
+        for (Future<Order> result : results) Assert.assertNotNull(result.get());
+        long elapsed = System.nanoTime() - startedAt;
+        executor.shutdown();
+        return elapsed;
+    }
+
+    @Test
+    public void cancelOrdersCancelsMatchingOrdersOnly() throws Exception {
+        Long bookId = books.get(0).getId();
+        int bookQuantity = books.get(0).getQuantity();
+        OrderRequest orderRequest = new OrderRequestBuilder()
+                .setUserId(users.get(0).getId())
+                .addBook(bookId, 1)
+                .build();
+        OrderRequest otherUserRequest = new OrderRequestBuilder()
+                .setUserId(users.get(1).getId())
+                .addBook(bookId, 1)
+                .build();
+
+        // Three pending orders of the user, more than one cancel chunk
+        for (int i = 0; i < 3; i++) orderService.createOrder(orderRequest);
+        Order paidOrder = orderService.createOrder(orderRequest);
+        orderService.orderSetPaidById(paidOrder.getOrderId());
+        Order otherUserOrder = orderService.createOrder(otherUserRequest);
+
+        mvc.perform(delete("/api/orders")
+                .param("status", "PENDING")
+                .param("userId", users.get(0).getId().toString())
+                .accept(MediaType.APPLICATION_JSON)
+        )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.cancelledOrders", is(3)))
+                .andExpect(jsonPath("$.returnedBooks." + bookId, is(3)));
+
+        Assert.assertTrue(orderService.getById(paidOrder.getOrderId()).isPresent());
+        Assert.assertTrue(orderService.getById(otherUserOrder.getOrderId()).isPresent());
+        Assert.assertEquals(bookService.getById(bookId).get().getQuantity(), bookQuantity - 2);
+
+        orderService.deleteAll();
+        Assert.assertFalse(orderService.getAllOrders().iterator().hasNext());
+        Assert.assertEquals(bookService.getById(bookId).get().getQuantity(), bookQuantity);
+    }
+
+    @Test
+    public void expiredPendingOrdersAreCancelled() throws Exception {
+        Long bookId = books.get(0).getId();
+        int bookQuantity = books.get(0).getQuantity();
+        OrderRequest orderRequest = new OrderRequestBuilder()
+                .setUserId(users.get(0).getId())
+                .addBook(bookId, 1)
+                .build();
+        Order pendingOrder = orderService.createOrder(orderRequest);
+        Order paidOrder = orderService.createOrder(orderRequest);
+        orderService.orderSetPaidById(paidOrder.getOrderId());
+
+        // A separate schedule, so the application reaper doesn't see the shifted time
+        PendingOrderExpiry expiry = new PendingOrderExpiry(1, 1000, 64);
+        PendingOrderReaper reaper = new PendingOrderReaper(
+                orderService, orderRepository, expiry, new SimpleMeterRegistry(), 1000
+        );
+        expiry.schedule(pendingOrder.getOrderId(), pendingOrder.getCreatedAt());
+        expiry.schedule(paidOrder.getOrderId(), paidOrder.getCreatedAt());
+
+        long expiresAt = pendingOrder.getCreatedAt().plus(expiry.getTtl()).toEpochMilli();
+        Assert.assertEquals(reaper.reapExpired(expiresAt - 2000), 0);
+        Assert.assertEquals(reaper.reapExpired(expiresAt + 2000), 1);
+
+        Assert.assertFalse(orderService.getById(pendingOrder.getOrderId()).isPresent());
+        Assert.assertTrue(orderService.getById(paidOrder.getOrderId()).isPresent());
+        Assert.assertEquals(bookService.getById(bookId).get().getQuantity(), bookQuantity - 1);
+    }
+
     @Test
     public void orderCanSetPaid() throws Exception {
         OrderRequest orderRequest = new OrderRequestBuilder()
@@ -233,6 +789,68 @@ public class OrderIntegrationTest {
                 .andExpect(jsonPath("$.status", is("PAID")));
     }
 
+    @Test
+    public void payingOrdersReportsEveryOrder() throws Exception {
+        OrderRequest orderRequest = new OrderRequestBuilder()
+                .setUserId(users.get(0).getId())
+                .addBook(books.get(0).getId(), 1)
+                .build();
+        Order pendingOrder = orderService.createOrder(orderRequest);
+        Order paidOrder = orderService.createOrder(orderRequest);
+        orderService.orderSetPaidById(paidOrder.getOrderId());
+        Long notExistingId = paidOrder.getOrderId() + 1000;
+
+        mvc.perform(post("/api/orders/pay")
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .content(gson.toJson(Arrays.asList(
+                        pendingOrder.getOrderId(),
+                        paidOrder.getOrderId(),
+                        notExistingId,
+                        pendingOrder.getOrderId()
+                )))
+        )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.paid", contains(pendingOrder.getOrderId().intValue())))
+                .andExpect(jsonPath("$.alreadyPaid", contains(paidOrder.getOrderId().intValue())))
+                .andExpect(jsonPath("$.notFound", contains(notExistingId.intValue())));
+
+        Assert.assertEquals(orderService.getById(pendingOrder.getOrderId()).get().getStatus(), Order.Status.PAID);
+    }
+
+    @Test
+    public void overlappingPaymentsDontDeadlock() throws Exception {
+        Long bookId = bookService.addBook(new BookRequest("Paid book", 10D, 200)).getId();
+        OrderRequest orderRequest = new OrderRequestBuilder()
+                .setUserId(users.get(0).getId())
+                .addBook(bookId, 1)
+                .build();
+        List<Long> orderIds = new ArrayList<>();
+        for (int i = 0; i < 200; i++) orderIds.add(orderService.createOrder(orderRequest).getOrderId());
+        double deadlocksBefore = retryCount("bookstore.retry.attempts", "reason", "deadlock");
+
+        int paymentsCount = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(paymentsCount);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<OrderPayView>> results = new ArrayList<>();
+        for (int i = 0; i < paymentsCount; i++) {
+            // Every payment lists the same orders in its own order
+            List<Long> paymentIds = new ArrayList<>(orderIds);
+            Collections.shuffle(paymentIds);
+            results.add(executor.submit(() -> {
+                start.await();
+                return orderService.payOrders(paymentIds);
+            }));
+        }
+        start.countDown();
+        int paidCount = 0;
+        for (Future<OrderPayView> result : results) paidCount += result.get().getPaid().size();
+        executor.shutdown();
+
+        Assert.assertEquals(paidCount, orderIds.size());
+        Assert.assertEquals(retryCount("bookstore.retry.attempts", "reason", "deadlock"), deadlocksBefore, 0);
+    }
+
     @Test
     public void cantSetPaidIfOrderIsPaid() throws Exception {
         OrderRequest orderRequest = new OrderRequestBuilder()
@@ -291,15 +909,16 @@ public class OrderIntegrationTest {
 
         OrderView[] orderViews = mvcResultToClass(result, OrderView[].class);
         Assert.assertEquals(orderViews.length, 2);
+        Assert.assertTrue(orderViews[0].getOrderId() < orderViews[1].getOrderId());
         for (OrderView orderView : orderViews) {
             if (orderView.getUserId().equals(users.get(0).getId())) {
-                Set<BookItem> bookItems = orderView.getBooks();
+                List<BookItem> bookItems = orderView.getBooks();
                 Assert.assertEquals(bookItems.spliterator().getExactSizeIfKnown(), 1);
                 BookItem bookItem = bookItems.stream().findFirst().get();
                 Assert.assertEquals(bookItem.getBookId(), books.get(0).getId());
                 Assert.assertEquals(bookItem.getQuantity(), 1);
             } else if (orderView.getUserId().equals(users.get(1).getId())) {
-                Set<BookItem> bookItems = orderView.getBooks();
+                List<BookItem> bookItems = orderView.getBooks();
                 Assert.assertEquals(bookItems.spliterator().getExactSizeIfKnown(), 1);
                 BookItem bookItem = bookItems.stream().findFirst().get();
                 Assert.assertEquals(bookItem.getBookId(), books.get(1).getId());
@@ -370,6 +989,110 @@ public class OrderIntegrationTest {
                 .andExpect(jsonPath("$[0].books[0].quantity", is(2)));
     }
 
+    @Test
+    public void streamAllOrdersReturnsEveryOrderWithItems() throws Exception {
+        List<Long> orderIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            OrderRequest orderRequest = new OrderRequestBuilder()
+                    .setUserId(users.get(i % users.size()).getId())
+                    .addBook(books.get(0).getId(), 1)
+                    .addBook(books.get(i + 1).getId(), 2)
+                    .build();
+            orderIds.add(orderService.createOrder(orderRequest).getOrderId());
+        }
+
+        MvcResult result = mvc.perform(get("/api/orders/stream").accept(MediaType.APPLICATION_JSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        result.getAsyncResult();
+        MvcResult streamed = mvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        OrderView[] orders = mvcResultToClass(streamed, OrderView[].class);
+        Assert.assertEquals(orderIds.size(), orders.length);
+        for (int i = 0; i < orders.length; i++) {
+            Assert.assertEquals(orderIds.get(i), orders[i].getOrderId());
+            Assert.assertEquals(users.get(i % users.size()).getId(), orders[i].getUserId());
+            Assert.assertEquals(2, orders[i].getBooks().size());
+            for (BookItem bookItem : orders[i].getBooks()) {
+                if (bookItem.getBookId().equals(books.get(0).getId())) {
+                    Assert.assertEquals(1, bookItem.getQuantity());
+                } else {
+                    Assert.assertEquals(books.get(i + 1).getId(), bookItem.getBookId());
+                    Assert.assertEquals(2, bookItem.getQuantity());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void searchOrdersPagesFromNewestOrder() throws Exception {
+        List<Long> userOrderIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            OrderRequest orderRequest = new OrderRequestBuilder()
+                    .setUserId(users.get(0).getId())
+                    .addBook(books.get(0).getId(), 1)
+                    .build();
+            userOrderIds.add(orderService.createOrder(orderRequest).getOrderId());
+        }
+        OrderRequest otherUserRequest = new OrderRequestBuilder()
+                .setUserId(users.get(1).getId())
+                .addBook(books.get(1).getId(), 1)
+                .build();
+        orderService.createOrder(otherUserRequest);
+        orderService.orderSetPaidById(userOrderIds.get(2));
+
+        List<Long> foundIds = new ArrayList<>();
+        String cursor = null;
+        do {
+            MockHttpServletRequestBuilder request = get("/api/orders/search")
+                    .param("userId", users.get(0).getId().toString())
+                    .param("size", "2")
+                    .accept(MediaType.APPLICATION_JSON);
+            if (cursor != null) request.param("cursor", cursor);
+            MvcResult result = mvc.perform(request)
+                    .andExpect(status().isOk())
+                    .andReturn();
+            OrderPageView page = mvcResultToClass(result, OrderPageView.class);
+            Assert.assertTrue(page.getOrders().size() <= 2);
+            for (OrderView order : page.getOrders()) {
+                Assert.assertEquals(users.get(0).getId(), order.getUserId());
+                foundIds.add(order.getOrderId());
+            }
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        // Orders of one thread are created in id order, newest orders go first
+        List<Long> expectedIds = new ArrayList<>(userOrderIds);
+        Collections.reverse(expectedIds);
+        Assert.assertEquals(expectedIds, foundIds);
+
+        mvc.perform(get("/api/orders/search")
+                .param("userId", users.get(0).getId().toString())
+                .param("status", "PAID")
+                .accept(MediaType.APPLICATION_JSON)
+        )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.orders", hasSize(1)))
+                .andExpect(jsonPath("$.orders[0].orderId", is(userOrderIds.get(2).intValue())))
+                .andExpect(jsonPath("$.nextCursor", nullValue()));
+
+        mvc.perform(get("/api/orders/search")
+                .param("createdFrom", Instant.now().plus(1, ChronoUnit.DAYS).toString())
+                .accept(MediaType.APPLICATION_JSON)
+        )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.orders", hasSize(0)));
+
+        mvc.perform(get("/api/orders/search")
+                .param("cursor", "not a cursor")
+                .accept(MediaType.APPLICATION_JSON)
+        )
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.fieldErrors[0].field", is("cursor")));
+    }
+
     @Test
     public void cantGetOrdersFromNonExistentUserId() throws Exception {
         Long maxUserId = 0L;
@@ -432,6 +1155,85 @@ public class OrderIntegrationTest {
                 ));
     }
 
+    @Test
+    public void bookStatsCountCreatedAndDeletedOrders() throws Exception {
+        Book book = books.get(0);
+        Order order1 = orderService.createOrder(new OrderRequestBuilder()
+                .setUserId(users.get(0).getId())
+                .addBook(book.getId(), 2)
+                .build());
+        orderService.createOrder(new OrderRequestBuilder()
+                .setUserId(users.get(1).getId())
+                .addBook(book.getId(), 1)
+                .addBook(books.get(1).getId(), 1)
+                .build());
+
+        mvc.perform(get("/api/books/" + book.getId() + "/stats").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.unitsSold", is(3)))
+                .andExpect(jsonPath("$.revenue", closeTo(3 * book.getPrice(), 0.001)))
+                .andExpect(jsonPath("$.ordersCount", is(2)));
+        mvc.perform(get("/api/books/stats").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.booksSold", is(2)))
+                .andExpect(jsonPath("$.unitsSold", is(4)))
+                .andExpect(jsonPath("$.orderItems", is(3)));
+
+        orderService.deleteById(order1.getOrderId());
+        mvc.perform(get("/api/books/" + book.getId() + "/stats").accept(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.unitsSold", is(1)))
+                .andExpect(jsonPath("$.ordersCount", is(1)));
+
+        orderService.deleteAll();
+        mvc.perform(get("/api/books/stats").accept(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.booksSold", is(0)))
+                .andExpect(jsonPath("$.unitsSold", is(0)));
+        mvc.perform(get("/api/books/" + books.get(2).getId() + "/stats").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.unitsSold", is(0)));
+        mvc.perform(get("/api/books/" + Long.MAX_VALUE + "/stats").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void userSummaryFollowsCreatedPaidAndDeletedOrders() throws Exception {
+        User user = users.get(0);
+        Book book = books.get(0);
+        List<Order> orders = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            orders.add(orderService.createOrder(new OrderRequestBuilder()
+                    .setUserId(user.getId())
+                    .addBook(book.getId(), 1)
+                    .build()));
+        }
+        // The summary is read before the next changes, so they are applied to the kept summary
+        mvc.perform(get("/api/users/" + user.getId() + "/summary").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.ordersCount", is(3)))
+                .andExpect(jsonPath("$.pendingCount", is(3)))
+                .andExpect(jsonPath("$.paidTotal", closeTo(0, 0.001)));
+
+        orderService.orderSetPaidById(orders.get(0).getOrderId());
+        orderService.payOrders(Collections.singletonList(orders.get(1).getOrderId()));
+        mvc.perform(get("/api/users/" + user.getId() + "/summary").accept(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.ordersCount", is(3)))
+                .andExpect(jsonPath("$.pendingCount", is(1)))
+                .andExpect(jsonPath("$.paidTotal", closeTo(2 * book.getPrice(), 0.001)));
+
+        orderService.deleteById(orders.get(0).getOrderId());
+        orderService.cancelExpiredOrders(Collections.singletonList(orders.get(2).getOrderId()));
+        mvc.perform(get("/api/users/" + user.getId() + "/summary").accept(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.ordersCount", is(1)))
+                .andExpect(jsonPath("$.pendingCount", is(0)))
+                .andExpect(jsonPath("$.paidTotal", closeTo(book.getPrice(), 0.001)));
+
+        mvc.perform(get("/api/users/" + users.get(1).getId() + "/summary").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.ordersCount", is(0)));
+        mvc.perform(get("/api/users/" + Long.MAX_VALUE + "/summary").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound());
+    }
+
     @Test
     public void cantDeleteOrderWithNonExistentId() throws Exception {
         OrderRequest orderRequest = new OrderRequestBuilder()
@@ -13,10 +13,13 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -42,6 +45,9 @@ public class UserIntegrationTest {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     @BeforeClass
     public static void setUp() {
         DummyFiller.fillDummyUsers(DUMMY_USERS);
@@ -66,6 +72,22 @@ public class UserIntegrationTest {
         Assert.assertEquals(userService.getAll().spliterator().getExactSizeIfKnown(), 0);
     }
 
+    @Test
+    public void rolledBackDeleteAllKeepsUsersETag() throws Exception {
+        String etag = mvc.perform(get("/api/users").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        new TransactionTemplate(transactionManager).execute(status -> {
+            userService.deleteAll();
+            status.setRollbackOnly();
+            return null;
+        });
+
+        mvc.perform(get("/api/users").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+    }
+
     @Test
     public void getAllUsersWillReturnUsers() throws Exception {
         userService.deleteAll();
@@ -2,30 +2,60 @@ package com.example.spring.bookstore.controller;
 
 import com.example.spring.bookstore.BooksController;
 import com.example.spring.bookstore.data.entity.Book;
+import com.example.spring.bookstore.data.view.BestsellerView;
+import com.example.spring.bookstore.data.view.BookPageView;
+import com.example.spring.bookstore.data.view.BookSalesTotalsView;
+import com.example.spring.bookstore.data.view.BookSalesView;
+import com.example.spring.bookstore.request.objects.BookFilter;
+import com.example.spring.bookstore.request.objects.BookPageCursor;
 import com.example.spring.bookstore.request.objects.BookRequest;
+import com.example.spring.bookstore.request.objects.BookSort;
+import com.example.spring.bookstore.service.Bestsellers;
 import com.example.spring.bookstore.service.BookService;
+import com.example.spring.bookstore.service.ResourceVersions;
 import com.google.gson.Gson;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.convert.DurationStyle;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.result.MockMvcResultHandlers;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Properties;
+import java.util.function.Consumer;
 
 import static java.util.Optional.ofNullable;
+import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @RunWith(SpringRunner.class)
@@ -37,6 +67,10 @@ public class BooksControllerTest {
 
     @MockBean
     private BookService bookService;
+    @MockBean
+    private Bestsellers bestsellers;
+    @SpyBean
+    private ResourceVersions resourceVersions;
 
     private Book book1, book2;
     private Gson gson;
@@ -48,6 +82,49 @@ public class BooksControllerTest {
         gson = new Gson();
     }
 
+    @Test
+    public void bestsellersReturnTopBooks() throws Exception {
+        when(bestsellers.getCapacity()).thenReturn(200);
+        when(bookService.getBestsellers(Duration.ofMinutes(30), 2)).thenReturn(Arrays.asList(
+                new BestsellerView(2L, 7, 0),
+                new BestsellerView(1L, 3, 1)
+        ));
+
+        mvc.perform(get("/api/books/bestsellers?window=30m&n=2").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].bookId", is(2)))
+                .andExpect(jsonPath("$[0].unitsSold", is(7)))
+                .andExpect(jsonPath("$[1].maxError", is(1)));
+        mvc.perform(get("/api/books/bestsellers?window=2d").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.fieldErrors[0].field", is("window")));
+        mvc.perform(get("/api/books/bestsellers?window=1x").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+        mvc.perform(get("/api/books/bestsellers?n=201").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.fieldErrors[0].field", is("n")));
+        verify(bookService, times(1)).getBestsellers(any(), eq(2));
+    }
+
+    @Test
+    public void bookStatsReturnSales() throws Exception {
+        when(bookService.getSales(1L)).thenReturn(ofNullable(new BookSalesView(1L, 3, 390, 2)));
+        when(bookService.getSales(2L)).thenReturn(ofNullable(null));
+        when(bookService.getSalesTotals()).thenReturn(new BookSalesTotalsView(1, 3, 390, 2));
+
+        mvc.perform(get("/api/books/1/stats").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.unitsSold", is(3)))
+                .andExpect(jsonPath("$.ordersCount", is(2)));
+        mvc.perform(get("/api/books/2/stats").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound());
+        mvc.perform(get("/api/books/stats").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.booksSold", is(1)))
+                .andExpect(jsonPath("$.revenue", is(390.0)));
+    }
+
     @Test
     public void getBookReturnBook() throws Exception {
         when(bookService.getById(1L)).thenReturn(ofNullable(book1));
@@ -74,6 +151,155 @@ public class BooksControllerTest {
                 .andExpect(jsonPath("$[1].quantity", is(book2.getQuantity())));
     }
 
+    @Test
+    public void getBookWithCurrentETagReturnNotModified() throws Exception {
+        when(bookService.getById(1L)).thenReturn(ofNullable(book1));
+        String etag = mvc.perform(get("/api/books/1").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mvc.perform(get("/api/books/1").header(HttpHeaders.IF_NONE_MATCH, etag).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, etag));
+        verify(bookService, times(1)).getById(1L);
+
+        // A changed book gets a new ETag
+        resourceVersions.books().changed(Collections.singleton(1L));
+        mvc.perform(get("/api/books/1").header(HttpHeaders.IF_NONE_MATCH, etag).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name", is(book1.getName())));
+    }
+
+    @Test
+    public void getBooksWithCurrentETagReturnNotModified() throws Exception {
+        when(bookService.getAll()).thenReturn(Collections.singletonList(book1));
+        String etag = mvc.perform(get("/api/books").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mvc.perform(get("/api/books").header(HttpHeaders.IF_NONE_MATCH, etag).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotModified());
+        verify(bookService, times(1)).getAll();
+    }
+
+    @Test
+    public void getBooksPageReturnPage() throws Exception {
+        List<Book> books = new ArrayList<>();
+        books.add(book2);
+        String nextCursor = new BookPageCursor(BookSort.PRICE, false, 2L, 100D).encode();
+        when(bookService.getPage(eq(BookSort.PRICE), eq(false), isNull(), eq(1)))
+                .thenReturn(new BookPageView(books, nextCursor));
+        mvc.perform(get("/api/books").param("sort", "price").param("size", "1").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books[0].name", is(book2.getName())))
+                .andExpect(jsonPath("$.nextCursor", is(nextCursor)));
+    }
+
+    @Test
+    public void getBooksPageByCursorUsesCursorSort() throws Exception {
+        List<Book> books = new ArrayList<>();
+        books.add(book1);
+        String cursor = new BookPageCursor(BookSort.NAME, true, 2L, "Book|2").encode();
+        when(bookService.getPage(eq(BookSort.NAME), eq(true), any(), eq(50)))
+                .thenReturn(new BookPageView(books, null));
+        mvc.perform(get("/api/books").param("cursor", cursor).param("sort", "id").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books[0].name", is(book1.getName())));
+    }
+
+    @Test
+    public void getBooksPageWithNotValidParamsReturnBadRequest() throws Exception {
+        mvc.perform(get("/api/books").param("size", "1001").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.fieldErrors[0].field", is("size")));
+        mvc.perform(get("/api/books").param("direction", "up").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.fieldErrors[0].field", is("direction")));
+        mvc.perform(get("/api/books").param("cursor", "%%%").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.fieldErrors[0].field", is("cursor")));
+    }
+
+    @Test
+    public void filteredBooksPageReturnPage() throws Exception {
+        List<Book> books = new ArrayList<>();
+        books.add(book2);
+        when(bookService.getFilteredPage(
+                argThat((BookFilter filter) -> filter.getMinPrice() == 50D && filter.getMaxPrice() == null && filter.isInStock()),
+                eq(true), isNull(), eq(50)
+        )).thenReturn(new BookPageView(books, null));
+        mvc.perform(get("/api/books")
+                .param("minPrice", "50")
+                .param("inStock", "true")
+                .param("direction", "desc")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books[0].name", is(book2.getName())));
+    }
+
+    @Test
+    public void filteredBooksPageWithNotValidParamsReturnBadRequest() throws Exception {
+        mvc.perform(get("/api/books").param("minPrice", "-1").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.fieldErrors[0].field", is("minPrice")));
+        mvc.perform(get("/api/books").param("minPrice", "20").param("maxPrice", "10").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.fieldErrors[0].field", is("maxPrice")));
+        mvc.perform(get("/api/books").param("inStock", "true").param("sort", "name").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.fieldErrors[0].field", is("sort")));
+        String nameCursor = new BookPageCursor(BookSort.NAME, false, 2L, "Book 2").encode();
+        mvc.perform(get("/api/books").param("inStock", "true").param("cursor", nameCursor).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.fieldErrors[0].field", is("cursor")));
+    }
+
+    @Test
+    public void streamAllBooksWritesEveryBook() throws Exception {
+        doAnswer(invocation -> {
+            Consumer<Book> consumer = invocation.getArgument(0);
+            consumer.accept(book1);
+            consumer.accept(book2);
+            return null;
+        }).when(bookService).streamAll(any());
+
+        MvcResult result = mvc.perform(get("/api/books/stream").accept(MediaType.APPLICATION_JSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        result.getAsyncResult();
+        mvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].name", is(book1.getName())))
+                .andExpect(jsonPath("$[1].name", is(book2.getName())));
+    }
+
+    @Test
+    public void streamOutlivesContainerDefaultTimeout() throws Exception {
+        doAnswer(invocation -> {
+            Consumer<Book> consumer = invocation.getArgument(0);
+            consumer.accept(book1);
+            consumer.accept(book2);
+            return null;
+        }).when(bookService).streamAll(any());
+        // Test properties shadow the main ones, the shipped timeout is read from the main file
+        Properties mainProperties = PropertiesLoaderUtils.loadProperties(
+                new FileSystemResource("src/main/resources/application.properties"));
+        Duration shippedTimeout = DurationStyle.detectAndParse(
+                mainProperties.getProperty("spring.mvc.async.request-timeout"));
+
+        MvcResult result = mvc.perform(get("/api/books/stream").accept(MediaType.APPLICATION_JSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        // The container would end the request after about 30 seconds without the configured timeout
+        Assert.assertTrue(shippedTimeout.compareTo(Duration.ofMinutes(30)) >= 0);
+        Assert.assertEquals(result.getRequest().getAsyncContext().getTimeout(), shippedTimeout.toMillis());
+        result.getAsyncResult();
+        mvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)));
+    }
+
     @Test
     public void bookNotFoundTest() throws Exception {
         mvc.perform(get("/api/books/1").accept(MediaType.APPLICATION_JSON))
@@ -94,6 +320,29 @@ public class BooksControllerTest {
     }
 
 
+    @Test
+    public void setStockSlotsReturnBook() throws Exception {
+        when(bookService.setStockSlots(1L, 8)).thenReturn(book1);
+        mvc.perform(post("/api/books/1/hot").param("slots", "8").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name", is(book1.getName())))
+                .andExpect(jsonPath("$.quantity", is(book1.getQuantity())));
+    }
+
+    @Test
+    public void setStockSlotsOutOfRangeReturnBadRequest() throws Exception {
+        mvc.perform(post("/api/books/1/hot").param("slots", "65").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.fieldErrors[0].field", is("slots")));
+    }
+
+    @Test
+    public void setStockSlotsOfNotExistedBookReturnNotFound() throws Exception {
+        when(bookService.setStockSlots(1L, 8)).thenThrow(new BookService.BookNotExistException());
+        mvc.perform(post("/api/books/1/hot").param("slots", "8").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound());
+    }
+
     @Test
     public void createBookReturnIsCreated() throws Exception {
         BookRequest bookRequest = new BookRequest("Book 1", 150.0, 5);
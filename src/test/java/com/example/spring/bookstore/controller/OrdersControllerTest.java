@@ -4,10 +4,19 @@ package com.example.spring.bookstore.controller;
 import com.example.spring.bookstore.OrdersController;
 import com.example.spring.bookstore.data.entity.Order;
 import com.example.spring.bookstore.data.entity.User;
+import com.example.spring.bookstore.data.view.OrderCancelView;
+import com.example.spring.bookstore.data.view.OrderPayView;
+import com.example.spring.bookstore.data.view.OrderResultView;
+import com.example.spring.bookstore.data.view.OrderTicketView;
+import com.example.spring.bookstore.data.view.OrderView;
 import com.example.spring.bookstore.errors.FieldErrorsView;
 import com.example.spring.bookstore.request.objects.BookItem;
+import com.example.spring.bookstore.request.objects.OrderFilter;
 import com.example.spring.bookstore.request.objects.OrderRequest;
+import com.example.spring.bookstore.service.IdempotencyService;
+import com.example.spring.bookstore.service.OrderIntakeQueue;
 import com.example.spring.bookstore.service.OrderService;
+import com.example.spring.bookstore.service.ResourceVersions;
 import com.google.gson.Gson;
 import org.junit.Before;
 import org.junit.Test;
@@ -17,18 +26,27 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 
 import java.util.*;
 
+import static org.hamcrest.Matchers.endsWith;
 import static org.hamcrest.Matchers.is;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.util.ReflectionTestUtils.setField;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -48,6 +66,12 @@ public class OrdersControllerTest {
     private MockMvc mvc;
     @MockBean
     private OrderService orderService;
+    @MockBean
+    private OrderIntakeQueue orderIntakeQueue;
+    @MockBean
+    private IdempotencyService idempotencyService;
+    @SpyBean
+    private ResourceVersions resourceVersions;
 
     private Gson gson;
     private User user;
@@ -92,10 +116,34 @@ public class OrdersControllerTest {
                 .andExpect(status().isNotFound());
     }
 
+    @Test
+    public void cancelOrdersWithFilterReturnCancelledOrders() throws Exception {
+        OrderCancelView cancelView = new OrderCancelView();
+        cancelView.addChunk(2, Collections.singletonMap(BOOK_ID, 3));
+        when(orderService.cancelOrders(any(OrderFilter.class))).thenReturn(cancelView);
+
+        mvc.perform(
+                delete("/api/orders").param("status", "PENDING").param("userId", USER_ID.toString())
+                        .accept(MediaType.APPLICATION_JSON_UTF8_VALUE)
+        )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.cancelledOrders", is(2)))
+                .andExpect(jsonPath("$.returnedBooks." + BOOK_ID, is(3)));
+    }
+
+    @Test
+    public void cancelOrdersWithoutFilterReturnBadRequest() throws Exception {
+        mvc.perform(
+                delete("/api/orders").accept(MediaType.APPLICATION_JSON_UTF8_VALUE)
+        )
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.fieldErrors[0].field", is("all")));
+    }
+
     @Test
     public void getAllOrdersReturnOrders() throws Exception {
-        List<Order> orders = new ArrayList<>();
-        orders.add(order);
+        List<OrderView> orders = new ArrayList<>();
+        orders.add(OrderView.fromOrder(order));
         when(orderService.getAllOrders()).thenReturn(orders);
         mvc.perform(
                 get("/api/orders").accept(MediaType.APPLICATION_JSON)
@@ -108,7 +156,7 @@ public class OrdersControllerTest {
     @Test
     public void getOrderReturnOrder() throws Exception {
         when(orderService.getById(ORDER_ID))
-                .thenReturn(java.util.Optional.ofNullable(order));
+                .thenReturn(java.util.Optional.of(OrderView.fromOrder(order)));
         mvc.perform(
                 get("/api/orders/" + ORDER_ID).accept(MediaType.APPLICATION_JSON)
         )
@@ -117,6 +165,34 @@ public class OrdersControllerTest {
                 .andExpect(jsonPath("$.orderId", is(ORDER_ID.intValue())));
     }
 
+    @Test
+    public void getOrderWithCurrentETagReturnNotModified() throws Exception {
+        when(orderService.getById(ORDER_ID))
+                .thenReturn(Optional.of(OrderView.fromOrder(order)));
+        String etag = mvc.perform(
+                get("/api/orders/" + ORDER_ID).accept(MediaType.APPLICATION_JSON)
+        )
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mvc.perform(
+                get("/api/orders/" + ORDER_ID).header(HttpHeaders.IF_NONE_MATCH, etag)
+                        .accept(MediaType.APPLICATION_JSON)
+        )
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, etag));
+        verify(orderService, times(1)).getById(ORDER_ID);
+
+        // A paid order gets a new ETag
+        resourceVersions.orders().changed(Collections.singleton(ORDER_ID));
+        mvc.perform(
+                get("/api/orders/" + ORDER_ID).header(HttpHeaders.IF_NONE_MATCH, etag)
+                        .accept(MediaType.APPLICATION_JSON)
+        )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.orderId", is(ORDER_ID.intValue())));
+    }
+
     @Test
     public void getNonExistentOrderReturnNotFound() throws Exception {
         when(orderService.getById(ORDER_ID))
@@ -129,8 +205,8 @@ public class OrdersControllerTest {
 
     @Test
     public void getOrdersUserReturnIsOk() throws Exception {
-        List<Order> orders = new ArrayList<>();
-        orders.add(order);
+        List<OrderView> orders = new ArrayList<>();
+        orders.add(OrderView.fromOrder(order));
         when(orderService.getOrdersByUserId(USER_ID)).thenReturn(orders);
         mvc.perform(
                 get("/api/orders/filter?userId=" + USER_ID)
@@ -196,6 +272,88 @@ public class OrdersControllerTest {
                 .andExpect(status().isBadRequest());
     }
 
+    @Test
+    public void createOrderWithIdempotencyKeyUsesIdempotencyService() throws Exception {
+        when(idempotencyService.execute(eq("order-key-1"), any(), any()))
+                .thenReturn(new ResponseEntity<>(HttpStatus.CONFLICT));
+
+        mvc.perform(post("/api/orders")
+                .header(IdempotencyService.IDEMPOTENCY_KEY_HEADER, "order-key-1")
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .content(gson.toJson(orderRequest))
+        )
+                .andExpect(status().isConflict());
+    }
+
+    @Test
+    public void createOrderWithTooLongIdempotencyKeyReturnBadRequest() throws Exception {
+        char[] key = new char[IdempotencyService.MAX_KEY_LENGTH + 1];
+        Arrays.fill(key, 'k');
+
+        mvc.perform(post("/api/orders")
+                .header(IdempotencyService.IDEMPOTENCY_KEY_HEADER, new String(key))
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .content(gson.toJson(orderRequest))
+        )
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.fieldErrors[0].field", is(IdempotencyService.IDEMPOTENCY_KEY_HEADER)));
+    }
+
+    @Test
+    public void createOrdersReturnResultPerOrder() throws Exception {
+        when(orderService.createOrders(any())).thenReturn(Arrays.asList(
+                OrderResultView.created(0, OrderView.fromOrder(order)),
+                OrderResultView.rejected(1, new FieldErrorsView("userId", "User doesn't exist", 10))
+        ));
+
+        mvc.perform(post("/api/orders/batch")
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .content(gson.toJson(Arrays.asList(orderRequest, orderRequest)))
+        )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status", is("CREATED")))
+                .andExpect(jsonPath("$[0].order.orderId", is(ORDER_ID.intValue())))
+                .andExpect(jsonPath("$[1].status", is("REJECTED")))
+                .andExpect(jsonPath("$[1].errors.fieldErrors[0].field", is("userId")));
+    }
+
+    @Test
+    public void acceptingOrderReturnAcceptedWithTicketLocation() throws Exception {
+        when(orderIntakeQueue.submit(any(OrderRequest.class)))
+                .thenReturn(Optional.of(OrderTicketView.queued("ticket")));
+
+        mvc.perform(post("/api/orders/async")
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .content(gson.toJson(orderRequest))
+        )
+                .andExpect(status().isAccepted())
+                .andExpect(header().string("Location", endsWith("/api/orders/tickets/ticket")))
+                .andExpect(jsonPath("$.status", is("QUEUED")));
+    }
+
+    @Test
+    public void acceptingOrderWithFullQueueReturnServiceUnavailable() throws Exception {
+        when(orderIntakeQueue.submit(any(OrderRequest.class))).thenReturn(Optional.empty());
+
+        mvc.perform(post("/api/orders/async")
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .content(gson.toJson(orderRequest))
+        )
+                .andExpect(status().isServiceUnavailable());
+    }
+
+    @Test
+    public void getNonExistentTicketReturnNotFound() throws Exception {
+        when(orderIntakeQueue.getTicket("ticket")).thenReturn(Optional.empty());
+        mvc.perform(get("/api/orders/tickets/ticket").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound());
+    }
+
     @Test
     public void settingPaidStatusReturnOrder() throws Exception {
         when(orderService.orderSetPaidById(any()))
@@ -224,4 +382,23 @@ public class OrdersControllerTest {
         )
                 .andExpect(status().isBadRequest());
     }
+
+    @Test
+    public void payingOrdersReturnPayResult() throws Exception {
+        when(orderService.payOrders(any())).thenReturn(new OrderPayView(
+                Collections.singletonList(ORDER_ID),
+                Collections.singletonList(10L),
+                Collections.singletonList(11L)
+        ));
+
+        mvc.perform(post("/api/orders/pay")
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .content(gson.toJson(Arrays.asList(ORDER_ID, 10L, 11L)))
+        )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.paid[0]", is(ORDER_ID.intValue())))
+                .andExpect(jsonPath("$.alreadyPaid[0]", is(10)))
+                .andExpect(jsonPath("$.notFound[0]", is(11)));
+    }
 }
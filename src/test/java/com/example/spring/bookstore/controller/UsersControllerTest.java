@@ -3,7 +3,10 @@ package com.example.spring.bookstore.controller;
 import com.example.spring.bookstore.UsersController;
 import com.example.spring.bookstore.data.entity.Order;
 import com.example.spring.bookstore.data.entity.User;
+import com.example.spring.bookstore.data.view.OrderView;
+import com.example.spring.bookstore.data.view.UserOrderSummaryView;
 import com.example.spring.bookstore.service.OrderService;
+import com.example.spring.bookstore.service.ResourceVersions;
 import com.example.spring.bookstore.service.UserService;
 import org.junit.Before;
 import org.junit.Test;
@@ -11,12 +14,12 @@ import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 
@@ -38,6 +41,8 @@ public class UsersControllerTest {
     private UserService userService;
     @MockBean
     private OrderService orderService;
+    @SpyBean
+    private ResourceVersions resourceVersions;
 
     private User user1, user2;
 
@@ -61,6 +66,19 @@ public class UsersControllerTest {
                 .andExpect(jsonPath("$[1].name", is("Name 2")));
     }
 
+    @Test
+    public void getUserSummaryReturnSummary() throws Exception {
+        when(userService.getOrderSummary(1L)).thenReturn(Optional.of(new UserOrderSummaryView(1L, 3, 1, 240)));
+        when(userService.getOrderSummary(2L)).thenReturn(Optional.empty());
+        mvc.perform(get("/api/users/1/summary").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.ordersCount", is(3)))
+                .andExpect(jsonPath("$.pendingCount", is(1)))
+                .andExpect(jsonPath("$.paidTotal", is(240.0)));
+        mvc.perform(get("/api/users/2/summary").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound());
+    }
+
     @Test
     public void getUserByIdReturnUser() throws Exception {
         when(userService.getById(1L)).thenReturn(java.util.Optional.ofNullable(user1));
@@ -93,15 +111,8 @@ public class UsersControllerTest {
 
     @Test
     public void getUserOrdersReturnOrders() throws Exception {
-        List<Order> orders = new ArrayList<>();
-        orders.add(
-                new Order(
-                        user1,
-                        1000D,
-                        new HashSet<>(),
-                        Order.Status.PENDING
-                )
-        );
+        List<OrderView> orders = new ArrayList<>();
+        orders.add(OrderView.of(2L, 1L, 1000D, Order.Status.PENDING, new ArrayList<>()));
         when(orderService.getOrdersByUserId(1L)).thenReturn(orders);
         mvc.perform(
                 get("/api/users/1/orders").accept(MediaType.APPLICATION_JSON)
@@ -0,0 +1,87 @@
+package com.example.spring.bookstore.data.repository;
+
+import com.example.spring.bookstore.data.entity.Order;
+import com.example.spring.bookstore.request.objects.OrderSearch;
+import com.example.spring.bookstore.request.objects.OrderSearchCursor;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Plans of order search and order item lookups.
+ * Sequential scans are disabled, so plans show which index the planner can use
+ * even though test tables are almost empty
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class OrderSearchPlanTest {
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private String explain(String sql, MapSqlParameterSource params) {
+        return new TransactionTemplate(transactionManager).execute(status -> {
+            jdbcTemplate.getJdbcTemplate().execute("SET LOCAL enable_seqscan = off");
+            List<String> plan = jdbcTemplate.queryForList("EXPLAIN " + sql, params, String.class);
+            return String.join("\n", plan);
+        });
+    }
+
+    private String explainSearch(OrderSearch search, OrderSearchCursor after) {
+        MapSqlParameterSource params = new MapSqlParameterSource("limit", 50);
+        return explain(OrderBulkRepositoryImpl.searchSql(search, after, params), params);
+    }
+
+    @Test
+    public void searchByUserUsesUserIndex() {
+        Instant now = Instant.now();
+        String plan = explainSearch(
+                new OrderSearch(null, 1L, now.minus(1, ChronoUnit.DAYS), now),
+                new OrderSearchCursor(now, 100L)
+        );
+        assertThat(plan, containsString("orders_user_id_created_at_idx"));
+    }
+
+    @Test
+    public void searchByStatusUsesStatusIndex() {
+        String plan = explainSearch(
+                new OrderSearch(Order.Status.PENDING, null, null, null),
+                new OrderSearchCursor(Instant.now(), 100L)
+        );
+        assertThat(plan, containsString("orders_status_created_at_idx"));
+    }
+
+    @Test
+    public void searchByTimeUsesCreatedAtIndex() {
+        Instant now = Instant.now();
+        String plan = explainSearch(new OrderSearch(null, null, now.minus(1, ChronoUnit.DAYS), now), null);
+        assertThat(plan, containsString("orders_created_at_idx"));
+    }
+
+    @Test
+    public void orderItemLookupsUseIndexes() {
+        assertThat(
+                explain("SELECT * FROM order_item WHERE order_id = :id", new MapSqlParameterSource("id", 1L)),
+                containsString("order_item_order_id_idx")
+        );
+        assertThat(
+                explain("SELECT * FROM order_item WHERE book_id = :id", new MapSqlParameterSource("id", 1L)),
+                containsString("order_item_book_id_idx")
+        );
+    }
+}
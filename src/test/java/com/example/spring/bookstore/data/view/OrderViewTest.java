@@ -0,0 +1,90 @@
+package com.example.spring.bookstore.data.view;
+
+import com.example.spring.bookstore.data.entity.Order;
+import com.example.spring.bookstore.request.objects.BookItem;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class OrderViewTest {
+
+    private final static Logger log = LoggerFactory.getLogger(OrderViewTest.class);
+
+    private final static int LARGE_RESPONSE_ORDERS = 100_000;
+    private final static int BOOKS_PER_ORDER = 3;
+
+    private static List<OrderItemRow> rows(int ordersCount) {
+        List<OrderItemRow> rows = new ArrayList<>(ordersCount * BOOKS_PER_ORDER);
+        for (long orderId = 1; orderId <= ordersCount; orderId++) {
+            for (long bookId = 1; bookId <= BOOKS_PER_ORDER; bookId++) {
+                rows.add(new OrderItemRow(orderId, orderId % 7, 10D * BOOKS_PER_ORDER,
+                        Order.Status.PENDING, bookId, (int) bookId));
+            }
+        }
+        return rows;
+    }
+
+    @Test
+    public void rowsAreGroupedByOrderInRowOrder() {
+        List<OrderItemRow> rows = new ArrayList<>();
+        rows.add(new OrderItemRow(1L, 10L, 30D, Order.Status.PAID, 1L, 1));
+        rows.add(new OrderItemRow(1L, 10L, 30D, Order.Status.PAID, 2L, 2));
+        rows.add(new OrderItemRow(2L, 11L, 0D, Order.Status.PENDING, null, null));
+        rows.add(new OrderItemRow(3L, 10L, 10D, Order.Status.PENDING, 2L, 1));
+
+        List<OrderView> orderViews = OrderView.fromRows(rows);
+        Assert.assertEquals(3, orderViews.size());
+        Assert.assertEquals(Long.valueOf(1L), orderViews.get(0).getOrderId());
+        Assert.assertEquals(Order.Status.PAID, orderViews.get(0).getStatus());
+        Assert.assertEquals(2, orderViews.get(0).getBooks().size());
+        Assert.assertEquals(Long.valueOf(1L), orderViews.get(0).getBooks().get(0).getBookId());
+        Assert.assertEquals(2, orderViews.get(0).getBooks().get(1).getQuantity());
+        Assert.assertTrue(orderViews.get(1).getBooks().isEmpty());
+        Assert.assertEquals(Long.valueOf(11L), orderViews.get(1).getUserId());
+        Assert.assertEquals(Long.valueOf(3L), orderViews.get(2).getOrderId());
+    }
+
+    @Test
+    public void grouperPassesOrderOnWhenNextOrderStarts() {
+        List<OrderView> orderViews = new ArrayList<>();
+        OrderView.RowGrouper grouper = new OrderView.RowGrouper(orderViews::add);
+
+        grouper.accept(new OrderItemRow(1L, 10L, 30D, Order.Status.PAID, 1L, 1));
+        grouper.accept(new OrderItemRow(1L, 10L, 30D, Order.Status.PAID, 2L, 2));
+        Assert.assertTrue(orderViews.isEmpty());
+        grouper.accept(new OrderItemRow(2L, 11L, 0D, Order.Status.PENDING, null, null));
+        Assert.assertEquals(1, orderViews.size());
+        Assert.assertEquals(2, orderViews.get(0).getBooks().size());
+
+        grouper.flush();
+        Assert.assertEquals(2, orderViews.size());
+        Assert.assertTrue(orderViews.get(1).getBooks().isEmpty());
+        grouper.flush();
+        Assert.assertEquals(2, orderViews.size());
+    }
+
+    @Test
+    public void largeResponseKeepsOrderAndBooksSorted() {
+        List<OrderItemRow> rows = rows(LARGE_RESPONSE_ORDERS);
+
+        long start = System.nanoTime();
+        List<OrderView> orderViews = OrderView.fromRows(rows);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        log.info("{} order views assembled from {} rows in {} ms", orderViews.size(), rows.size(), elapsedMillis);
+
+        Assert.assertEquals(LARGE_RESPONSE_ORDERS, orderViews.size());
+        for (int i = 0; i < orderViews.size(); i++) {
+            OrderView orderView = orderViews.get(i);
+            Assert.assertEquals(Long.valueOf(i + 1), orderView.getOrderId());
+            List<BookItem> books = orderView.getBooks();
+            Assert.assertEquals(BOOKS_PER_ORDER, books.size());
+            for (int j = 1; j < books.size(); j++) {
+                Assert.assertTrue(books.get(j - 1).getBookId() < books.get(j).getBookId());
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.spring.bookstore.service;
+
+import com.example.spring.bookstore.data.view.BestsellerView;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BestsellersTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final Bestsellers bestsellers = new Bestsellers(10, now::get);
+
+    @Test
+    public void windowCoversWholeLengthInPartialBucket() {
+        // Sold 10 seconds before the end of its minute, looked up 50 seconds later
+        now.set(TimeUnit.SECONDS.toMillis(50));
+        bestsellers.recordAfterCommit(Collections.singletonMap(1L, 3));
+        now.set(TimeUnit.SECONDS.toMillis(100));
+
+        List<BestsellerView> top = bestsellers.top(Duration.ofMinutes(1), 10);
+        Assert.assertEquals(top.size(), 1);
+    }
+
+    @Test
+    public void dayWindowCoversWholeDay() {
+        // Sold at the end of the first hour, looked up just under a day later
+        now.set(TimeUnit.HOURS.toMillis(1) - 1);
+        bestsellers.recordAfterCommit(Collections.singletonMap(1L, 3));
+        now.set(TimeUnit.DAYS.toMillis(1) + TimeUnit.HOURS.toMillis(1) - 2);
+
+        Assert.assertEquals(bestsellers.top(Duration.ofDays(1), 10).size(), 1);
+        Assert.assertEquals(bestsellers.top(Duration.ofHours(1), 10).size(), 0);
+    }
+}
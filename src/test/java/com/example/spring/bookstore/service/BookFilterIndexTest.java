@@ -0,0 +1,63 @@
+package com.example.spring.bookstore.service;
+
+import com.example.spring.bookstore.data.entity.Book;
+import com.example.spring.bookstore.data.repository.BookRepository;
+import com.example.spring.bookstore.request.objects.BookFilter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Collections;
+
+import static org.mockito.Mockito.when;
+
+public class BookFilterIndexTest {
+
+    private static final BookFilter IN_STOCK = new BookFilter(null, null, true);
+
+    private BookFilterIndex bookFilterIndex;
+
+    @Before
+    public void prepare() {
+        bookFilterIndex = new BookFilterIndex(
+                Mockito.mock(BookRepository.class),
+                Mockito.mock(PlatformTransactionManager.class)
+        );
+        bookFilterIndex.addAfterCommit(book(1L, 5));
+    }
+
+    private static Book book(Long id, int quantity) {
+        Book book = Mockito.mock(Book.class);
+        when(book.getId()).thenReturn(id);
+        when(book.getPrice()).thenReturn(10D);
+        when(book.getQuantity()).thenReturn(quantity);
+        return book;
+    }
+
+    private int inStockCount() {
+        return bookFilterIndex.find(IN_STOCK, false, null, 10).getIds().length;
+    }
+
+    @Test
+    public void staleReadDoesntTakeBookOutOfStock() {
+        // Read before items were returned, the return is already in the index
+        bookFilterIndex.correct(book(1L, 0));
+        bookFilterIndex.correct(book(1L, 2));
+
+        // Five items are indexed, four of them are taken
+        bookFilterIndex.takenAfterCommit(Collections.singletonMap(1L, 4));
+        Assert.assertEquals(inStockCount(), 1);
+    }
+
+    @Test
+    public void bookOutOfStockInIndexIsBroughtBack() {
+        bookFilterIndex.takenAfterCommit(Collections.singletonMap(1L, 5));
+        Assert.assertEquals(inStockCount(), 0);
+
+        bookFilterIndex.correct(book(1L, 3));
+
+        Assert.assertEquals(inStockCount(), 1);
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.spring.bookstore.service;
+
+import com.example.spring.bookstore.data.repository.BookRepository;
+import com.example.spring.bookstore.data.view.BookSalesRow;
+import com.example.spring.bookstore.data.view.BookSalesTotalsView;
+import com.example.spring.bookstore.data.view.BookSalesView;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.function.Consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+
+@RunWith(SpringRunner.class)
+public class BookSalesStatsTest {
+
+    private BookSalesStats bookSalesStats;
+
+    @Before
+    public void prepare() {
+        BookRepository bookRepository = Mockito.mock(BookRepository.class);
+        doAnswer(invocation -> {
+            Consumer<BookSalesRow> consumer = invocation.getArgument(0);
+            consumer.accept(row(1L, 3, 30, 2, 2));
+            consumer.accept(row(2L, 1, 15, 1, 1));
+            return null;
+        }).when(bookRepository).readSales(any());
+        bookSalesStats = new BookSalesStats(bookRepository, Mockito.mock(PlatformTransactionManager.class));
+        bookSalesStats.load();
+    }
+
+    @Test
+    public void newerRowsReplaceOlderOnes() {
+        // A row committed before the mirror was loaded is older than the loaded one
+        bookSalesStats.putAfterCommit(Collections.singletonList(row(1L, 1, 10, 1, 1)));
+        Assert.assertEquals(3, bookSalesStats.get(1L).get().getUnitsSold());
+
+        bookSalesStats.putAfterCommit(Arrays.asList(row(1L, 5, 50, 3, 3), row(3L, 2, 40, 1, 1)));
+        Assert.assertEquals(5, bookSalesStats.get(1L).get().getUnitsSold());
+        Assert.assertEquals(3, bookSalesStats.get(1L).get().getOrdersCount());
+
+        BookSalesTotalsView totals = bookSalesStats.totals();
+        Assert.assertEquals(3, totals.getBooksSold());
+        Assert.assertEquals(8, totals.getUnitsSold());
+        Assert.assertEquals(105, totals.getRevenue(), 0.001);
+        Assert.assertEquals(5, totals.getOrderItems());
+    }
+
+    @Test
+    public void booksWithoutSoldUnitsAreNotCounted() {
+        bookSalesStats.putAfterCommit(Collections.singletonList(row(2L, 0, 0, 0, 2)));
+        Assert.assertEquals(1, bookSalesStats.totals().getBooksSold());
+        Assert.assertEquals(0, bookSalesStats.get(2L).get().getUnitsSold());
+
+        bookSalesStats.removeAfterCommit(1L);
+        Assert.assertFalse(bookSalesStats.get(1L).isPresent());
+        Assert.assertEquals(0, bookSalesStats.totals().getBooksSold());
+        Assert.assertEquals(0, bookSalesStats.totals().getUnitsSold());
+    }
+
+    @Test
+    public void salesOfHotBookAreSummedOverSlots() {
+        bookSalesStats.putAfterCommit(Arrays.asList(slotRow(1L, 1, 2, 20, 1, 1), slotRow(1L, 2, 1, 10, 1, 1)));
+        Assert.assertEquals(6, bookSalesStats.get(1L).get().getUnitsSold());
+        Assert.assertEquals(60, bookSalesStats.get(1L).get().getRevenue(), 0.001);
+        Assert.assertEquals(2, bookSalesStats.totals().getBooksSold());
+
+        // A cancellation takes everything back from the first row
+        bookSalesStats.putAfterCommit(Collections.singletonList(row(1L, -3, -30, 0, 3)));
+        Assert.assertEquals(0, bookSalesStats.get(1L).get().getUnitsSold());
+        Assert.assertEquals(1, bookSalesStats.totals().getBooksSold());
+        Assert.assertEquals(1, bookSalesStats.totals().getUnitsSold());
+
+        bookSalesStats.removeAfterCommit(1L);
+        Assert.assertFalse(bookSalesStats.get(1L).isPresent());
+        Assert.assertEquals(1, bookSalesStats.totals().getBooksSold());
+        Assert.assertEquals(15, bookSalesStats.totals().getRevenue(), 0.001);
+    }
+
+    private static BookSalesRow row(Long bookId, long units, double revenue, long orders, long version) {
+        return slotRow(bookId, 0, units, revenue, orders, version);
+    }
+
+    private static BookSalesRow slotRow(Long bookId, int slot, long units, double revenue, long orders, long version) {
+        return new BookSalesRow(new BookSalesView(bookId, units, revenue, orders), slot, version);
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.spring.bookstore.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+
+public class ResourceVersionsTest {
+
+    @Test
+    public void changedResourceGetsNewTags() {
+        ResourceVersions versions = new ResourceVersions();
+        String bookTag = versions.books().tag(1L);
+        String otherBookTag = versions.books().tag(2L);
+        String catalogTag = versions.books().collectionTag();
+
+        versions.books().changed(Collections.singleton(1L));
+
+        Assert.assertNotEquals(versions.books().tag(1L), bookTag);
+        Assert.assertEquals(versions.books().tag(2L), otherBookTag);
+        Assert.assertNotEquals(versions.books().collectionTag(), catalogTag);
+    }
+
+    @Test
+    public void allChangedChangesEveryTag() {
+        ResourceVersions versions = new ResourceVersions();
+        String orderTag = versions.orders().tag(7L);
+        String userTag = versions.users().tag(7L);
+
+        versions.orders().allChanged();
+
+        Assert.assertNotEquals(versions.orders().tag(7L), orderTag);
+        Assert.assertEquals(versions.users().tag(7L), userTag);
+    }
+
+    @Test
+    public void ifNoneMatchListIsCompared() {
+        String etag = "\"books-1-2\"";
+
+        Assert.assertTrue(ResourceVersions.matches(etag, etag));
+        Assert.assertTrue(ResourceVersions.matches("\"other\", W/" + etag, etag));
+        Assert.assertFalse(ResourceVersions.matches("\"other\"", etag));
+        Assert.assertFalse(ResourceVersions.matches(null, etag));
+    }
+}
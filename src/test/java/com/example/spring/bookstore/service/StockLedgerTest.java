@@ -0,0 +1,77 @@
+package com.example.spring.bookstore.service;
+
+import com.example.spring.bookstore.data.repository.BookRepository;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Mockito.when;
+
+@RunWith(SpringRunner.class)
+public class StockLedgerTest {
+
+    private BookRepository bookRepository;
+    private StockLedger stockLedger;
+
+    @Before
+    public void prepare() {
+        bookRepository = Mockito.mock(BookRepository.class);
+        Map<Long, Integer> stockLevels = new HashMap<>();
+        stockLevels.put(1L, 5);
+        stockLevels.put(2L, 1);
+        when(bookRepository.findStockLevels()).thenReturn(stockLevels);
+        stockLedger = new StockLedger(bookRepository);
+        stockLedger.reconcile();
+    }
+
+    @Test
+    public void reserveTakesBooksFromStock() {
+        Assert.assertTrue(stockLedger.reserve(Collections.singletonMap(1L, 5)).isEmpty());
+        Assert.assertEquals(stockLedger.reserve(Collections.singletonMap(1L, 1)), Collections.singletonList(1L));
+    }
+
+    @Test
+    public void shortReservationReservesNothing() {
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
+        quantities.put(1L, 2);
+        quantities.put(2L, 2);
+
+        List<Long> shortBookIds = stockLedger.reserve(quantities);
+
+        Assert.assertEquals(shortBookIds, Collections.singletonList(2L));
+        Assert.assertTrue(stockLedger.reserve(Collections.singletonMap(1L, 5)).isEmpty());
+    }
+
+    @Test
+    public void restockReturnsBooks() {
+        stockLedger.reserve(Collections.singletonMap(2L, 1));
+        stockLedger.restock(Collections.singletonMap(2L, 1));
+        Assert.assertTrue(stockLedger.reserve(Collections.singletonMap(2L, 1)).isEmpty());
+    }
+
+    @Test
+    public void untrackedBooksAreLeftToDatabase() {
+        stockLedger.evict(2L);
+        Assert.assertTrue(stockLedger.reserve(Collections.singletonMap(2L, 100)).isEmpty());
+    }
+
+    @Test
+    public void counterBehindDatabaseIsReloaded() {
+        Assert.assertEquals(stockLedger.reserve(Collections.singletonMap(2L, 3)), Collections.singletonList(2L));
+        when(bookRepository.findStockLevels(Collections.singletonList(2L))).thenReturn(Collections.singletonMap(2L, 3));
+
+        stockLedger.reload(Collections.singletonList(2L));
+
+        Assert.assertTrue(stockLedger.reserve(Collections.singletonMap(2L, 3)).isEmpty());
+        Assert.assertEquals(stockLedger.reserve(Collections.singletonMap(2L, 1)), Collections.singletonList(2L));
+    }
+}
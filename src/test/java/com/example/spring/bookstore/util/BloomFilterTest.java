@@ -0,0 +1,37 @@
+package com.example.spring.bookstore.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BloomFilterTest {
+
+    @Test
+    public void addedKeysAreAlwaysFound() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (long key = 1; key <= 10_000; key++) {
+            filter.add(key);
+        }
+        for (long key = 1; key <= 10_000; key++) {
+            Assert.assertTrue(filter.mightContain(key));
+        }
+    }
+
+    @Test
+    public void falsePositiveRateIsNearTarget() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (long key = 1; key <= 10_000; key++) {
+            filter.add(key);
+        }
+        int falsePositives = 0;
+        for (long key = 10_001; key <= 110_000; key++) {
+            if (filter.mightContain(key)) falsePositives++;
+        }
+        Assert.assertTrue("False positives: " + falsePositives, falsePositives < 2_000);
+        Assert.assertEquals(0.01, filter.expectedFalsePositiveRate(), 0.005);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void falsePositiveRateMustBeBelowOne() {
+        new BloomFilter(100, 1);
+    }
+}
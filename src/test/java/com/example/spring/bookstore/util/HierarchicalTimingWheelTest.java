@@ -0,0 +1,68 @@
+package com.example.spring.bookstore.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class HierarchicalTimingWheelTest {
+
+    private static final long TICK = 10;
+
+    @Test
+    public void itemExpiresAfterItsTick() {
+        HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(TICK, 4, 0);
+        wheel.add("item", 5);
+
+        Assert.assertTrue(wheel.advance(9).isEmpty());
+        Assert.assertEquals(wheel.advance(10), Collections.singletonList("item"));
+        Assert.assertEquals(wheel.size(), 0);
+    }
+
+    @Test
+    public void distantItemCascadesToLowerLevels() {
+        HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(TICK, 4, 0);
+        wheel.add("item", 1000);
+
+        Assert.assertTrue(wheel.advance(1009).isEmpty());
+        Assert.assertEquals(wheel.advance(1010), Collections.singletonList("item"));
+    }
+
+    @Test
+    public void overdueItemExpiresOnNextAdvance() {
+        HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(TICK, 4, 100);
+        wheel.add("item", 50);
+
+        Assert.assertEquals(wheel.advance(100), Collections.singletonList("item"));
+    }
+
+    @Test
+    public void everyItemExpiresOnceWithinOneTick() {
+        HierarchicalTimingWheel<Integer> wheel = new HierarchicalTimingWheel<>(TICK, 8, 0);
+        Random random = new Random(42);
+        Map<Integer, Long> expiresAt = new HashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            long time = random.nextInt(100_000);
+            expiresAt.put(i, time);
+            wheel.add(i, time);
+        }
+
+        Map<Integer, Long> expiredAt = new HashMap<>();
+        for (long now = 0; now <= 100_000 + TICK; now += 7) {
+            for (Integer item : wheel.advance(now)) {
+                Assert.assertNull("Item expired twice: " + item, expiredAt.put(item, now));
+            }
+        }
+
+        Assert.assertEquals(expiredAt.size(), expiresAt.size());
+        for (Map.Entry<Integer, Long> entry : expiredAt.entrySet()) {
+            long expected = expiresAt.get(entry.getKey());
+            Assert.assertTrue(entry.getValue() >= expected);
+            Assert.assertTrue(entry.getValue() < expected + 2 * TICK);
+        }
+        Assert.assertEquals(wheel.size(), 0);
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.spring.bookstore.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LoadGuardTest {
+
+    @Test
+    public void idRemovedWhileLoadingIsNotLoaded() {
+        LoadGuard loadGuard = new LoadGuard();
+        loadGuard.removed(1);
+
+        Assert.assertFalse(loadGuard.canLoad(1));
+        Assert.assertTrue(loadGuard.canLoad(2));
+    }
+
+    @Test
+    public void removedIdsAreForgottenWhenLoaded() {
+        LoadGuard loadGuard = new LoadGuard();
+        loadGuard.removed(1);
+        loadGuard.loaded();
+
+        Assert.assertTrue(loadGuard.isLoaded());
+        Assert.assertTrue(loadGuard.canLoad(1));
+
+        loadGuard.removed(2);
+        Assert.assertTrue(loadGuard.canLoad(2));
+
+        loadGuard.reset();
+        Assert.assertFalse(loadGuard.isLoaded());
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.spring.bookstore.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class LongHashSetTest {
+
+    @Test
+    public void keysAreAddedAndRemoved() {
+        LongHashSet set = new LongHashSet(4);
+
+        Assert.assertTrue(set.add(0));
+        Assert.assertTrue(set.add(42));
+        Assert.assertFalse(set.add(42));
+        Assert.assertTrue(set.contains(0));
+        Assert.assertTrue(set.contains(42));
+        Assert.assertEquals(2, set.size());
+
+        Assert.assertTrue(set.remove(0));
+        Assert.assertFalse(set.remove(0));
+        Assert.assertFalse(set.contains(0));
+        Assert.assertTrue(set.contains(42));
+        Assert.assertEquals(1, set.size());
+
+        set.clear();
+        Assert.assertFalse(set.contains(42));
+        Assert.assertEquals(0, set.size());
+    }
+
+    @Test
+    public void setGrowsAndKeepsKeys() {
+        LongHashSet set = new LongHashSet(1);
+        for (long key = 1; key <= 10_000; key++) {
+            set.add(key);
+        }
+        Assert.assertEquals(10_000, set.size());
+        for (long key = 1; key <= 10_000; key++) {
+            Assert.assertTrue(set.contains(key));
+        }
+        Assert.assertFalse(set.contains(10_001));
+    }
+
+    @Test
+    public void randomOperationsMatchHashSet() {
+        // Few distinct keys in a small table make long probe runs, so removals shift keys back often
+        Random random = new Random(7);
+        LongHashSet set = new LongHashSet(16);
+        Set<Long> expected = new HashSet<>();
+        for (int i = 0; i < 100_000; i++) {
+            long key = random.nextInt(64) - 8;
+            if (random.nextBoolean()) {
+                Assert.assertEquals(expected.add(key), set.add(key));
+            } else {
+                Assert.assertEquals(expected.remove(key), set.remove(key));
+            }
+            Assert.assertEquals(expected.size(), set.size());
+        }
+        for (long key = -8; key < 56; key++) {
+            Assert.assertEquals(expected.contains(key), set.contains(key));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.spring.bookstore.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NgramIndexTest {
+
+    @Test
+    public void substringMatchesAreRanked() {
+        NgramIndex index = new NgramIndex();
+        index.add(1, "The Lord of the Rings");
+        index.add(2, "Rings");
+        index.add(3, "Springs and Rivers");
+        index.add(4, "Rings of Saturn");
+        index.add(5, "Dune");
+
+        NgramIndex.Hits hits = index.search("RINGS", 0, 10);
+
+        Assert.assertArrayEquals(new long[]{2, 4, 1, 3}, hits.getIds());
+        Assert.assertEquals(4, hits.getTotal());
+    }
+
+    @Test
+    public void shortQueriesMatchWordPrefixes() {
+        NgramIndex index = new NgramIndex();
+        index.add(1, "Dune");
+        index.add(2, "Children of Dune");
+        index.add(3, "Sandune");
+
+        Assert.assertArrayEquals(new long[]{1, 2}, index.search("du", 0, 10).getIds());
+        Assert.assertArrayEquals(new long[]{3}, index.search("s", 0, 10).getIds());
+        Assert.assertEquals(0, index.search("un", 0, 10).getTotal());
+    }
+
+    @Test
+    public void gramsInOtherOrderDontMatch() {
+        NgramIndex index = new NgramIndex();
+        index.add(1, "abcd bcde");
+
+        Assert.assertEquals(1, index.search("bcde", 0, 10).getTotal());
+        Assert.assertEquals(0, index.search("abcde", 0, 10).getTotal());
+    }
+
+    @Test
+    public void matchesArePaged() {
+        NgramIndex index = new NgramIndex();
+        for (long id = 1; id <= 100; id++) {
+            index.add(id, "Book " + id);
+        }
+
+        NgramIndex.Hits firstPage = index.search("book", 0, 10);
+        NgramIndex.Hits secondPage = index.search("book", 10, 10);
+
+        Assert.assertEquals(100, firstPage.getTotal());
+        // Shorter names first, then in insertion order
+        Assert.assertArrayEquals(new long[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10}, firstPage.getIds());
+        Assert.assertArrayEquals(new long[]{11, 12, 13, 14, 15, 16, 17, 18, 19, 20}, secondPage.getIds());
+        Assert.assertEquals(0, index.search("book", 100, 10).getIds().length);
+    }
+
+    @Test
+    public void removedNamesDontMatchAfterCompaction() {
+        NgramIndex index = new NgramIndex();
+        for (long id = 1; id <= 5000; id++) {
+            index.add(id, "Book " + id);
+        }
+        for (long id = 1; id <= 4000; id++) {
+            Assert.assertTrue(index.remove(id));
+        }
+        Assert.assertFalse(index.remove(1));
+
+        Assert.assertEquals(1000, index.size());
+        Assert.assertEquals(1000, index.search("book", 0, 10).getTotal());
+        Assert.assertArrayEquals(new long[]{4001}, index.search("book 4001", 0, 10).getIds());
+        Assert.assertEquals(0, index.search("book 3999", 0, 10).getTotal());
+        Assert.assertTrue(index.add(1, "Book 1"));
+        Assert.assertArrayEquals(new long[]{1}, index.search("book 1", 0, 1).getIds());
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.spring.bookstore.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class OrderSummaryTableTest {
+
+    @Test
+    public void olderSummariesDontReplaceNewerOnes() {
+        OrderSummaryTable table = new OrderSummaryTable(4);
+        Assert.assertTrue(table.put(7, 2, 1, 50, 3));
+        Assert.assertFalse(table.put(7, 1, 1, 0, 2));
+        Assert.assertFalse(table.put(7, 1, 1, 0, 3));
+
+        int slot = table.find(7);
+        Assert.assertEquals(2, table.ordersCount(slot));
+        Assert.assertEquals(1, table.pendingCount(slot));
+        Assert.assertEquals(50, table.paidTotal(slot), 0.001);
+        Assert.assertEquals(3, table.version(slot));
+
+        Assert.assertTrue(table.put(7, 3, 0, 80, 4));
+        Assert.assertEquals(3, table.ordersCount(table.find(7)));
+        Assert.assertEquals(-1, table.find(8));
+    }
+
+    @Test
+    public void zeroKeyIsKeptApart() {
+        OrderSummaryTable table = new OrderSummaryTable(4);
+        Assert.assertEquals(-1, table.find(0));
+        table.put(0, 1, 1, 0, 1);
+        for (long key = 1; key <= 100; key++) table.put(key, (int) key, 0, 0, 1);
+        Assert.assertEquals(1, table.ordersCount(table.find(0)));
+        Assert.assertEquals(101, table.size());
+        Assert.assertTrue(table.remove(0));
+        Assert.assertEquals(-1, table.find(0));
+        Assert.assertEquals(100, table.size());
+    }
+
+    @Test
+    public void randomOperationsMatchHashMap() {
+        Random random = new Random(5);
+        OrderSummaryTable table = new OrderSummaryTable(8);
+        Map<Long, long[]> summaries = new HashMap<>();
+        for (int i = 0; i < 100_000; i++) {
+            long key = random.nextInt(2000) - 1000;
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(summaries.remove(key) != null, table.remove(key));
+            } else {
+                long version = random.nextInt(10);
+                int ordersCount = random.nextInt(100);
+                long[] kept = summaries.get(key);
+                boolean newer = kept == null || kept[1] < version;
+                if (newer) summaries.put(key, new long[]{ordersCount, version});
+                Assert.assertEquals(newer, table.put(key, ordersCount, 0, 0, version));
+            }
+            Assert.assertEquals(summaries.size(), table.size());
+        }
+        for (long key = -1000; key < 1000; key++) {
+            long[] kept = summaries.get(key);
+            int slot = table.find(key);
+            Assert.assertEquals(kept == null, slot < 0);
+            if (kept != null) {
+                Assert.assertEquals(kept[0], table.ordersCount(slot));
+                Assert.assertEquals(kept[1], table.version(slot));
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.spring.bookstore.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class PriceStockIndexTest {
+
+    @Test
+    public void rowsAreFoundByPriceRangeAndStock() {
+        PriceStockIndex index = new PriceStockIndex();
+        index.put(1, 50, 3);
+        index.put(2, 10, 0);
+        index.put(3, 30, 1);
+        index.put(4, 30, 0);
+        index.put(5, 90, 2);
+
+        Assert.assertArrayEquals(new long[]{3, 4, 1}, index.find(20, 50, false, false, 0, null, 10).getIds());
+        Assert.assertArrayEquals(new long[]{3, 1}, index.find(20, 50, true, false, 0, null, 10).getIds());
+        Assert.assertArrayEquals(new long[]{5, 1, 3}, index.find(0, 100, true, true, 0, null, 10).getIds());
+
+        index.addQuantity(3, -1);
+        index.addQuantity(2, 4);
+        Assert.assertArrayEquals(new long[]{2, 1, 5}, index.find(0, 100, true, false, 0, null, 10).getIds());
+        Assert.assertEquals(0, index.quantity(3));
+        Assert.assertEquals(-1, index.quantity(6));
+    }
+
+    @Test
+    public void pagesContinueAfterCursor() {
+        PriceStockIndex index = new PriceStockIndex();
+        index.put(1, 10, 1);
+        index.put(2, 20, 1);
+        index.put(3, 20, 1);
+        index.put(4, 30, 1);
+
+        Assert.assertArrayEquals(new long[]{3, 4}, index.find(0, 100, true, false, 20, 2L, 10).getIds());
+        Assert.assertArrayEquals(new long[]{2, 1}, index.find(0, 100, true, true, 20, 3L, 10).getIds());
+        // The cursor row is gone, the page starts where it was
+        index.remove(2);
+        Assert.assertArrayEquals(new long[]{3}, index.find(0, 100, true, false, 20, 2L, 1).getIds());
+        Assert.assertArrayEquals(new long[]{1}, index.find(0, 100, true, true, 20, 2L, 1).getIds());
+    }
+
+    @Test
+    public void randomOperationsMatchScan() {
+        Random random = new Random(11);
+        PriceStockIndex index = new PriceStockIndex();
+        Map<Long, double[]> rows = new HashMap<>();
+        for (int i = 0; i < 20_000; i++) {
+            long id = random.nextInt(500);
+            int operation = random.nextInt(4);
+            if (operation == 0) {
+                double price = random.nextInt(50);
+                int quantity = random.nextInt(3);
+                double[] row = rows.get(id);
+                if (row == null) rows.put(id, new double[]{price, quantity});
+                else row[1] = quantity;
+                index.put(id, price, quantity);
+            } else if (operation == 1) {
+                Assert.assertEquals(rows.remove(id) != null, index.remove(id));
+            } else if (operation == 2) {
+                int delta = random.nextInt(5) - 2;
+                double[] row = rows.get(id);
+                if (row != null) row[1] += delta;
+                Assert.assertEquals(row != null, index.addQuantity(id, delta));
+            } else {
+                double minPrice = random.nextInt(50);
+                double maxPrice = minPrice + random.nextInt(20);
+                boolean inStockOnly = random.nextBoolean();
+                boolean descending = random.nextBoolean();
+                Assert.assertArrayEquals(
+                        scan(rows, minPrice, maxPrice, inStockOnly, descending, 20),
+                        index.find(minPrice, maxPrice, inStockOnly, descending, 0, null, 20).getIds()
+                );
+            }
+            Assert.assertEquals(rows.size(), index.size());
+        }
+    }
+
+    private static long[] scan(Map<Long, double[]> rows, double minPrice, double maxPrice,
+                               boolean inStockOnly, boolean descending, int limit) {
+        List<Long> ids = new ArrayList<>();
+        for (Map.Entry<Long, double[]> row : rows.entrySet()) {
+            double price = row.getValue()[0];
+            if (price < minPrice || price > maxPrice || (inStockOnly && row.getValue()[1] <= 0)) continue;
+            ids.add(row.getKey());
+        }
+        Comparator<Long> order = Comparator.<Long>comparingDouble(id -> rows.get(id)[0]).thenComparing(id -> id);
+        ids.sort(descending ? order.reversed() : order);
+        long[] found = new long[Math.min(limit, ids.size())];
+        for (int i = 0; i < found.length; i++) {
+            found[i] = ids.get(i);
+        }
+        return found;
+    }
+}
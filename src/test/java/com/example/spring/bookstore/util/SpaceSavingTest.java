@@ -0,0 +1,76 @@
+package com.example.spring.bookstore.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class SpaceSavingTest {
+
+    @Test
+    public void keysAreCountedExactlyUntilFull() {
+        SpaceSaving sketch = new SpaceSaving(4);
+        sketch.offer(1, 3);
+        sketch.offer(2, 1);
+        sketch.offer(1, 2);
+        sketch.offer(0, 7);
+
+        Map<Long, Long> counts = counts(sketch);
+        Assert.assertEquals(sketch.size(), 3);
+        Assert.assertEquals(counts.get(1L).longValue(), 5);
+        Assert.assertEquals(counts.get(2L).longValue(), 1);
+        Assert.assertEquals(counts.get(0L).longValue(), 7);
+        for (int counter = 0; counter < sketch.size(); counter++) Assert.assertEquals(sketch.error(counter), 0);
+    }
+
+    @Test
+    public void newKeyTakesSmallestCounter() {
+        SpaceSaving sketch = new SpaceSaving(2);
+        sketch.offer(1, 5);
+        sketch.offer(2, 2);
+        sketch.offer(3, 1);
+
+        Map<Long, Long> counts = counts(sketch);
+        Assert.assertEquals(sketch.size(), 2);
+        Assert.assertFalse(counts.containsKey(2L));
+        Assert.assertEquals(counts.get(1L).longValue(), 5);
+        // Key 3 inherits the count of key 2 as its error
+        Assert.assertEquals(counts.get(3L).longValue(), 3);
+    }
+
+    @Test
+    public void countsBoundTrueCounts() {
+        SpaceSaving sketch = new SpaceSaving(50);
+        Map<Long, Long> trueCounts = new HashMap<>();
+        Random random = new Random(42);
+        long total = 0;
+        for (int i = 0; i < 100000; i++) {
+            // Skewed keys: a few heavy keys and a long tail
+            long key = (long) Math.floor(Math.pow(random.nextDouble(), 4) * 5000);
+            long count = 1 + random.nextInt(3);
+            sketch.offer(key, count);
+            trueCounts.merge(key, count, Long::sum);
+            total += count;
+        }
+
+        Map<Long, Long> counts = counts(sketch);
+        for (int counter = 0; counter < sketch.size(); counter++) {
+            long trueCount = trueCounts.get(sketch.key(counter));
+            Assert.assertTrue(sketch.count(counter) >= trueCount);
+            Assert.assertTrue(sketch.count(counter) - sketch.error(counter) <= trueCount);
+        }
+        for (Map.Entry<Long, Long> trueCount : trueCounts.entrySet()) {
+            if (trueCount.getValue() > total / 50) Assert.assertTrue(counts.containsKey(trueCount.getKey()));
+        }
+    }
+
+    private static Map<Long, Long> counts(SpaceSaving sketch) {
+        Map<Long, Long> counts = new HashMap<>();
+        for (int counter = 0; counter < sketch.size(); counter++) {
+            counts.put(sketch.key(counter), sketch.count(counter));
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.spring.bookstore.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TinyLfuCacheTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    public void valueExpiresAfterTtl() {
+        TinyLfuCache<String, String> cache = new TinyLfuCache<>(10, 100, now::get);
+        cache.put("key", "value");
+
+        now.set(99);
+        Assert.assertEquals(cache.get("key"), "value");
+        now.set(100);
+        Assert.assertNull(cache.get("key"));
+        Assert.assertEquals(cache.size(), 0);
+        Assert.assertEquals(cache.hitCount(), 1);
+        Assert.assertEquals(cache.missCount(), 1);
+    }
+
+    @Test
+    public void lessFrequentKeyIsNotAdmitted() {
+        TinyLfuCache<String, String> cache = new TinyLfuCache<>(2, 100, now::get);
+        cache.put("a", "a");
+        for (int i = 0; i < 3; i++) cache.get("a");
+        cache.put("b", "b");
+        // "b" leaves the window and loses to the more frequent "a"
+        cache.put("c", "c");
+
+        Assert.assertEquals(cache.get("a"), "a");
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals(cache.get("c"), "c");
+        Assert.assertEquals(cache.evictionCount(), 1);
+    }
+
+    @Test
+    public void frequentKeysSurviveScan() {
+        TinyLfuCache<Integer, Integer> cache = new TinyLfuCache<>(1000, 100, now::get);
+        for (int key = 0; key < 100; key++) cache.put(key, key);
+        for (int i = 0; i < 5; i++) {
+            for (int key = 0; key < 100; key++) cache.get(key);
+        }
+
+        // One-off keys would push every key out of a plain LRU cache
+        for (int key = 1000; key < 3000; key++) cache.put(key, key);
+
+        for (int key = 0; key < 100; key++) {
+            Assert.assertEquals(cache.get(key), Integer.valueOf(key));
+        }
+        Assert.assertEquals(cache.size(), 1000);
+    }
+
+    @Test
+    public void invalidatedKeyIsNotReturned() {
+        TinyLfuCache<String, String> cache = new TinyLfuCache<>(10, 100, now::get);
+        cache.put("a", "a");
+        cache.put("b", "b");
+        cache.get("a");
+        cache.invalidate("a");
+
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals(cache.get("b"), "b");
+
+        cache.clear();
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals(cache.size(), 0);
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.spring.bookstore.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class WindowedTopKTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    public void topMergesBucketsOfWindow() {
+        WindowedTopK topK = new WindowedTopK(10, 6, 10, now::get);
+        topK.offer(1, 5);
+        topK.offer(2, 1);
+        now.set(10);
+        topK.offer(2, 3);
+        now.set(20);
+        topK.offer(3, 2);
+
+        WindowedTopK.Top top = topK.top(3, 10);
+        Assert.assertArrayEquals(top.getKeys(), new long[]{1, 2, 3});
+        Assert.assertArrayEquals(top.getCounts(), new long[]{5, 4, 2});
+        Assert.assertArrayEquals(top.getErrors(), new long[]{0, 0, 0});
+
+        top = topK.top(2, 1);
+        Assert.assertArrayEquals(top.getKeys(), new long[]{2});
+        Assert.assertArrayEquals(top.getCounts(), new long[]{3});
+    }
+
+    @Test
+    public void oldBucketsLeaveWindowAndAreReused() {
+        WindowedTopK topK = new WindowedTopK(10, 3, 10, now::get);
+        topK.offer(1, 5);
+        now.set(20);
+        topK.offer(2, 1);
+        Assert.assertEquals(topK.top(3, 10).getKeys().length, 2);
+
+        now.set(30);
+        // The bucket of key 1 left the window and is replaced by the current one
+        topK.offer(3, 1);
+        WindowedTopK.Top top = topK.top(3, 10);
+        Assert.assertArrayEquals(top.getKeys(), new long[]{2, 3});
+
+        now.set(1000);
+        Assert.assertEquals(topK.top(3, 10).getKeys().length, 0);
+    }
+
+    @Test
+    public void mergedCountsBoundTrueCounts() {
+        WindowedTopK topK = new WindowedTopK(10, 4, 20, now::get);
+        Map<Long, Long> trueCounts = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 40000; i++) {
+            now.set(i / 1000);
+            long key = (long) Math.floor(Math.pow(random.nextDouble(), 3) * 500);
+            topK.offer(key, 1);
+            trueCounts.merge(key, 1L, Long::sum);
+        }
+
+        WindowedTopK.Top top = topK.top(4, 20);
+        Assert.assertEquals(top.getKeys().length, 20);
+        for (int i = 0; i < top.getKeys().length; i++) {
+            long trueCount = trueCounts.get(top.getKeys()[i]);
+            Assert.assertTrue(top.getCounts()[i] >= trueCount);
+            Assert.assertTrue(top.getCounts()[i] - top.getErrors()[i] <= trueCount);
+        }
+    }
+}